@@ -55,6 +55,12 @@ public final class MipsAsmEmitter extends AsmEmitter {
         for (var entry : vtbl.getItems()) {
             printer.println(".word %s    # member method", entry.name);
         }
+        if (vtbl instanceof ClosureTable) {
+            for (var entry : ((ClosureTable) vtbl).getEntries()) {
+                printer.println(".word 0    # closure kind: static method");
+                printer.println(".word %s    # closure entry", entry.name);
+            }
+        }
 
         printer.println();
         // vtable end
@@ -0,0 +1,216 @@
+package decaf.backend.dataflow;
+
+import decaf.lowlevel.instr.PseudoInstr;
+
+import java.util.*;
+
+/**
+ * Dominator tree of a control flow graph, with dominance frontiers.
+ * <p>
+ * Block {@code a} dominates block {@code b} if every path from the entry (block 0) to {@code b} goes through
+ * {@code a}. The immediate dominators are computed by the iterative algorithm of Cooper, Harvey and Kennedy ("A Simple,
+ * Fast Dominance Algorithm"), and so are the dominance frontiers. Blocks unreachable from the entry are not in the tree.
+ *
+ * @param <I> type of the instructions stored in the blocks
+ */
+public class DominatorTree<I extends PseudoInstr> {
+    /**
+     * Reachable blocks in reverse postorder, starting from the entry.
+     */
+    public final List<Integer> reversePostorder;
+
+    // immediate dominator, or -1 for the entry and unreachable blocks
+    private final int[] idom;
+
+    // position in reverse postorder, or -1 if unreachable
+    private final int[] order;
+
+    private final List<List<Integer>> children = new ArrayList<>();
+
+    private final List<Set<Integer>> frontiers = new ArrayList<>();
+
+    // preorder and postorder numbers in the dominator tree, for constant-time dominance queries
+    private final int[] pre;
+    private final int[] post;
+
+    public DominatorTree(CFG<I> graph) {
+        var n = graph.nodes.size();
+        idom = new int[n];
+        order = new int[n];
+        pre = new int[n];
+        post = new int[n];
+        Arrays.fill(idom, -1);
+        Arrays.fill(order, -1);
+        for (var i = 0; i < n; i++) {
+            children.add(new ArrayList<>());
+            frontiers.add(new TreeSet<>());
+        }
+
+        reversePostorder = Collections.unmodifiableList(computeReversePostorder(graph));
+        for (var i = 0; i < reversePostorder.size(); i++) {
+            order[reversePostorder.get(i)] = i;
+        }
+
+        // Immediate dominators
+        idom[0] = 0;
+        var changed = true;
+        while (changed) {
+            changed = false;
+            for (var b : reversePostorder) {
+                if (b == 0) {
+                    continue;
+                }
+                var newIdom = -1;
+                for (var p : graph.getPrev(b)) {
+                    if (idom[p] != -1) {
+                        newIdom = newIdom == -1 ? p : intersect(p, newIdom);
+                    }
+                }
+                if (idom[b] != newIdom) {
+                    idom[b] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+        idom[0] = -1;
+
+        for (var b : reversePostorder) {
+            if (b != 0) {
+                children.get(idom[b]).add(b);
+            }
+        }
+
+        // Dominance frontiers: walk up from every predecessor of a join point to its immediate dominator
+        for (var b : reversePostorder) {
+            var preds = graph.getPrev(b);
+            if (preds.size() < 2) {
+                continue;
+            }
+            for (var p : preds) {
+                if (order[p] == -1) {
+                    continue;
+                }
+                var runner = p;
+                while (runner != idom[b]) {
+                    frontiers.get(runner).add(b);
+                    if (runner == 0) {
+                        break;
+                    }
+                    runner = idom[runner];
+                }
+            }
+        }
+
+        number();
+    }
+
+    /**
+     * Is a block reachable from the entry?
+     *
+     * @param b block id
+     * @return true if reachable
+     */
+    public boolean isReachable(int b) {
+        return order[b] != -1;
+    }
+
+    /**
+     * Get the immediate dominator.
+     *
+     * @param b block id
+     * @return its immediate dominator, or -1 if it is the entry or unreachable
+     */
+    public int getIdom(int b) {
+        return idom[b];
+    }
+
+    /**
+     * Get the children in the dominator tree, i.e. the blocks immediately dominated.
+     *
+     * @param b block id
+     * @return its children
+     */
+    public List<Integer> getChildren(int b) {
+        return children.get(b);
+    }
+
+    /**
+     * Get the dominance frontier, i.e. the blocks that are not strictly dominated, but have a dominated predecessor.
+     *
+     * @param b block id
+     * @return its dominance frontier
+     */
+    public Set<Integer> getFrontier(int b) {
+        return frontiers.get(b);
+    }
+
+    /**
+     * Does a block dominate another? Every block dominates itself.
+     *
+     * @param a block id
+     * @param b block id
+     * @return true if {@code a} dominates {@code b}
+     */
+    public boolean dominates(int a, int b) {
+        return isReachable(a) && isReachable(b) && pre[a] <= pre[b] && post[b] <= post[a];
+    }
+
+    private int intersect(int a, int b) {
+        while (a != b) {
+            while (order[a] > order[b]) {
+                a = idom[a];
+            }
+            while (order[b] > order[a]) {
+                b = idom[b];
+            }
+        }
+        return a;
+    }
+
+    private static <I extends PseudoInstr> List<Integer> computeReversePostorder(CFG<I> graph) {
+        var postorder = new ArrayList<Integer>();
+        var visited = new boolean[graph.nodes.size()];
+        var stack = new ArrayDeque<Iterator<Integer>>();
+        var nodes = new ArrayDeque<Integer>();
+        visited[0] = true;
+        stack.push(graph.getSucc(0).iterator());
+        nodes.push(0);
+        while (!stack.isEmpty()) {
+            var it = stack.peek();
+            if (it.hasNext()) {
+                var next = it.next();
+                if (!visited[next]) {
+                    visited[next] = true;
+                    stack.push(graph.getSucc(next).iterator());
+                    nodes.push(next);
+                }
+            } else {
+                stack.pop();
+                postorder.add(nodes.pop());
+            }
+        }
+        Collections.reverse(postorder);
+        return postorder;
+    }
+
+    private void number() {
+        var counter = 0;
+        var stack = new ArrayDeque<Iterator<Integer>>();
+        var nodes = new ArrayDeque<Integer>();
+        pre[0] = counter++;
+        stack.push(children.get(0).iterator());
+        nodes.push(0);
+        while (!stack.isEmpty()) {
+            var it = stack.peek();
+            if (it.hasNext()) {
+                var next = it.next();
+                pre[next] = counter++;
+                stack.push(children.get(next).iterator());
+                nodes.push(next);
+            } else {
+                stack.pop();
+                post[nodes.pop()] = counter++;
+            }
+        }
+    }
+}
@@ -51,7 +51,8 @@ public class LivenessAnalyzer<I extends PseudoInstr> implements Consumer<CFG<I>>
      * written temps of every instruction.
      * - {@code liveUse}: set of all variables (i.e. temps) that are used before they are assigned to a value in this
      * basic block. Note this is NOT simply equal to the union set all read temps, but only those are not yet
-     * assigned/reassigned.
+     * assigned/reassigned. An instruction reads its operands before it writes its result, so in {@code x = x + 1},
+     * {@code x} is used before it is assigned.
      *
      * @param bb basic block
      */
@@ -60,13 +61,13 @@ public class LivenessAnalyzer<I extends PseudoInstr> implements Consumer<CFG<I>>
         bb.liveUse = new TreeSet<>();
 
         for (var loc : bb) {
-            bb.def.addAll(loc.instr.getWritten());
             for (var read : loc.instr.getRead()) {
                 if (!bb.def.contains(read)) {
                     // used before being assigned to a value
                     bb.liveUse.add(read);
                 }
             }
+            bb.def.addAll(loc.instr.getWritten());
         }
     }
 
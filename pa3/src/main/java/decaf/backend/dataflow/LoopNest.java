@@ -0,0 +1,103 @@
+package decaf.backend.dataflow;
+
+import decaf.lowlevel.instr.PseudoInstr;
+
+import java.util.*;
+
+/**
+ * Natural loops of a control flow graph, and how they nest.
+ * <p>
+ * An edge whose target dominates its source is a back edge, and its target is the header of a loop: the header, plus
+ * the blocks reaching the source of the back edge without going through the header. Loops with the same header are
+ * merged into one. Two loops are then either disjoint or nested, and the parent of a loop is the smallest loop strictly
+ * containing it.
+ *
+ * @param <I> type of the instructions stored in the blocks
+ */
+public class LoopNest<I extends PseudoInstr> {
+    /**
+     * A natural loop.
+     */
+    public static class Loop {
+        /**
+         * The only block entered from outside the loop.
+         */
+        public final int header;
+
+        /**
+         * All blocks of the loop, including the header and those of nested loops.
+         */
+        public final Set<Integer> blocks;
+
+        /**
+         * Sources of the back edges.
+         */
+        public final Set<Integer> latches;
+
+        /**
+         * The smallest loop strictly containing this one, if any.
+         */
+        public Optional<Loop> parent = Optional.empty();
+
+        /**
+         * Nesting depth, 1 for an outermost loop.
+         */
+        public int depth = 1;
+
+        Loop(int header, Set<Integer> blocks, Set<Integer> latches) {
+            this.header = header;
+            this.blocks = blocks;
+            this.latches = latches;
+        }
+
+        public boolean contains(int b) {
+            return blocks.contains(b);
+        }
+    }
+
+    /**
+     * All loops, outer loops before the loops they contain.
+     */
+    public final List<Loop> loops;
+
+    public LoopNest(CFG<I> graph, DominatorTree<I> domTree) {
+        var found = new ArrayList<Loop>();
+        for (var header : domTree.reversePostorder) {
+            var latches = new TreeSet<Integer>();
+            for (var p : graph.getPrev(header)) {
+                if (domTree.dominates(header, p)) {
+                    latches.add(p);
+                }
+            }
+            if (latches.isEmpty()) {
+                continue;
+            }
+
+            var blocks = new TreeSet<Integer>();
+            blocks.add(header);
+            var worklist = new ArrayDeque<>(latches);
+            while (!worklist.isEmpty()) {
+                var b = worklist.pop();
+                if (domTree.isReachable(b) && blocks.add(b)) {
+                    worklist.addAll(graph.getPrev(b));
+                }
+            }
+            found.add(new Loop(header, blocks, latches));
+        }
+
+        // A loop contains another one exactly if it is larger and contains its header
+        found.sort(Comparator.comparing(loop -> -loop.blocks.size()));
+        for (var i = 0; i < found.size(); i++) {
+            var inner = found.get(i);
+            for (var j = i - 1; j >= 0; j--) {
+                var outer = found.get(j);
+                if (outer.blocks.size() > inner.blocks.size() && outer.contains(inner.header)) {
+                    inner.parent = Optional.of(outer);
+                    inner.depth = outer.depth + 1;
+                    break;
+                }
+            }
+        }
+        loops = Collections.unmodifiableList(found);
+    }
+}
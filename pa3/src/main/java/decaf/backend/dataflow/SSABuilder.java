@@ -0,0 +1,201 @@
+package decaf.backend.dataflow;
+
+import decaf.lowlevel.instr.Temp;
+import decaf.lowlevel.label.Label;
+import decaf.lowlevel.tac.TacFunc;
+import decaf.lowlevel.tac.TacInstr;
+import decaf.lowlevel.tac.TempSubstitution;
+
+import java.util.*;
+
+/**
+ * Put a TAC function into SSA form, where every temp is written by exactly one instruction.
+ * <p>
+ * φ-nodes ({@link TacInstr.Phi}) are placed at the iterated dominance frontiers of the blocks writing a temp, but only
+ * where the temp is live (pruned SSA). Then, walking down the dominator tree, every write gets a fresh temp, and every
+ * read is bound to the write reaching it. Temps read before any write, including the arguments, keep their old names.
+ * <p>
+ * A φ-node refers to the predecessors of its block by their labels, so such predecessors get a fresh label if they have
+ * none. Blocks unreachable from the entry are removed.
+ * <p>
+ * Once done with SSA, use {@link SSADestructor} to get back to ordinary TAC.
+ */
+public class SSABuilder {
+
+    /**
+     * Transform a function into SSA form, in place.
+     *
+     * @param func function
+     */
+    public void build(TacFunc func) {
+        this.func = func;
+        cfg = new CFGBuilder<TacInstr>().buildFrom(func.getInstrSeq());
+        domTree = new DominatorTree<>(cfg);
+        new LivenessAnalyzer<TacInstr>().accept(cfg);
+
+        var n = cfg.nodes.size();
+        placePhis(n);
+
+        labels = new Label[n];
+        for (var bb : cfg) {
+            labels[bb.id] = bb.label.orElse(null);
+        }
+        for (var b = 0; b < n; b++) {
+            if (!phiTemps.get(b).isEmpty()) {
+                for (var p : preds.get(b)) {
+                    if (labels[p] == null) {
+                        labels[p] = func.freshLabel();
+                    }
+                }
+            }
+        }
+
+        current = new Temp[func.getUsedTempCount()];
+        for (var t = 0; t < current.length; t++) {
+            current[t] = new Temp(t);
+        }
+        renamed = new ArrayList<>();
+        phiDsts = new ArrayList<>();
+        phiSrcs = new ArrayList<>();
+        for (var b = 0; b < n; b++) {
+            renamed.add(new ArrayList<>());
+            phiDsts.add(new Temp[phiTemps.get(b).size()]);
+            phiSrcs.add(new Temp[phiTemps.get(b).size()][preds.get(b).size()]);
+        }
+        rename(0);
+
+        var body = new ArrayList<TacInstr>();
+        for (var b : blocksInOrder()) {
+            if (labels[b] != null) {
+                body.add(new TacInstr.Mark(labels[b]));
+            }
+            var from = new Label[preds.get(b).size()];
+            for (var k = 0; k < from.length; k++) {
+                from[k] = labels[preds.get(b).get(k)];
+            }
+            for (var i = 0; i < phiDsts.get(b).length; i++) {
+                body.add(new TacInstr.Phi(phiDsts.get(b)[i], phiSrcs.get(b)[i], from));
+            }
+            body.addAll(renamed.get(b));
+        }
+
+        var seq = func.getInstrSeq();
+        var entry = seq.get(0);
+        seq.clear();
+        seq.add(entry);
+        seq.addAll(body);
+    }
+
+    private TacFunc func;
+    private CFG<TacInstr> cfg;
+    private DominatorTree<TacInstr> domTree;
+
+    // reachable predecessors of every block
+    private List<List<Integer>> preds;
+
+    // temps merged by φ-nodes, by block
+    private List<List<Temp>> phiTemps;
+
+    private Label[] labels;
+
+    // current name of every temp, while renaming
+    private Temp[] current;
+
+    private List<List<TacInstr>> renamed;
+    private List<Temp[]> phiDsts;
+    private List<Temp[][]> phiSrcs;
+
+    private void placePhis(int n) {
+        preds = new ArrayList<>();
+        phiTemps = new ArrayList<>();
+        for (var b = 0; b < n; b++) {
+            var list = new ArrayList<Integer>();
+            for (var p : cfg.getPrev(b)) {
+                if (domTree.isReachable(p)) {
+                    list.add(p);
+                }
+            }
+            preds.add(list);
+            phiTemps.add(new ArrayList<>());
+        }
+
+        var defBlocks = new TreeMap<Temp, Set<Integer>>();
+        for (var bb : cfg) {
+            if (!domTree.isReachable(bb.id)) {
+                continue;
+            }
+            for (var loc : bb) {
+                for (var dst : loc.instr.dsts) {
+                    if (dst != null) {
+                        defBlocks.computeIfAbsent(dst, t -> new TreeSet<>()).add(bb.id);
+                    }
+                }
+            }
+        }
+
+        for (var entry : defBlocks.entrySet()) {
+            var temp = entry.getKey();
+            var hasPhi = new boolean[n];
+            var worklist = new ArrayDeque<>(entry.getValue());
+            while (!worklist.isEmpty()) {
+                for (var f : domTree.getFrontier(worklist.poll())) {
+                    if (!hasPhi[f] && cfg.getBlock(f).liveIn.contains(temp)) {
+                        hasPhi[f] = true;
+                        phiTemps.get(f).add(temp);
+                        worklist.add(f);
+                    }
+                }
+            }
+        }
+    }
+
+    private void rename(int b) {
+        var saved = current.clone();
+
+        var temps = phiTemps.get(b);
+        for (var i = 0; i < temps.size(); i++) {
+            var dst = func.freshTemp();
+            phiDsts.get(b)[i] = dst;
+            current[temps.get(i).index] = dst;
+        }
+
+        for (var loc : cfg.getBlock(b)) {
+            var instr = loc.instr;
+            var srcs = new Temp[instr.srcs.length];
+            for (var i = 0; i < srcs.length; i++) {
+                srcs[i] = current[instr.srcs[i].index];
+            }
+            var dsts = new Temp[instr.dsts.length];
+            for (var i = 0; i < dsts.length; i++) {
+                if (instr.dsts[i] != null) {
+                    dsts[i] = func.freshTemp();
+                    current[instr.dsts[i].index] = dsts[i];
+                }
+            }
+            renamed.get(b).add(TempSubstitution.apply(instr, dsts, srcs));
+        }
+
+        for (var s : cfg.getSucc(b)) {
+            var k = preds.get(s).indexOf(b);
+            var succTemps = phiTemps.get(s);
+            for (var i = 0; i < succTemps.size(); i++) {
+                phiSrcs.get(s)[i][k] = current[succTemps.get(i).index];
+            }
+        }
+
+        for (var child : domTree.getChildren(b)) {
+            rename(child);
+        }
+        current = saved;
+    }
+
+    private List<Integer> blocksInOrder() {
+        var blocks = new ArrayList<Integer>();
+        for (var bb : cfg) {
+            if (domTree.isReachable(bb.id)) {
+                blocks.add(bb.id);
+            }
+        }
+        return blocks;
+    }
+}
@@ -0,0 +1,348 @@
+package decaf.backend.dataflow;
+
+import decaf.lowlevel.instr.Temp;
+import decaf.lowlevel.label.Label;
+import decaf.lowlevel.tac.TacFunc;
+import decaf.lowlevel.tac.TacInstr;
+import decaf.lowlevel.tac.TempSubstitution;
+
+import java.util.*;
+
+/**
+ * Translate a TAC function out of SSA form, i.e. replace its φ-nodes by copies.
+ * <p>
+ * All φ-nodes of a block are evaluated at once at its entry, so they become a parallel copy at the end of every
+ * predecessor. A predecessor with several successors can't hold copies meant for one of them only: such a critical
+ * edge is split by a new block. Then, each parallel copy is sequentialized: a copy is emitted once no other copy still
+ * needs to read its destination, and a cycle of copies (e.g. a swap) is broken with one more temp.
+ * <p>
+ * At last, copies are coalesced: the two temps of a copy are merged into one, and the copy is removed, whenever they are
+ * never live at the same time. This undoes most of the renaming done by {@link SSABuilder}, and the copies already in
+ * the function are coalesced the same way. Blocks splitting critical edges whose copies are all coalesced are removed
+ * again. Temps are renumbered afterwards.
+ * <p>
+ * The labels of predecessors that no jump refers to, like those {@link SSABuilder} gives to predecessors for the
+ * φ-nodes, are removed along with the φ-nodes.
+ */
+public class SSADestructor {
+
+    /**
+     * Transform a function out of SSA form, in place.
+     *
+     * @param func function
+     */
+    public void destruct(TacFunc func) {
+        this.func = func;
+        splits = new TreeSet<>();
+        removePhis();
+        coalesce();
+        removeEmptySplits();
+        func.renumberTemps();
+    }
+
+    private TacFunc func;
+
+    // labels of the blocks splitting critical edges
+    private Set<Label> splits;
+
+    private void removePhis() {
+        var cfg = new CFGBuilder<TacInstr>().buildFrom(func.getInstrSeq());
+        var labelToBlock = new TreeMap<Label, Integer>();
+        for (var bb : cfg) {
+            bb.label.ifPresent(label -> labelToBlock.put(label, bb.id));
+        }
+
+        // Parallel copies on every edge, by predecessor and successor. Optimizations may have removed some edges, e.g.
+        // by resolving a conditional jump, and their φ operands are simply ignored.
+        var copies = new TreeMap<Integer, Map<Integer, List<TacInstr.Phi>>>();
+        var predLabels = new TreeSet<Label>();
+        for (var bb : cfg) {
+            for (var loc : bb) {
+                if (loc.instr instanceof TacInstr.Phi) {
+                    var phi = (TacInstr.Phi) loc.instr;
+                    predLabels.addAll(Arrays.asList(phi.from));
+                    for (var label : phi.from) {
+                        var pred = labelToBlock.get(label);
+                        if (pred != null && cfg.getSucc(pred).contains(bb.id)) {
+                            copies.computeIfAbsent(pred, k -> new TreeMap<>())
+                                    .computeIfAbsent(bb.id, k -> new ArrayList<>()).add(phi);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Instructions of every block, copies on its fall-through edge, and blocks splitting jump edges into it
+        var blocks = new ArrayList<List<TacInstr>>();
+        var after = new ArrayList<List<TacInstr>>();
+        var before = new ArrayList<List<TacInstr>>();
+        for (var bb : cfg) {
+            var instrs = new ArrayList<TacInstr>();
+            for (var loc : bb) {
+                if (!(loc.instr instanceof TacInstr.Phi)) {
+                    instrs.add(loc.instr);
+                }
+            }
+            blocks.add(instrs);
+            after.add(new ArrayList<>());
+            before.add(new ArrayList<>());
+        }
+
+        for (var bb : cfg) {
+            var edges = copies.getOrDefault(bb.id, Map.of());
+            if (edges.isEmpty()) {
+                continue;
+            }
+
+            var instrs = blocks.get(bb.id);
+            var last = instrs.isEmpty() ? null : instrs.get(instrs.size() - 1);
+            if (cfg.getSucc(bb.id).size() == 1) {
+                // Copies go right before the jump, if any. A conditional jump to the next block is just removed, so
+                // that the copies never clobber its condition.
+                var succ = edges.keySet().iterator().next();
+                if (last != null && !last.isSequential()) {
+                    instrs.remove(instrs.size() - 1);
+                }
+                instrs.addAll(sequentialize(edges.get(succ), bb.label.orElseThrow()));
+                if (last instanceof TacInstr.Branch || last instanceof TacInstr.Return) {
+                    instrs.add(last);
+                }
+                continue;
+            }
+
+            // Split critical edges: the fall-through one by a block right after this one, and the jump by a block right
+            // before its target, which the conditional jump is redirected to
+            var branch = (TacInstr.CondBranch) last;
+            var target = labelToBlock.get(branch.target);
+            for (var entry : edges.entrySet()) {
+                var seq = sequentialize(entry.getValue(), bb.label.orElseThrow());
+                if (entry.getKey().equals(target)) {
+                    var label = func.freshLabel();
+                    splits.add(label);
+                    instrs.set(instrs.size() - 1, new TacInstr.CondBranch(branch.op, branch.cond, label));
+                    var split = before.get(target);
+                    if (!split.isEmpty()) {
+                        split.add(new TacInstr.Branch(branch.target));
+                    }
+                    split.add(new TacInstr.Mark(label));
+                    split.addAll(seq);
+                } else {
+                    after.get(bb.id).addAll(seq);
+                }
+            }
+        }
+
+        var body = new ArrayList<TacInstr>();
+        for (var bb : cfg) {
+            var split = before.get(bb.id);
+            if (!split.isEmpty()) {
+                var last = body.isEmpty() ? null : body.get(body.size() - 1);
+                if (!(last instanceof TacInstr.Branch || last instanceof TacInstr.Return)) {
+                    body.add(new TacInstr.Branch(bb.label.orElseThrow()));
+                }
+                body.addAll(split);
+            }
+            bb.label.ifPresent(label -> body.add(new TacInstr.Mark(label)));
+            body.addAll(blocks.get(bb.id));
+            body.addAll(after.get(bb.id));
+        }
+
+        // Labels of predecessors were only needed by the φ-nodes, and most of them were given by SSABuilder: drop those
+        // no jump refers to
+        var targets = new TreeSet<Label>();
+        for (var instr : body) {
+            if (instr.label != null && !instr.isLabel()) {
+                targets.add(instr.label);
+            }
+        }
+        body.removeIf(instr -> instr.isLabel() && predLabels.contains(instr.label) && !targets.contains(instr.label));
+
+        replace(body);
+    }
+
+    /**
+     * Turn the φ-nodes of a block into a sequence of copies, for the edge from the predecessor with some label.
+     */
+    private List<TacInstr> sequentialize(List<TacInstr.Phi> phis, Label from) {
+        // dst -> src, without useless copies
+        var copies = new TreeMap<Temp, Temp>();
+        for (var phi : phis) {
+            for (var i = 0; i < phi.from.length; i++) {
+                if (phi.from[i].compareTo(from) == 0 && phi.dst.compareTo(phi.srcs[i]) != 0) {
+                    copies.put(phi.dst, phi.srcs[i]);
+                }
+            }
+        }
+
+        var seq = new ArrayList<TacInstr>();
+        while (!copies.isEmpty()) {
+            var read = new TreeSet<>(copies.values());
+            var ready = copies.keySet().stream().filter(dst -> !read.contains(dst)).findFirst();
+            if (ready.isPresent()) {
+                var dst = ready.get();
+                seq.add(new TacInstr.Assign(dst, copies.remove(dst)));
+                continue;
+            }
+
+            // Only cycles are left: save the value of some destination, and read it from there instead
+            var dst = copies.firstKey();
+            var saved = func.freshTemp();
+            seq.add(new TacInstr.Assign(saved, dst));
+            for (var entry : copies.entrySet()) {
+                if (entry.getValue().compareTo(dst) == 0) {
+                    entry.setValue(saved);
+                }
+            }
+        }
+        return seq;
+    }
+
+    /**
+     * Merge the temps of copies, whenever they are never live at the same time.
+     */
+    private void coalesce() {
+        var cfg = new CFGBuilder<TacInstr>().buildFrom(func.getInstrSeq());
+        new LivenessAnalyzer<TacInstr>().accept(cfg);
+
+        // Two temps interfere if one is written where the other is live, unless it is a copy of the other
+        var interference = new TreeMap<Temp, Set<Temp>>();
+        for (var bb : cfg) {
+            for (var loc : bb) {
+                for (var dst : loc.instr.dsts) {
+                    if (dst == null) {
+                        continue;
+                    }
+                    for (var live : loc.liveOut) {
+                        if (live.compareTo(dst) != 0 && !(loc.instr instanceof TacInstr.Assign
+                                && ((TacInstr.Assign) loc.instr).src.compareTo(live) == 0)) {
+                            addEdge(interference, dst, live);
+                        }
+                    }
+                }
+            }
+        }
+        // The arguments are all written at the entry
+        if (!cfg.nodes.isEmpty()) {
+            for (var i = 0; i < func.numArgs; i++) {
+                for (var live : cfg.getBlock(0).liveIn) {
+                    if (live.index != i) {
+                        addEdge(interference, new Temp(i), live);
+                    }
+                }
+            }
+        }
+
+        // Union-find, where an argument is always the representative
+        var parent = new TreeMap<Temp, Temp>();
+        var members = new TreeMap<Temp, Set<Temp>>();
+        var neighbors = new TreeMap<Temp, Set<Temp>>();
+        for (var instr : func.getInstrSeq()) {
+            if (!(instr instanceof TacInstr.Assign) || ((TacInstr.Assign) instr).dst == null) {
+                continue;
+            }
+            var assign = (TacInstr.Assign) instr;
+            var x = find(parent, assign.dst);
+            var y = find(parent, assign.src);
+            if (x.compareTo(y) == 0 || (isArg(x) && isArg(y))) {
+                continue;
+            }
+            var membersX = members.computeIfAbsent(x, t -> new TreeSet<>(Set.of(t)));
+            var membersY = members.computeIfAbsent(y, t -> new TreeSet<>(Set.of(t)));
+            var neighborsX = neighbors.computeIfAbsent(x, t -> new TreeSet<>(interference.getOrDefault(t, Set.of())));
+            var neighborsY = neighbors.computeIfAbsent(y, t -> new TreeSet<>(interference.getOrDefault(t, Set.of())));
+            if (!Collections.disjoint(neighborsX, membersY)) {
+                continue;
+            }
+
+            // Keep the smaller temp, so that arguments stay
+            var root = x.compareTo(y) < 0 ? x : y;
+            var child = root == x ? y : x;
+            parent.put(child, root);
+            members.get(root).addAll(members.remove(child));
+            neighbors.get(root).addAll(neighbors.remove(child));
+        }
+
+        var body = new ArrayList<TacInstr>();
+        for (var instr : func.getInstrSeq().subList(1, func.getInstrSeq().size())) {
+            var renamed = TempSubstitution.apply(instr, temp -> find(parent, temp));
+            if (renamed instanceof TacInstr.Assign
+                    && ((TacInstr.Assign) renamed).dst.compareTo(((TacInstr.Assign) renamed).src) == 0) {
+                continue;
+            }
+            body.add(renamed);
+        }
+        replace(body);
+    }
+
+    /**
+     * Remove the blocks splitting critical edges which are left empty by coalescing, and jump to their targets again.
+     */
+    private void removeEmptySplits() {
+        var seq = func.getInstrSeq();
+        var empty = new TreeMap<Label, Label>();
+        for (var i = 1; i + 1 < seq.size(); i++) {
+            var instr = seq.get(i);
+            var next = seq.get(i + 1);
+            if (instr.isLabel() && splits.contains(instr.label)
+                    && (next.isLabel() || next instanceof TacInstr.Branch)) {
+                empty.put(instr.label, next.label);
+            }
+        }
+        if (empty.isEmpty()) {
+            return;
+        }
+
+        var body = new ArrayList<TacInstr>();
+        var removed = false;
+        for (var i = 1; i < seq.size(); i++) {
+            var instr = seq.get(i);
+            if (instr.isLabel() && empty.containsKey(instr.label)) {
+                // Also drop its jump to the target
+                if (seq.get(i + 1) instanceof TacInstr.Branch) {
+                    i++;
+                }
+                removed = true;
+                continue;
+            }
+            // The jump over the removed blocks now goes to the next instruction
+            var last = body.isEmpty() ? null : body.get(body.size() - 1);
+            if (removed && instr.isLabel() && last instanceof TacInstr.Branch
+                    && last.label.compareTo(instr.label) == 0) {
+                body.remove(body.size() - 1);
+            }
+            removed = false;
+
+            if (instr instanceof TacInstr.CondBranch && empty.containsKey(instr.label)) {
+                var branch = (TacInstr.CondBranch) instr;
+                instr = new TacInstr.CondBranch(branch.op, branch.cond, empty.get(branch.target));
+            }
+            body.add(instr);
+        }
+        replace(body);
+    }
+
+    private static void addEdge(Map<Temp, Set<Temp>> graph, Temp a, Temp b) {
+        graph.computeIfAbsent(a, t -> new TreeSet<>()).add(b);
+        graph.computeIfAbsent(b, t -> new TreeSet<>()).add(a);
+    }
+
+    private static Temp find(Map<Temp, Temp> parent, Temp temp) {
+        var root = temp;
+        while (parent.containsKey(root)) {
+            root = parent.get(root);
+        }
+        return root;
+    }
+
+    private boolean isArg(Temp temp) {
+        return temp.index < func.numArgs;
+    }
+
+    private void replace(List<TacInstr> body) {
+        var seq = func.getInstrSeq();
+        var entry = seq.get(0);
+        seq.clear();
+        seq.add(entry);
+        seq.addAll(body);
+    }
+}
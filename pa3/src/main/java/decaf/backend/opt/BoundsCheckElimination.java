@@ -0,0 +1,384 @@
+package decaf.backend.opt;
+
+import decaf.backend.dataflow.*;
+import decaf.lowlevel.instr.Temp;
+import decaf.lowlevel.label.Label;
+import decaf.lowlevel.tac.TacFunc;
+import decaf.lowlevel.tac.TacInstr;
+
+import java.util.*;
+
+/**
+ * Array bounds-check elimination.
+ * <p>
+ * Every access to an array element is guarded by a check like this one (see the TAC emitter):
+ * <pre>
+ *     length = *(array - 4)
+ *     error1 = index {@literal <} 0
+ *     error2 = index {@literal >=} length
+ *     error = error1 || error2
+ *     if (error == 0) branch ok
+ *     ... print the error and halt
+ * ok:
+ * </pre>
+ * The function is put in SSA form (see {@link SSABuilder}), so that facts about temps hold wherever they are known. A
+ * block whose only predecessor, not counting the ones halting, ends by a conditional jump, is entered only if the
+ * condition holds (or fails), and the comparisons it is made of are known there and in every block it dominates. In
+ * {@code for (i = 0; i < a.length(); i = i + 1)}, the body knows {@code i < a.length()}, and the code after a check on
+ * {@code a[i]} knows {@code i >= 0} and {@code i < a.length()} too.
+ * <p>
+ * An index is known to be non-negative if it is a non-negative constant or an array length, if it is compared to one,
+ * or if it adds a positive constant to a non-negative value known to be less than something, so that it doesn't
+ * overflow. Then a φ-node is non-negative if all its sources are: such φ-nodes are found optimistically, like the
+ * counters of loops. An index is known to be less than the length of an array if it is compared to it.
+ * <p>
+ * A check is removed once both of its comparisons are proven, and reduced to the other one if only one of them is.
+ * Everything else keeps its check, and the error path.
+ */
+public class BoundsCheckElimination extends Pass {
+    public BoundsCheckElimination() {
+        super("bce");
+    }
+
+    /**
+     * A fact about two temps: {@code lhs < rhs} if strict, {@code lhs >= rhs} otherwise.
+     */
+    private static class Fact {
+        final Temp lhs;
+        final boolean strict;
+        final Temp rhs;
+
+        Fact(Temp lhs, boolean strict, Temp rhs) {
+            this.lhs = lhs;
+            this.strict = strict;
+            this.rhs = rhs;
+        }
+    }
+
+    /**
+     * Maximum depth of the facts followed to prove a temp non-negative.
+     */
+    private static final int MAX_DEPTH = 4;
+
+    private CFG<TacInstr> cfg;
+    private DominatorTree<TacInstr> domTree;
+
+    // instruction and block writing every temp, by index, or null and -1 for arguments
+    private TacInstr[] defs;
+    private int[] defBlock;
+
+    // facts known on entry of every block, from the conditional jump leading there only
+    private List<List<Fact>> entryFacts;
+
+    private Set<Temp> nonNegativePhis;
+
+    private Map<TacInstr, TacInstr> rewritten;
+
+    @Override
+    public boolean transform(TacFunc func, CFG<TacInstr> original) {
+        if (func.getInstrSeq().stream().noneMatch(BoundsCheckElimination::isDisjunction)) {
+            return false;
+        }
+
+        var saved = new ArrayList<>(func.getInstrSeq());
+        new SSABuilder().build(func);
+
+        cfg = new CFGBuilder<TacInstr>().buildFrom(func.getInstrSeq());
+        domTree = new DominatorTree<>(cfg);
+        defs = new TacInstr[func.getUsedTempCount()];
+        defBlock = new int[func.getUsedTempCount()];
+        Arrays.fill(defBlock, -1);
+        for (var bb : cfg) {
+            for (var loc : bb) {
+                for (var dst : loc.instr.dsts) {
+                    if (dst != null) {
+                        defs[dst.index] = loc.instr;
+                        defBlock[dst.index] = bb.id;
+                    }
+                }
+            }
+        }
+
+        entryFacts = new ArrayList<>();
+        for (var bb : cfg) {
+            entryFacts.add(factsOnEntry(bb.id));
+        }
+        findNonNegativePhis();
+
+        rewritten = new IdentityHashMap<>();
+        for (var bb : cfg) {
+            if (bb.kind == BasicBlock.Kind.END_BY_COND_JUMP) {
+                eliminate(bb);
+            }
+        }
+
+        if (rewritten.isEmpty()) {
+            // Undo SSA, only keeping the temps compact
+            func.getInstrSeq().clear();
+            func.getInstrSeq().addAll(saved);
+            func.renumberTemps();
+            return false;
+        }
+        func.getInstrSeq().replaceAll(instr -> rewritten.getOrDefault(instr, instr));
+        new SSADestructor().destruct(func);
+        return true;
+    }
+
+    private static boolean isDisjunction(TacInstr instr) {
+        return instr instanceof TacInstr.Binary && ((TacInstr.Binary) instr).op == TacInstr.Binary.Op.LOR;
+    }
+
+    /**
+     * Find the facts known on entry of a block, if its only predecessor that doesn't halt ends by a conditional jump.
+     */
+    private List<Fact> factsOnEntry(int b) {
+        var facts = new ArrayList<Fact>();
+        var from = -1;
+        for (var p : cfg.getPrev(b)) {
+            if (cfg.getBlock(p).locs.stream().noneMatch(loc -> isHalt(loc.instr))) {
+                if (from != -1) {
+                    return facts;
+                }
+                from = p;
+            }
+        }
+        if (from == -1 || cfg.getBlock(from).kind != BasicBlock.Kind.END_BY_COND_JUMP) {
+            return facts;
+        }
+
+        var branch = (TacInstr.CondBranch) cfg.getBlock(from).getLastInstr();
+        var label = cfg.getBlock(b).label;
+        var jumped = label.isPresent() && label.get().compareTo(branch.target) == 0;
+        if (jumped == (b == from + 1)) {
+            // Both ways lead here
+            return facts;
+        }
+        addFacts(branch.cond, jumped == (branch.op == TacInstr.CondBranch.Op.BNEZ), facts);
+        return facts;
+    }
+
+    /**
+     * Add the facts known from a condition holding, or failing.
+     */
+    private void addFacts(Temp cond, boolean holds, List<Fact> facts) {
+        var def = defs[resolve(cond).index];
+        if (!(def instanceof TacInstr.Binary)) {
+            return;
+        }
+        var binary = (TacInstr.Binary) def;
+        switch (binary.op) {
+            case LOR -> {
+                if (!holds) {
+                    addFacts(binary.lhs, false, facts);
+                    addFacts(binary.rhs, false, facts);
+                }
+            }
+            case LAND -> {
+                if (holds) {
+                    addFacts(binary.lhs, true, facts);
+                    addFacts(binary.rhs, true, facts);
+                }
+            }
+            case LES -> facts.add(new Fact(binary.lhs, holds, binary.rhs));
+            case GEQ -> facts.add(new Fact(binary.lhs, !holds, binary.rhs));
+            case GTR -> facts.add(new Fact(binary.rhs, holds, binary.lhs));
+            case LEQ -> facts.add(new Fact(binary.rhs, !holds, binary.lhs));
+        }
+    }
+
+    /**
+     * Find the φ-nodes which are non-negative: assume they all are, and drop those with a source that isn't until
+     * nothing changes.
+     */
+    private void findNonNegativePhis() {
+        var labels = new TreeMap<Label, Integer>();
+        var phis = new ArrayList<TacInstr.Phi>();
+        nonNegativePhis = new TreeSet<>();
+        for (var bb : cfg) {
+            bb.label.ifPresent(label -> labels.put(label, bb.id));
+            for (var loc : bb) {
+                if (loc.instr instanceof TacInstr.Phi) {
+                    phis.add((TacInstr.Phi) loc.instr);
+                    nonNegativePhis.add(loc.instr.dsts[0]);
+                }
+            }
+        }
+
+        var changed = true;
+        while (changed) {
+            changed = false;
+            for (var phi : phis) {
+                if (!nonNegativePhis.contains(phi.dst)) {
+                    continue;
+                }
+                for (var i = 0; i < phi.srcs.length; i++) {
+                    if (!isNonNegative(phi.srcs[i], labels.get(phi.from[i]), 0)) {
+                        nonNegativePhis.remove(phi.dst);
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove, or reduce, the check a block ends with, if any.
+     */
+    private void eliminate(BasicBlock<TacInstr> bb) {
+        var branch = (TacInstr.CondBranch) bb.getLastInstr();
+        var def = defs[branch.cond.index];
+        if (branch.op != TacInstr.CondBranch.Op.BEQZ || !isDisjunction(def)) {
+            return;
+        }
+        var error = (TacInstr.Binary) def;
+        var error1 = defs[error.lhs.index];
+        var error2 = defs[error.rhs.index];
+        if (!isComparison(error1, TacInstr.Binary.Op.LES) || !isComparison(error2, TacInstr.Binary.Op.GEQ)) {
+            return;
+        }
+        var lower = (TacInstr.Binary) error1;
+        var upper = (TacInstr.Binary) error2;
+        var zero = constantOf(lower.rhs);
+        var array = arrayOf(upper.rhs);
+        if (zero == null || zero != 0 || array == null || !same(lower.lhs, upper.lhs)) {
+            return;
+        }
+
+        var nonNegative = isNonNegative(lower.lhs, bb.id, 0);
+        var length = lengthBound(lower.lhs, array, bb.id);
+        if (nonNegative && length != null) {
+            rewritten.put(branch, new TacInstr.Branch(branch.target));
+            // The length was loaded before, and never changes
+            var load = defs[upper.rhs.index];
+            if (load instanceof TacInstr.Memory && defBlock[upper.rhs.index] == bb.id && !same(length, upper.rhs)) {
+                rewritten.put(load, new TacInstr.Assign(upper.rhs, length));
+            }
+        } else if (defBlock[error.dst.index] == bb.id) {
+            if (nonNegative) {
+                rewritten.put(error, new TacInstr.Assign(error.dst, error.rhs));
+            } else if (length != null) {
+                rewritten.put(error, new TacInstr.Assign(error.dst, error.lhs));
+            }
+        }
+    }
+
+    private static boolean isComparison(TacInstr instr, TacInstr.Binary.Op op) {
+        return instr instanceof TacInstr.Binary && ((TacInstr.Binary) instr).op == op;
+    }
+
+    /**
+     * Is a temp known to be non-negative in a block?
+     */
+    private boolean isNonNegative(Temp temp, int block, int depth) {
+        temp = resolve(temp);
+        var value = constantOf(temp);
+        if (value != null) {
+            return value >= 0;
+        }
+        if (arrayOf(temp) != null) {
+            return true;
+        }
+        var def = defs[temp.index];
+        if (def instanceof TacInstr.Phi && nonNegativePhis.contains(temp)) {
+            return true;
+        }
+        if (depth == MAX_DEPTH) {
+            return false;
+        }
+        if (def instanceof TacInstr.Binary && ((TacInstr.Binary) def).op == TacInstr.Binary.Op.ADD) {
+            // x + c, where x < y for some y, doesn't overflow if c = 1, or if y is a small enough constant
+            var binary = (TacInstr.Binary) def;
+            for (var operands : new Temp[][]{{binary.lhs, binary.rhs}, {binary.rhs, binary.lhs}}) {
+                var step = constantOf(operands[1]);
+                if (step == null || step <= 0 || !isNonNegative(operands[0], defBlock[temp.index], depth + 1)) {
+                    continue;
+                }
+                for (var fact : factsAt(defBlock[temp.index])) {
+                    if (fact.strict && same(fact.lhs, operands[0])) {
+                        var bound = constantOf(fact.rhs);
+                        if (step == 1 || (bound != null && (long) bound + step - 1 <= Integer.MAX_VALUE)) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+
+        for (var fact : factsAt(block)) {
+            if (fact.strict && same(fact.rhs, temp)) {
+                // y < x, where y >= -1
+                var bound = constantOf(fact.lhs);
+                if ((bound != null && bound == -1) || isNonNegative(fact.lhs, block, depth + 1)) {
+                    return true;
+                }
+            } else if (!fact.strict && same(fact.lhs, temp) && isNonNegative(fact.rhs, block, depth + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find a length of an array that a temp is known to be less than in a block.
+     *
+     * @return the temp holding the length, or null if none
+     */
+    private Temp lengthBound(Temp temp, Temp array, int block) {
+        for (var fact : factsAt(block)) {
+            if (fact.strict && same(fact.lhs, temp)) {
+                var other = arrayOf(fact.rhs);
+                if (other != null && same(other, array)) {
+                    return fact.rhs;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * All facts known in a block: those known on entry of it, and of its dominators.
+     */
+    private List<Fact> factsAt(int block) {
+        var facts = new ArrayList<Fact>();
+        for (var b = block; b != -1; b = domTree.getIdom(b)) {
+            facts.addAll(entryFacts.get(b));
+        }
+        return facts;
+    }
+
+    /**
+     * Find the array a temp is the length of, i.e. loaded from 4 bytes before.
+     *
+     * @return the array, or null if none
+     */
+    private Temp arrayOf(Temp temp) {
+        var def = defs[resolve(temp).index];
+        if (def instanceof TacInstr.Memory) {
+            var load = (TacInstr.Memory) def;
+            if (load.op == TacInstr.Memory.Op.LOAD && load.offset == -4) {
+                return resolve(load.base);
+            }
+        }
+        return null;
+    }
+
+    private Integer constantOf(Temp temp) {
+        var def = defs[resolve(temp).index];
+        return def instanceof TacInstr.LoadImm4 ? ((TacInstr.LoadImm4) def).value : null;
+    }
+
+    /**
+     * Follow copies back to the temp first holding the same value.
+     */
+    private Temp resolve(Temp temp) {
+        while (defs[temp.index] instanceof TacInstr.Assign) {
+            temp = ((TacInstr.Assign) defs[temp.index]).src;
+        }
+        return temp;
+    }
+
+    private boolean same(Temp a, Temp b) {
+        return resolve(a).index == resolve(b).index;
+    }
+}
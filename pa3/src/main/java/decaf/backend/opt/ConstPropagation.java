@@ -0,0 +1,297 @@
+package decaf.backend.opt;
+
+import decaf.backend.dataflow.BasicBlock;
+import decaf.backend.dataflow.CFG;
+import decaf.backend.dataflow.CFGBuilder;
+import decaf.backend.dataflow.LivenessAnalyzer;
+import decaf.lowlevel.tac.TacFunc;
+import decaf.lowlevel.tac.TacInstr;
+
+import java.util.*;
+
+/**
+ * Global constant propagation and folding.
+ * <p>
+ * A forward data flow analysis finds, at every program point, which temps hold a known constant. Meanwhile, a
+ * conditional branch on a known condition only flows to the block it actually goes to. Then:
+ * <ul>
+ *     <li>a unary/binary operation on constants, or a copy of a constant, becomes a constant load;</li>
+ *     <li>a conditional branch on a known condition becomes an unconditional branch, or falls through;</li>
+ *     <li>constant loads whose results are never used are removed.</li>
+ * </ul>
+ * Division and modulo by zero are never folded, so that they still fail at run time.
+ */
+public class ConstPropagation extends Pass {
+    public ConstPropagation() {
+        super("const-propagation");
+    }
+
+    @Override
+    public boolean transform(TacFunc func, CFG<TacInstr> cfg) {
+        var temps = func.getUsedTempCount();
+        var in = analyze(cfg, temps);
+
+        var changed = false;
+        var body = new ArrayList<TacInstr>();
+        for (var bb : cfg) {
+            bb.label.ifPresent(label -> body.add(new TacInstr.Mark(label)));
+            var state = in[bb.id];
+            if (state == null) { // unreachable, leave it to SimplifyCFG
+                for (var loc : bb) {
+                    body.add(loc.instr);
+                }
+                continue;
+            }
+
+            state = state.copy();
+            for (var loc : bb) {
+                var instr = rewrite(loc.instr, state);
+                if (instr != loc.instr) {
+                    changed = true;
+                }
+                if (instr != null) {
+                    body.add(instr);
+                }
+                state.transfer(loc.instr);
+            }
+        }
+
+        if (changed) {
+            replace(func, body);
+        }
+        return removeDeadLoads(func) || changed;
+    }
+
+    /**
+     * Find the constants at the entry of every block.
+     *
+     * @return state at the entry of every block, by block id, or null if the block is never reached
+     */
+    private State[] analyze(CFG<TacInstr> cfg, int temps) {
+        var in = new State[cfg.nodes.size()];
+        in[0] = new State(temps);
+        var worklist = new ArrayDeque<Integer>();
+        worklist.add(0);
+        while (!worklist.isEmpty()) {
+            var id = worklist.poll();
+            var bb = cfg.getBlock(id);
+            var out = in[id].copy();
+            for (var loc : bb) {
+                out.transfer(loc.instr);
+            }
+
+            for (var next : successors(cfg, bb, out)) {
+                if (in[next] == null) {
+                    in[next] = out.copy();
+                    worklist.add(next);
+                } else if (in[next].meet(out)) {
+                    worklist.add(next);
+                }
+            }
+        }
+        return in;
+    }
+
+    /**
+     * Get the successors of a block that may be reached, given the state at its exit.
+     */
+    static Set<Integer> successors(CFG<TacInstr> cfg, BasicBlock<TacInstr> bb, State out) {
+        var succ = cfg.getSucc(bb.id);
+        if (bb.kind != BasicBlock.Kind.END_BY_COND_JUMP) {
+            return succ;
+        }
+
+        var branch = (TacInstr.CondBranch) bb.getLastInstr();
+        if (!out.known[branch.cond.index]) {
+            return succ;
+        }
+        for (var next : succ) {
+            var target = cfg.getBlock(next).label;
+            var isTarget = target.isPresent() && target.get().compareTo(branch.target) == 0;
+            if (isTarget == taken(branch, out.value[branch.cond.index])) {
+                return Set.of(next);
+            }
+        }
+        return succ;
+    }
+
+    /**
+     * Rewrite an instruction, given the state before it.
+     *
+     * @return rewritten instruction, the same one if nothing changes, or null if it is removed
+     */
+    private static TacInstr rewrite(TacInstr instr, State state) {
+        if (instr instanceof TacInstr.Assign) {
+            var assign = (TacInstr.Assign) instr;
+            if (assign.dst != null && state.known[assign.src.index]) {
+                return new TacInstr.LoadImm4(assign.dst, state.value[assign.src.index]);
+            }
+        } else if (instr instanceof TacInstr.Unary) {
+            var unary = (TacInstr.Unary) instr;
+            if (state.known[unary.operand.index]) {
+                return new TacInstr.LoadImm4(unary.dst, fold(unary.op, state.value[unary.operand.index]));
+            }
+        } else if (instr instanceof TacInstr.Binary) {
+            var binary = (TacInstr.Binary) instr;
+            if (state.known[binary.lhs.index] && state.known[binary.rhs.index]
+                    && foldable(binary.op, state.value[binary.rhs.index])) {
+                return new TacInstr.LoadImm4(binary.dst,
+                        fold(binary.op, state.value[binary.lhs.index], state.value[binary.rhs.index]));
+            }
+        } else if (instr instanceof TacInstr.CondBranch) {
+            var branch = (TacInstr.CondBranch) instr;
+            if (state.known[branch.cond.index]) {
+                return taken(branch, state.value[branch.cond.index]) ? new TacInstr.Branch(branch.target) : null;
+            }
+        }
+        return instr;
+    }
+
+    /**
+     * Remove constant loads whose results are never used.
+     *
+     * @return true if anything is removed
+     */
+    static boolean removeDeadLoads(TacFunc func) {
+        var cfg = new CFGBuilder<TacInstr>().buildFrom(func.getInstrSeq());
+        new LivenessAnalyzer<TacInstr>().accept(cfg);
+
+        var dead = new HashSet<TacInstr>();
+        for (var bb : cfg) {
+            for (var loc : bb) {
+                if (loc.instr instanceof TacInstr.LoadImm4
+                        && !loc.liveOut.contains(((TacInstr.LoadImm4) loc.instr).dst)) {
+                    dead.add(loc.instr);
+                }
+            }
+        }
+
+        return !dead.isEmpty() && func.getInstrSeq().removeIf(dead::contains);
+    }
+
+    static boolean taken(TacInstr.CondBranch branch, int cond) {
+        return switch (branch.op) {
+            case BEQZ -> cond == 0;
+            case BNEZ -> cond != 0;
+        };
+    }
+
+    static int fold(TacInstr.Unary.Op op, int operand) {
+        return switch (op) {
+            case NEG -> -operand;
+            case LNOT -> operand == 0 ? 1 : 0;
+        };
+    }
+
+    /**
+     * Can a binary operation be folded? Division and modulo by zero must fail at run time.
+     */
+    static boolean foldable(TacInstr.Binary.Op op, int rhs) {
+        return rhs != 0 || (op != TacInstr.Binary.Op.DIV && op != TacInstr.Binary.Op.MOD);
+    }
+
+    /**
+     * Fold a binary operation, the same way as the simulator computes it.
+     */
+    static int fold(TacInstr.Binary.Op op, int lhs, int rhs) {
+        return switch (op) {
+            case ADD -> lhs + rhs;
+            case SUB -> lhs - rhs;
+            case MUL -> lhs * rhs;
+            case DIV -> lhs / rhs;
+            case MOD -> lhs % rhs;
+            case EQU -> lhs == rhs ? 1 : 0;
+            case NEQ -> lhs != rhs ? 1 : 0;
+            case LES -> lhs < rhs ? 1 : 0;
+            case LEQ -> lhs <= rhs ? 1 : 0;
+            case GTR -> lhs > rhs ? 1 : 0;
+            case GEQ -> lhs >= rhs ? 1 : 0;
+            case LAND -> (lhs != 0 && rhs != 0) ? 1 : 0;
+            case LOR -> (lhs != 0 || rhs != 0) ? 1 : 0;
+        };
+    }
+
+    /**
+     * Which temps hold a known constant, and which constant, at a program point.
+     */
+    static class State {
+        final boolean[] known;
+        final int[] value;
+
+        /**
+         * The state at the function entry, where nothing is known.
+         */
+        State(int temps) {
+            known = new boolean[temps];
+            value = new int[temps];
+        }
+
+        private State(boolean[] known, int[] value) {
+            this.known = known;
+            this.value = value;
+        }
+
+        State copy() {
+            return new State(known.clone(), value.clone());
+        }
+
+        /**
+         * Merge with the state flowing in along another path: a temp stays known iff it holds the same constant.
+         *
+         * @return true if this state changes
+         */
+        boolean meet(State that) {
+            var changed = false;
+            for (var i = 0; i < known.length; i++) {
+                if (known[i] && (!that.known[i] || value[i] != that.value[i])) {
+                    known[i] = false;
+                    changed = true;
+                }
+            }
+            return changed;
+        }
+
+        /**
+         * Update the state after executing an instruction.
+         */
+        void transfer(TacInstr instr) {
+            if (instr instanceof TacInstr.LoadImm4) {
+                var load = (TacInstr.LoadImm4) instr;
+                set(load.dst.index, load.value);
+            } else if (instr instanceof TacInstr.Assign) {
+                var assign = (TacInstr.Assign) instr;
+                if (assign.dst != null) {
+                    known[assign.dst.index] = known[assign.src.index];
+                    value[assign.dst.index] = value[assign.src.index];
+                }
+            } else if (instr instanceof TacInstr.Unary) {
+                var unary = (TacInstr.Unary) instr;
+                if (known[unary.operand.index]) {
+                    set(unary.dst.index, fold(unary.op, value[unary.operand.index]));
+                } else {
+                    known[unary.dst.index] = false;
+                }
+            } else if (instr instanceof TacInstr.Binary) {
+                var binary = (TacInstr.Binary) instr;
+                var lhs = binary.lhs.index;
+                var rhs = binary.rhs.index;
+                if (known[lhs] && known[rhs] && foldable(binary.op, value[rhs])) {
+                    set(binary.dst.index, fold(binary.op, value[lhs], value[rhs]));
+                } else {
+                    known[binary.dst.index] = false;
+                }
+            } else {
+                for (var dst : instr.dsts) {
+                    if (dst != null) {
+                        known[dst.index] = false;
+                    }
+                }
+            }
+        }
+
+        private void set(int temp, int constant) {
+            known[temp] = true;
+            value[temp] = constant;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package decaf.backend.opt;
+
+import decaf.backend.dataflow.CFG;
+import decaf.backend.dataflow.SSABuilder;
+import decaf.backend.dataflow.SSADestructor;
+import decaf.lowlevel.instr.Temp;
+import decaf.lowlevel.tac.TacFunc;
+import decaf.lowlevel.tac.TacInstr;
+import decaf.lowlevel.tac.TempSubstitution;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Global copy propagation.
+ * <p>
+ * In SSA form (see {@link SSABuilder}), a copy {@code dst = src} holds everywhere {@code dst} is read, so every read
+ * of {@code dst} can read {@code src} instead, and the copy is removed. A φ-node whose operands are all the same
+ * temp (or itself, around a loop) is a copy as well. Chains of copies collapse to their very first source. Operands of
+ * φ-nodes are an exception, see below.
+ * <p>
+ * Translating out of SSA form then coalesces the remaining copies where possible (see {@link SSADestructor}). If that
+ * only gives back the function we started from, nothing is changed.
+ */
+public class CopyPropagation extends Pass {
+    public CopyPropagation() {
+        super("copy-propagation");
+    }
+
+    @Override
+    public boolean transform(TacFunc func, CFG<TacInstr> cfg) {
+        var saved = new ArrayList<>(func.getInstrSeq());
+        new SSABuilder().build(func);
+        var seq = func.getInstrSeq();
+
+        // Find the copies, until no more φ-nodes turn out to be copies
+        var copies = new TreeMap<Temp, Temp>();
+        var trivialPhis = new TreeSet<Temp>();
+        var changed = true;
+        while (changed) {
+            changed = false;
+            for (var instr : seq) {
+                if (instr instanceof TacInstr.Assign) {
+                    var assign = (TacInstr.Assign) instr;
+                    changed |= copies.put(assign.dst, assign.src) == null;
+                } else if (instr instanceof TacInstr.Phi && !copies.containsKey(((TacInstr.Phi) instr).dst)) {
+                    var phi = (TacInstr.Phi) instr;
+                    var src = uniqueSource(phi, copies);
+                    if (src != null) {
+                        copies.put(phi.dst, src);
+                        trivialPhis.add(phi.dst);
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        // The operands of the other φ-nodes only skip the removed φ-nodes: propagating a copy there would make its
+        // source live until the end of the predecessor, often along with a newer value of the same variable, and
+        // leaving SSA would need more copies than it saves. The copies they still read are kept.
+        var phiOperand = (Function<Temp, Temp>) temp -> {
+            while (trivialPhis.contains(temp)) {
+                temp = copies.get(temp);
+            }
+            return temp;
+        };
+        var kept = new TreeSet<Temp>();
+        for (var instr : seq) {
+            if (instr instanceof TacInstr.Phi && !trivialPhis.contains(((TacInstr.Phi) instr).dst)) {
+                for (var src : instr.srcs) {
+                    kept.add(phiOperand.apply(src));
+                }
+            }
+        }
+
+        var body = new ArrayList<TacInstr>();
+        changed = false;
+        for (var instr : seq.subList(1, seq.size())) {
+            var dst = instr.dsts.length > 0 ? instr.dsts[0] : null;
+            if (dst != null && copies.containsKey(dst) && !kept.contains(dst)) {
+                changed = true;
+                continue;
+            }
+            var map = instr instanceof TacInstr.Phi ? phiOperand : (Function<Temp, Temp>) temp -> find(copies, temp);
+            var srcs = new Temp[instr.srcs.length];
+            for (var i = 0; i < srcs.length; i++) {
+                srcs[i] = map.apply(instr.srcs[i]);
+                changed |= srcs[i].compareTo(instr.srcs[i]) != 0;
+            }
+            body.add(TempSubstitution.apply(instr, instr.dsts, srcs));
+        }
+
+        if (!changed) {
+            seq.clear();
+            seq.addAll(saved);
+            func.renumberTemps();
+            return false;
+        }
+        replace(func, body);
+
+        // Leaving SSA may put the removed copies back, e.g. where a copy and its source are both live: then nothing
+        // changed, but maybe labels
+        new SSADestructor().destruct(func);
+        if (sameInstrs(withoutLabels(saved), withoutLabels(seq))) {
+            seq.clear();
+            seq.addAll(saved);
+            func.renumberTemps();
+            return false;
+        }
+        return true;
+    }
+
+    private static List<TacInstr> withoutLabels(List<TacInstr> seq) {
+        return seq.stream().filter(instr -> !instr.isLabel()).collect(Collectors.toList());
+    }
+
+    /**
+     * Find the only temp a φ-node merges, not counting itself.
+     *
+     * @return the temp, or null if there are several
+     */
+    private static Temp uniqueSource(TacInstr.Phi phi, Map<Temp, Temp> copies) {
+        Temp unique = null;
+        for (var src : phi.srcs) {
+            var temp = find(copies, src);
+            if (temp.compareTo(phi.dst) == 0) {
+                continue;
+            }
+            if (unique != null && unique.compareTo(temp) != 0) {
+                return null;
+            }
+            unique = temp;
+        }
+        return unique;
+    }
+
+    private static Temp find(Map<Temp, Temp> copies, Temp temp) {
+        while (copies.containsKey(temp)) {
+            temp = copies.get(temp);
+        }
+        return temp;
+    }
+}
@@ -0,0 +1,259 @@
+package decaf.backend.opt;
+
+import decaf.backend.dataflow.CFG;
+import decaf.backend.dataflow.CFGBuilder;
+import decaf.backend.dataflow.LivenessAnalyzer;
+import decaf.lowlevel.instr.Temp;
+import decaf.lowlevel.tac.TacFunc;
+import decaf.lowlevel.tac.TacInstr;
+
+import java.util.*;
+
+/**
+ * Dead code elimination.
+ * <ul>
+ *     <li>Blocks unreachable from the entry are removed.</li>
+ *     <li>Instructions without side effects whose results are never used (see {@link LivenessAnalyzer}) are removed.
+ *     Loads are kept, as they may fail at run time, and so are divisions and modulos.</li>
+ *     <li>So are instructions whose results only flow into such instructions, even around a loop: a temp is useful if
+ *     an instruction with side effects reads it, or if some instruction writing a useful temp reads it.</li>
+ *     <li>Objects allocated in the function that never escape it are tracked: stores to fields never loaded from are
+ *     removed, so are unused loads, and at last the allocation itself once nothing uses it.</li>
+ * </ul>
+ * Removing an instruction may leave its operands dead, so this is repeated until nothing more is removed.
+ */
+public class DeadCodeElimination extends Pass {
+    public DeadCodeElimination() {
+        super("dce");
+    }
+
+    @Override
+    public boolean transform(TacFunc func, CFG<TacInstr> cfg) {
+        var changed = removeUnreachable(func, cfg);
+        while (removeDead(func)) {
+            changed = true;
+        }
+        return changed;
+    }
+
+    private static boolean removeUnreachable(TacFunc func, CFG<TacInstr> cfg) {
+        var reachable = SimplifyCFG.reachable(cfg);
+        var body = new ArrayList<TacInstr>();
+        var changed = false;
+        for (var bb : cfg) {
+            if (!reachable[bb.id]) {
+                // The builder leaves an empty block between a return and the next label, there's nothing to remove
+                changed |= !bb.isEmpty() || bb.label.isPresent();
+                continue;
+            }
+            bb.label.ifPresent(label -> body.add(new TacInstr.Mark(label)));
+            for (var loc : bb) {
+                body.add(loc.instr);
+            }
+        }
+
+        if (changed) {
+            replace(func, body);
+        }
+        return changed;
+    }
+
+    /**
+     * Remove dead instructions once.
+     *
+     * @return true if anything is removed
+     */
+    private static boolean removeDead(TacFunc func) {
+        var objects = new FreshObjects(func);
+        var cfg = new CFGBuilder<TacInstr>().buildFrom(func.getInstrSeq());
+        new LivenessAnalyzer<TacInstr>().accept(cfg);
+
+        var dead = Collections.newSetFromMap(new IdentityHashMap<TacInstr, Boolean>());
+        var useful = usefulTemps(func, objects);
+        for (var bb : cfg) {
+            for (var i = 0; i < bb.locs.size(); i++) {
+                var loc = bb.locs.get(i);
+                var instr = loc.instr;
+                if (objects.isDeadStore(instr)) {
+                    dead.add(instr);
+                } else if (isRemovable(instr, objects) && !useful.contains(instr.dsts[0])) {
+                    dead.add(instr);
+                } else if (instr.dsts.length == 1 && instr.dsts[0] != null && !loc.liveOut.contains(instr.dsts[0])) {
+                    if (isPure(instr) || objects.isLoad(instr)) {
+                        dead.add(instr);
+                    } else if (isAllocation(instr) && i > 0 && bb.locs.get(i - 1).instr instanceof TacInstr.Parm) {
+                        dead.add(instr);
+                        dead.add(bb.locs.get(i - 1).instr);
+                    }
+                }
+            }
+        }
+
+        return !dead.isEmpty() && func.getInstrSeq().removeIf(dead::contains);
+    }
+
+    /**
+     * Find the temps whose values may eventually be needed by an instruction that isn't removable.
+     */
+    private static Set<Temp> usefulTemps(TacFunc func, FreshObjects objects) {
+        var defs = new TreeMap<Temp, List<TacInstr>>();
+        var useful = new TreeSet<Temp>();
+        var worklist = new ArrayDeque<Temp>();
+        for (var instr : func.getInstrSeq()) {
+            if (isRemovable(instr, objects)) {
+                defs.computeIfAbsent(instr.dsts[0], t -> new ArrayList<>()).add(instr);
+            } else {
+                worklist.addAll(Arrays.asList(instr.srcs));
+            }
+        }
+        while (!worklist.isEmpty()) {
+            var temp = worklist.pop();
+            if (useful.add(temp)) {
+                for (var def : defs.getOrDefault(temp, List.of())) {
+                    worklist.addAll(Arrays.asList(def.srcs));
+                }
+            }
+        }
+        return useful;
+    }
+
+    private static boolean isRemovable(TacInstr instr, FreshObjects objects) {
+        return instr.dsts.length == 1 && instr.dsts[0] != null && (isPure(instr) || objects.isLoad(instr));
+    }
+
+    private static boolean isPure(TacInstr instr) {
+        if (instr instanceof TacInstr.Binary) {
+            var op = ((TacInstr.Binary) instr).op;
+            return op != TacInstr.Binary.Op.DIV && op != TacInstr.Binary.Op.MOD;
+        }
+        return instr instanceof TacInstr.Assign || instr instanceof TacInstr.LoadImm4
+                || instr instanceof TacInstr.LoadStrConst || instr instanceof TacInstr.LoadVTbl
+                || instr instanceof TacInstr.Unary;
+    }
+
+    private static boolean isAddressArithmetic(TacInstr.Binary.Op op) {
+        return op == TacInstr.Binary.Op.ADD || op == TacInstr.Binary.Op.SUB;
+    }
+
+    private static boolean isComparison(TacInstr.Binary.Op op) {
+        return switch (op) {
+            case EQU, NEQ, LES, LEQ, GTR, GEQ -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Objects allocated in a function that never escape it, and how their fields are accessed.
+     * <p>
+     * An object is tracked if its address is held by a temp written only by the allocation, and this temp (or any
+     * address computed from it) is only ever loaded from, stored to, or compared. Also used by
+     * {@link ScalarReplacement}.
+     */
+    static class FreshObjects {
+        // temps holding the address of a tracked object
+        private final Set<Temp> objects = new TreeSet<>();
+
+        // stores into tracked objects that are never loaded from
+        private final Set<TacInstr> deadStores = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        FreshObjects(TacFunc func) {
+            var seq = func.getInstrSeq();
+            var defs = new TreeMap<Temp, Integer>();
+            var candidates = new TreeSet<Temp>();
+            for (var instr : seq) {
+                for (var dst : instr.dsts) {
+                    if (dst != null) {
+                        defs.merge(dst, 1, Integer::sum);
+                        if (isAllocation(instr)) {
+                            candidates.add(dst);
+                        }
+                    }
+                }
+            }
+
+            for (var object : candidates) {
+                if (defs.get(object) == 1) {
+                    track(object, seq);
+                }
+            }
+        }
+
+        private void track(Temp object, List<TacInstr> seq) {
+            // Addresses computed from the object
+            var derived = new TreeSet<Temp>();
+            derived.add(object);
+            var changed = true;
+            while (changed) {
+                changed = false;
+                for (var instr : seq) {
+                    if (instr instanceof TacInstr.Assign || (instr instanceof TacInstr.Binary
+                            && isAddressArithmetic(((TacInstr.Binary) instr).op))) {
+                        for (var src : instr.srcs) {
+                            if (derived.contains(src) && derived.add(instr.dsts[0])) {
+                                changed = true;
+                            }
+                        }
+                    }
+                }
+            }
+
+            var loaded = new TreeSet<Integer>();
+            var unknownLoads = false;
+            var stores = new ArrayList<TacInstr.Memory>();
+            for (var instr : seq) {
+                if (Arrays.stream(instr.srcs).noneMatch(derived::contains)) {
+                    continue;
+                }
+                if (instr instanceof TacInstr.Memory) {
+                    var memory = (TacInstr.Memory) instr;
+                    if (memory.op == TacInstr.Memory.Op.LOAD) {
+                        if (memory.base.compareTo(object) == 0) {
+                            loaded.add(memory.offset);
+                        } else {
+                            unknownLoads = true;
+                        }
+                    } else if (memory.base.compareTo(object) == 0 && !derived.contains(memory.dst)) {
+                        stores.add(memory);
+                    } else {
+                        return;
+                    }
+                } else if (instr instanceof TacInstr.Binary) {
+                    var op = ((TacInstr.Binary) instr).op;
+                    if (!isAddressArithmetic(op) && !isComparison(op)) {
+                        return;
+                    }
+                } else if (!(instr instanceof TacInstr.Assign)) {
+                    return;
+                }
+            }
+
+            objects.add(object);
+            if (!unknownLoads) {
+                for (var store : stores) {
+                    if (!loaded.contains(store.offset)) {
+                        deadStores.add(store);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Is a temp the address of a tracked object, i.e. written by its allocation?
+         */
+        boolean isObject(Temp temp) {
+            return objects.contains(temp);
+        }
+
+        boolean isDeadStore(TacInstr instr) {
+            return deadStores.contains(instr);
+        }
+
+        /**
+         * Is an instruction a load from a tracked object? Such a load never fails.
+         */
+        boolean isLoad(TacInstr instr) {
+            return instr instanceof TacInstr.Memory && ((TacInstr.Memory) instr).op == TacInstr.Memory.Op.LOAD
+                    && objects.contains(((TacInstr.Memory) instr).base);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package decaf.backend.opt;
+
+import decaf.backend.dataflow.*;
+import decaf.lowlevel.instr.Temp;
+import decaf.lowlevel.tac.TacFunc;
+import decaf.lowlevel.tac.TacInstr;
+
+import java.util.*;
+
+/**
+ * Global value numbering, scoped by the dominator tree (Briggs, Cooper and Simpson, "Value Numbering").
+ * <p>
+ * The function is first put in SSA form (see {@link SSABuilder}), so that a temp holds one value everywhere. The
+ * dominator tree is walked from the entry with a table of the expressions already computed, keyed by their operator and
+ * the value numbers of their operands: a block sees exactly what its dominators computed, which is available there. An
+ * instruction computing an expression found in the table becomes a copy of the temp holding it, and copy propagation
+ * does the rest (see {@link CopyPropagation}). Constant loads are numbered too, but they are kept: they cost no more
+ * than a copy, and {@link SCCP} would turn the copy into a constant load again.
+ * <p>
+ * Loads are expressions too, but they also depend on the memory. Every store, and every call but the intrinsic ones,
+ * starts a new memory state, and a load is keyed by the state it reads. A block starts with the state its immediate
+ * dominator ends with, if no path between them may write the memory, and a new one otherwise. A store is also
+ * remembered as a load of the value it writes. Entries of virtual tables are never written, so their loads do not
+ * depend on the memory state.
+ */
+public class GlobalValueNumbering extends Pass {
+    public GlobalValueNumbering() {
+        super("gvn");
+    }
+
+    private CFG<TacInstr> cfg;
+    private DominatorTree<TacInstr> domTree;
+
+    // definition of every temp, by index
+    private TacInstr[] defs;
+
+    // value number of every temp, i.e. the first temp holding its value, by index
+    private Temp[] numbers;
+
+    // expressions computed by the dominators of the visited block
+    private Map<List<Object>, Temp> available;
+
+    // blocks that never write the memory, and the memory state at the end of every visited block
+    private boolean[] transparent;
+    private int[] exitState;
+    private int states;
+
+    private Map<TacInstr, TacInstr> rewritten;
+
+    @Override
+    public boolean transform(TacFunc func, CFG<TacInstr> original) {
+        var saved = new ArrayList<>(func.getInstrSeq());
+        new SSABuilder().build(func);
+
+        cfg = new CFGBuilder<TacInstr>().buildFrom(func.getInstrSeq());
+        domTree = new DominatorTree<>(cfg);
+        var temps = func.getUsedTempCount();
+        defs = new TacInstr[temps];
+        numbers = new Temp[temps];
+        transparent = new boolean[cfg.nodes.size()];
+        for (var bb : cfg) {
+            transparent[bb.id] = true;
+            for (var loc : bb) {
+                for (var dst : loc.instr.dsts) {
+                    if (dst != null) {
+                        defs[dst.index] = loc.instr;
+                    }
+                }
+                if (writesMemory(loc.instr)) {
+                    transparent[bb.id] = false;
+                }
+            }
+        }
+
+        available = new HashMap<>();
+        exitState = new int[cfg.nodes.size()];
+        states = 0;
+        rewritten = new IdentityHashMap<>();
+        if (!cfg.nodes.isEmpty()) {
+            visit(0);
+        }
+
+        if (rewritten.isEmpty()) {
+            // Undo SSA, only keeping the temps compact
+            func.getInstrSeq().clear();
+            func.getInstrSeq().addAll(saved);
+            func.renumberTemps();
+            return false;
+        }
+        func.getInstrSeq().replaceAll(instr -> rewritten.getOrDefault(instr, instr));
+        new SSADestructor().destruct(func);
+        return true;
+    }
+
+    private void visit(int b) {
+        var state = entryState(b);
+        var added = new ArrayList<List<Object>>();
+        for (var loc : cfg.getBlock(b)) {
+            var instr = loc.instr;
+            if (instr instanceof TacInstr.Assign) {
+                var assign = (TacInstr.Assign) instr;
+                numbers[assign.dst.index] = numberOf(assign.src);
+                continue;
+            }
+            if (instr instanceof TacInstr.Memory && ((TacInstr.Memory) instr).op == TacInstr.Memory.Op.STORE) {
+                // Whatever is loaded from there next is the stored value, until the memory is written again
+                var store = (TacInstr.Memory) instr;
+                state = states++;
+                var key = loadKey(store.base, store.offset, state);
+                available.put(key, numberOf(store.dst));
+                added.add(key);
+                continue;
+            }
+            if (writesMemory(instr)) {
+                state = states++;
+                continue;
+            }
+
+            var key = keyOf(instr, state);
+            if (key == null) {
+                continue;
+            }
+            var dst = instr.dsts[0];
+            var value = available.get(key);
+            if (value != null) {
+                numbers[dst.index] = value;
+                if (!(instr instanceof TacInstr.LoadImm4)) {
+                    rewritten.put(instr, new TacInstr.Assign(dst, value));
+                }
+            } else {
+                available.put(key, dst);
+                added.add(key);
+            }
+        }
+        exitState[b] = state;
+
+        for (var child : domTree.getChildren(b)) {
+            visit(child);
+        }
+        for (var key : added) {
+            available.remove(key);
+        }
+    }
+
+    /**
+     * Memory state at the entry of a block: the one its immediate dominator ends with, unless some block on a path
+     * from there may write the memory. Such blocks are found by walking backwards from the block until the dominator.
+     */
+    private int entryState(int b) {
+        var idom = domTree.getIdom(b);
+        if (idom == -1) {
+            return states++;
+        }
+        var visited = new TreeSet<Integer>();
+        var worklist = new ArrayDeque<>(cfg.getPrev(b));
+        while (!worklist.isEmpty()) {
+            var p = worklist.pop();
+            if (p == idom || !visited.add(p)) {
+                continue;
+            }
+            if (!transparent[p]) {
+                return states++;
+            }
+            worklist.addAll(cfg.getPrev(p));
+        }
+        return exitState[idom];
+    }
+
+    /**
+     * Key of the expression an instruction computes, or null if it is not an expression.
+     */
+    private List<Object> keyOf(TacInstr instr, int state) {
+        if (instr instanceof TacInstr.Binary) {
+            var binary = (TacInstr.Binary) instr;
+            var op = binary.op;
+            var lhs = numberOf(binary.lhs).index;
+            var rhs = numberOf(binary.rhs).index;
+            switch (op) {
+                case ADD, MUL, EQU, NEQ, LAND, LOR -> {
+                    if (lhs > rhs) {
+                        return List.of(op, rhs, lhs);
+                    }
+                }
+                case GTR -> {
+                    return List.of(TacInstr.Binary.Op.LES, rhs, lhs);
+                }
+                case GEQ -> {
+                    return List.of(TacInstr.Binary.Op.LEQ, rhs, lhs);
+                }
+            }
+            return List.of(op, lhs, rhs);
+        }
+        if (instr instanceof TacInstr.Unary) {
+            var unary = (TacInstr.Unary) instr;
+            return List.of(unary.op, numberOf(unary.operand).index);
+        }
+        if (instr instanceof TacInstr.LoadImm4) {
+            return List.of("imm", ((TacInstr.LoadImm4) instr).value);
+        }
+        if (instr instanceof TacInstr.LoadVTbl) {
+            return List.of("vtbl", ((TacInstr.LoadVTbl) instr).vtbl.label.name);
+        }
+        if (instr instanceof TacInstr.Memory) {
+            var load = (TacInstr.Memory) instr;
+            return loadKey(load.base, load.offset, state);
+        }
+        return null;
+    }
+
+    private List<Object> loadKey(Temp base, int offset, int state) {
+        var number = numberOf(base);
+        if (defs[number.index] instanceof TacInstr.LoadVTbl) {
+            state = -1;
+        }
+        return List.of(TacInstr.Memory.Op.LOAD, number.index, offset, state);
+    }
+
+    private Temp numberOf(Temp temp) {
+        var number = numbers[temp.index];
+        return number == null ? temp : number;
+    }
+}
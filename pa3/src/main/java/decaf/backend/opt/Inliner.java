@@ -0,0 +1,267 @@
+package decaf.backend.opt;
+
+import decaf.backend.dataflow.CFGBuilder;
+import decaf.backend.dataflow.LivenessAnalyzer;
+import decaf.lowlevel.instr.Temp;
+import decaf.lowlevel.label.Label;
+import decaf.lowlevel.log.Log;
+import decaf.lowlevel.tac.TacFunc;
+import decaf.lowlevel.tac.TacInstr;
+import decaf.lowlevel.tac.TacProg;
+import decaf.lowlevel.tac.TempSubstitution;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Function inlining.
+ * <p>
+ * Unlike a {@link Pass}, the inliner sees the whole program: a direct call to a function of the program is replaced by
+ * a copy of its body, if the callee has at most {@link #budget} instructions (see {@link PassManager#countInstrs}),
+ * or if this is its only call site. In the copy, temps are renamed to fresh temps of the caller, and labels to fresh
+ * labels of the caller. The arguments, passed by the {@code Parm}s right before the call, are assigned to the renamed
+ * argument temps, and every return assigns the result and jumps to the end of the copy. The simulator fills the locals
+ * of a call with 0, so the renamed temps which the callee may read before writing are set to 0 first, e.g. {@code x} in
+ * {@code int x; if (c) x = 5; return x;}.
+ * <p>
+ * Functions are visited callees first (in the order Tarjan's algorithm finds the strongly connected components of the
+ * call graph), so that a callee is already as small as inlining makes it. A recursive function, i.e. one in a cycle of
+ * the call graph, is never inlined. Functions are never removed, as virtual tables may still refer to them.
+ */
+public class Inliner {
+    /**
+     * Default of {@link #budget}.
+     */
+    public static final int DEFAULT_BUDGET = 20;
+
+    /**
+     * Maximum number of instructions of a function inlined at every call site. If 0, nothing is inlined.
+     */
+    public final int budget;
+
+    public Inliner(int budget) {
+        this.budget = budget;
+    }
+
+    public Inliner() {
+        this(DEFAULT_BUDGET);
+    }
+
+    private final Map<String, TacFunc> funcs = new TreeMap<>();
+
+    // callees of every function, by name, and number of call sites of every function
+    private final Map<String, Set<String>> callees = new TreeMap<>();
+    private final Map<String, Integer> callSites = new TreeMap<>();
+
+    private final Set<String> recursive = new TreeSet<>();
+
+    // state of Tarjan's algorithm
+    private final Map<String, Integer> index = new TreeMap<>();
+    private final Map<String, Integer> lowLink = new TreeMap<>();
+    private final Deque<String> stack = new ArrayDeque<>();
+    private final List<TacFunc> order = new ArrayList<>();
+
+    private int inlined;
+
+    /**
+     * Inline calls in a program.
+     *
+     * @param program program
+     * @return the functions that are changed
+     */
+    public List<TacFunc> run(TacProg program) {
+        if (budget == 0) {
+            return List.of();
+        }
+
+        for (var func : program.funcs) {
+            funcs.put(func.entry.name, func);
+        }
+        for (var func : program.funcs) {
+            var set = new TreeSet<String>();
+            for (var instr : func.getInstrSeq()) {
+                calleeOf(instr).ifPresent(callee -> {
+                    set.add(callee.entry.name);
+                    callSites.merge(callee.entry.name, 1, Integer::sum);
+                });
+            }
+            callees.put(func.entry.name, set);
+        }
+        for (var func : program.funcs) {
+            if (!index.containsKey(func.entry.name)) {
+                visit(func.entry.name);
+            }
+        }
+
+        var changed = new ArrayList<TacFunc>();
+        for (var func : order) {
+            if (inlineCalls(func)) {
+                changed.add(func);
+            }
+        }
+        Log.info("inliner: %d call sites inlined in %d functions", inlined, changed.size());
+        return changed;
+    }
+
+    /**
+     * The function of the program called by an instruction, if it is a direct call to one.
+     */
+    private Optional<TacFunc> calleeOf(TacInstr instr) {
+        if (instr instanceof TacInstr.DirectCall) {
+            var entry = ((TacInstr.DirectCall) instr).entry;
+            if (!entry.isIntrinsic()) {
+                return Optional.ofNullable(funcs.get(entry.name));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Tarjan's algorithm: every strongly connected component is completed after the ones it calls, and so is appended
+     * to {@link #order} after them.
+     */
+    private void visit(String name) {
+        index.put(name, index.size());
+        lowLink.put(name, index.get(name));
+        stack.push(name);
+        for (var callee : callees.get(name)) {
+            if (!index.containsKey(callee)) {
+                visit(callee);
+                lowLink.put(name, Math.min(lowLink.get(name), lowLink.get(callee)));
+            } else if (stack.contains(callee)) {
+                lowLink.put(name, Math.min(lowLink.get(name), index.get(callee)));
+            }
+        }
+
+        if (lowLink.get(name).equals(index.get(name))) {
+            var component = new ArrayList<String>();
+            String member;
+            do {
+                member = stack.pop();
+                component.add(member);
+            } while (!member.equals(name));
+
+            if (component.size() > 1 || callees.get(name).contains(name)) {
+                recursive.addAll(component);
+            }
+            for (var m : component) {
+                order.add(funcs.get(m));
+            }
+        }
+    }
+
+    /**
+     * Inline the calls of a function.
+     *
+     * @param func function
+     * @return true if any call is inlined
+     */
+    private boolean inlineCalls(TacFunc func) {
+        var seq = func.getInstrSeq();
+        var body = new ArrayList<TacInstr>(seq.size());
+        var changed = false;
+        for (var instr : seq) {
+            var callee = calleeOf(instr);
+            if (callee.isPresent() && shouldInline(callee.get())) {
+                var numArgs = callee.get().numArgs;
+                // Arguments are passed right before the call
+                var parms = body.size() - numArgs;
+                if (parms >= 0 && body.subList(parms, body.size()).stream().allMatch(i -> i instanceof TacInstr.Parm)
+                        && (parms == 0 || !(body.get(parms - 1) instanceof TacInstr.Parm))) {
+                    var args = new ArrayList<Temp>();
+                    for (var parm : body.subList(parms, body.size())) {
+                        args.add(((TacInstr.Parm) parm).value);
+                    }
+                    body.subList(parms, body.size()).clear();
+                    inline(func, callee.get(), args, ((TacInstr.DirectCall) instr).dst, body);
+                    changed = true;
+                    inlined++;
+                    continue;
+                }
+            }
+            body.add(instr);
+        }
+
+        if (changed) {
+            seq.clear();
+            seq.addAll(body);
+        }
+        return changed;
+    }
+
+    private boolean shouldInline(TacFunc callee) {
+        if (recursive.contains(callee.entry.name)) {
+            return false;
+        }
+        return PassManager.countInstrs(callee) <= budget || callSites.get(callee.entry.name) == 1;
+    }
+
+    /**
+     * Append a copy of the body of a callee.
+     *
+     * @param caller caller
+     * @param callee callee
+     * @param args   arguments passed to the callee
+     * @param dst    temp the call returns to, if any
+     * @param body   instructions of the caller so far
+     */
+    private void inline(TacFunc caller, TacFunc callee, List<Temp> args, Optional<Temp> dst, List<TacInstr> body) {
+        var temps = new Temp[callee.getUsedTempCount()];
+        for (var i = 0; i < temps.length; i++) {
+            temps[i] = caller.freshTemp();
+        }
+        var labels = new TreeMap<Label, Label>();
+        Function<Label, Label> rename = label -> labels.computeIfAbsent(label, l -> caller.freshLabel());
+        var exit = caller.freshLabel();
+
+        for (var i = 0; i < args.size(); i++) {
+            body.add(new TacInstr.Assign(temps[i], args.get(i)));
+        }
+        for (var temp : uninitialized(callee)) {
+            body.add(new TacInstr.LoadImm4(temps[temp.index], 0));
+        }
+        for (var instr : callee.getInstrSeq()) {
+            if (instr.isLabel()) {
+                if (!instr.label.isFunc()) {
+                    body.add(new TacInstr.Mark(rename.apply(instr.label)));
+                }
+                continue;
+            }
+
+            var renamed = TempSubstitution.apply(instr, t -> temps[t.index]);
+            if (renamed instanceof TacInstr.Return) {
+                var value = ((TacInstr.Return) renamed).value;
+                if (dst.isPresent() && value.isPresent()) {
+                    body.add(new TacInstr.Assign(dst.get(), value.get()));
+                }
+                body.add(new TacInstr.Branch(exit));
+            } else if (renamed instanceof TacInstr.Branch) {
+                body.add(new TacInstr.Branch(rename.apply(((TacInstr.Branch) renamed).target)));
+            } else if (renamed instanceof TacInstr.CondBranch) {
+                var branch = (TacInstr.CondBranch) renamed;
+                body.add(new TacInstr.CondBranch(branch.op, branch.cond, rename.apply(branch.target)));
+            } else {
+                body.add(renamed);
+            }
+        }
+        body.add(new TacInstr.Mark(exit));
+    }
+
+    /**
+     * Find the temps of a function, but the arguments, that may be read before written, i.e. are live at its entry.
+     *
+     * @param func function
+     * @return temps
+     */
+    private static List<Temp> uninitialized(TacFunc func) {
+        var cfg = new CFGBuilder<TacInstr>().buildFrom(func.getInstrSeq());
+        new LivenessAnalyzer<TacInstr>().accept(cfg);
+        var temps = new ArrayList<Temp>();
+        for (var temp : cfg.getBlock(0).liveIn) {
+            if (temp.index >= func.numArgs) {
+                temps.add(temp);
+            }
+        }
+        return temps;
+    }
+}
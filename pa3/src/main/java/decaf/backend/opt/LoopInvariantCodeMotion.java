@@ -0,0 +1,279 @@
+package decaf.backend.opt;
+
+import decaf.backend.dataflow.*;
+import decaf.lowlevel.instr.Temp;
+import decaf.lowlevel.label.Label;
+import decaf.lowlevel.tac.TacFunc;
+import decaf.lowlevel.tac.TacInstr;
+
+import java.util.*;
+
+/**
+ * Loop-invariant code motion.
+ * <p>
+ * Every natural loop (see {@link LoopNest}) is first given a preheader: a new block right before its header, which all
+ * edges entering the loop from outside go through. The function is then put in SSA form (see {@link SSABuilder}), where
+ * an instruction is invariant in a loop if all its operands are written outside the loop, or by invariant instructions.
+ * Loops are visited outermost first, and their invariant instructions are moved to the end of their preheaders.
+ * <p>
+ * A hoisted instruction runs even if the loop body doesn't, so it must never fail: divisions and modulos are never
+ * hoisted. Neither are loads in a loop that may write the memory. Otherwise, a load is hoisted if it reads a virtual
+ * table, or if the header reads it before anything may fail or have an effect, or if the same address is accessed by
+ * a block dominating the preheader.
+ * <p>
+ * Copies and constant loads read by φ-nodes stay: out of SSA form, a copy would take their place in the loop, and
+ * {@link SCCP} would turn it back into a constant load.
+ */
+public class LoopInvariantCodeMotion extends Pass {
+    public LoopInvariantCodeMotion() {
+        super("licm");
+    }
+
+    private CFG<TacInstr> cfg;
+    private DominatorTree<TacInstr> domTree;
+
+    // instruction and block writing every temp, by index, or null and -1 for arguments
+    private TacInstr[] defs;
+    private int[] defBlock;
+
+    // temps read by φ-nodes
+    private Set<Temp> phiOperands;
+
+    @Override
+    public boolean transform(TacFunc func, CFG<TacInstr> original) {
+        var nest = new LoopNest<>(original, new DominatorTree<>(original));
+        if (nest.loops.isEmpty()) {
+            return false;
+        }
+
+        var saved = new ArrayList<>(func.getInstrSeq());
+        insertPreheaders(func, original, nest);
+        new SSABuilder().build(func);
+        if (!hoist(func)) {
+            // Undo the preheaders and SSA, only keeping the temps compact
+            func.getInstrSeq().clear();
+            func.getInstrSeq().addAll(saved);
+            func.renumberTemps();
+            return false;
+        }
+        new SSADestructor().destruct(func);
+        return true;
+    }
+
+    /**
+     * Insert a preheader before every loop header, and redirect the jumps from outside the loop there. A block of the
+     * loop falling through to the header now jumps to it instead.
+     */
+    static void insertPreheaders(TacFunc func, CFG<TacInstr> cfg, LoopNest<TacInstr> nest) {
+        var loops = new TreeMap<Integer, LoopNest.Loop>();
+        var preheaders = new TreeMap<Label, Label>();
+        for (var loop : nest.loops) {
+            loops.put(loop.header, loop);
+            preheaders.put(cfg.getBlock(loop.header).label.orElseThrow(), func.freshLabel());
+        }
+
+        var body = new ArrayList<TacInstr>();
+        for (var bb : cfg) {
+            var loop = loops.get(bb.id);
+            if (loop != null) {
+                var header = bb.label.orElseThrow();
+                if (loop.contains(bb.id - 1) && fallsThrough(cfg.getBlock(bb.id - 1))) {
+                    body.add(new TacInstr.Branch(header));
+                }
+                body.add(new TacInstr.Mark(preheaders.get(header)));
+            }
+            bb.label.ifPresent(label -> body.add(new TacInstr.Mark(label)));
+            for (var loc : bb) {
+                var instr = loc.instr;
+                if (instr instanceof TacInstr.Branch) {
+                    var target = ((TacInstr.Branch) instr).target;
+                    if (entersLoop(cfg, loops, bb.id, target)) {
+                        instr = new TacInstr.Branch(preheaders.get(target));
+                    }
+                } else if (instr instanceof TacInstr.CondBranch) {
+                    var branch = (TacInstr.CondBranch) instr;
+                    if (entersLoop(cfg, loops, bb.id, branch.target)) {
+                        instr = new TacInstr.CondBranch(branch.op, branch.cond, preheaders.get(branch.target));
+                    }
+                }
+                body.add(instr);
+            }
+        }
+        replace(func, body);
+    }
+
+    private static boolean fallsThrough(BasicBlock<TacInstr> bb) {
+        return bb.kind == BasicBlock.Kind.CONTINUOUS || bb.kind == BasicBlock.Kind.END_BY_COND_JUMP;
+    }
+
+    /**
+     * Does a jump from some block enter a loop from outside, through its header?
+     */
+    private static boolean entersLoop(CFG<TacInstr> cfg, Map<Integer, LoopNest.Loop> loops, int from, Label target) {
+        for (var loop : loops.values()) {
+            if (cfg.getBlock(loop.header).label.orElseThrow().compareTo(target) == 0) {
+                return !loop.contains(from);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hoist the invariant instructions of all loops, in SSA form.
+     *
+     * @return true if anything is hoisted
+     */
+    private boolean hoist(TacFunc func) {
+        cfg = new CFGBuilder<TacInstr>().buildFrom(func.getInstrSeq());
+        domTree = new DominatorTree<>(cfg);
+        var nest = new LoopNest<>(cfg, domTree);
+        defs = new TacInstr[func.getUsedTempCount()];
+        defBlock = new int[func.getUsedTempCount()];
+        Arrays.fill(defBlock, -1);
+        phiOperands = new TreeSet<>();
+        for (var bb : cfg) {
+            for (var loc : bb) {
+                if (loc.instr instanceof TacInstr.Phi) {
+                    phiOperands.addAll(Arrays.asList(loc.instr.srcs));
+                }
+                for (var dst : loc.instr.dsts) {
+                    if (dst != null) {
+                        defs[dst.index] = loc.instr;
+                        defBlock[dst.index] = bb.id;
+                    }
+                }
+            }
+        }
+
+        var hoisted = new TreeMap<Integer, List<TacInstr>>();
+        var moved = Collections.newSetFromMap(new IdentityHashMap<TacInstr, Boolean>());
+        for (var loop : nest.loops) {
+            var preheader = preheaderOf(loop);
+            if (preheader == -1) {
+                continue;
+            }
+            var writes = loop.blocks.stream()
+                    .anyMatch(b -> cfg.getBlock(b).locs.stream().anyMatch(loc -> writesMemory(loc.instr)));
+
+            for (var b : domTree.reversePostorder) {
+                if (!loop.contains(b)) {
+                    continue;
+                }
+                // May anything before have failed or had an effect? Only the header runs before it for sure.
+                var effects = b != loop.header;
+                for (var loc : cfg.getBlock(b)) {
+                    var instr = loc.instr;
+                    if (moved.contains(instr)) {
+                        continue;
+                    }
+                    if (isInvariant(instr, loop) && canHoist(instr, writes, effects, preheader)) {
+                        moved.add(instr);
+                        hoisted.computeIfAbsent(preheader, k -> new ArrayList<>()).add(instr);
+                        defBlock[instr.dsts[0].index] = preheader;
+                    } else if (mayFail(instr)) {
+                        effects = true;
+                    }
+                }
+            }
+        }
+        if (moved.isEmpty()) {
+            return false;
+        }
+
+        var body = new ArrayList<TacInstr>();
+        for (var bb : cfg) {
+            bb.label.ifPresent(label -> body.add(new TacInstr.Mark(label)));
+            var instrs = new ArrayList<TacInstr>();
+            for (var loc : bb) {
+                if (!moved.contains(loc.instr)) {
+                    instrs.add(loc.instr);
+                }
+            }
+            var extra = hoisted.getOrDefault(bb.id, List.of());
+            if (!instrs.isEmpty() && !instrs.get(instrs.size() - 1).isSequential()) {
+                instrs.addAll(instrs.size() - 1, extra);
+            } else {
+                instrs.addAll(extra);
+            }
+            body.addAll(instrs);
+        }
+        replace(func, body);
+        return true;
+    }
+
+    /**
+     * Find the preheader of a loop, i.e. its only predecessor from outside, which has no other successor.
+     *
+     * @return the preheader, or -1 if none
+     */
+    private int preheaderOf(LoopNest.Loop loop) {
+        var outside = -1;
+        for (var p : cfg.getPrev(loop.header)) {
+            if (!loop.contains(p)) {
+                if (outside != -1) {
+                    return -1;
+                }
+                outside = p;
+            }
+        }
+        return outside != -1 && cfg.getSucc(outside).size() == 1 ? outside : -1;
+    }
+
+    private boolean isInvariant(TacInstr instr, LoopNest.Loop loop) {
+        if (instr.dsts.length != 1 || instr.dsts[0] == null) {
+            return false;
+        }
+        for (var src : instr.srcs) {
+            if (defBlock[src.index] != -1 && loop.contains(defBlock[src.index])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean canHoist(TacInstr instr, boolean writes, boolean effects, int preheader) {
+        if (instr instanceof TacInstr.Binary) {
+            var op = ((TacInstr.Binary) instr).op;
+            return op != TacInstr.Binary.Op.DIV && op != TacInstr.Binary.Op.MOD;
+        }
+        if (instr instanceof TacInstr.Memory) {
+            var load = (TacInstr.Memory) instr;
+            if (writes) {
+                return false;
+            }
+            return defs[load.base.index] instanceof TacInstr.LoadVTbl || !effects || accessedBefore(load, preheader);
+        }
+        if (instr instanceof TacInstr.Assign || instr instanceof TacInstr.LoadImm4) {
+            // Leaving SSA would put a copy back in its place
+            return !phiOperands.contains(instr.dsts[0]);
+        }
+        return instr instanceof TacInstr.LoadStrConst || instr instanceof TacInstr.LoadVTbl
+                || instr instanceof TacInstr.Unary;
+    }
+
+    /**
+     * Is the address of a load accessed by some block dominating the preheader? Then the load can't fail there.
+     */
+    private boolean accessedBefore(TacInstr.Memory load, int preheader) {
+        for (var b = preheader; b != -1; b = domTree.getIdom(b)) {
+            for (var loc : cfg.getBlock(b)) {
+                if (loc.instr instanceof TacInstr.Memory) {
+                    var access = (TacInstr.Memory) loc.instr;
+                    if (access.base.compareTo(load.base) == 0 && access.offset == load.offset) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean mayFail(TacInstr instr) {
+        if (instr instanceof TacInstr.Binary) {
+            var op = ((TacInstr.Binary) instr).op;
+            return op == TacInstr.Binary.Op.DIV || op == TacInstr.Binary.Op.MOD;
+        }
+        return instr instanceof TacInstr.Memory || instr instanceof TacInstr.DirectCall
+                || instr instanceof TacInstr.IndirectCall;
+    }
+}
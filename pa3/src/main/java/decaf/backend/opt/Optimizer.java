@@ -2,6 +2,7 @@ package decaf.backend.opt;
 
 import decaf.driver.Config;
 import decaf.driver.Phase;
+import decaf.lowlevel.log.Log;
 import decaf.lowlevel.tac.Simulator;
 import decaf.lowlevel.tac.TacProg;
 
@@ -11,7 +12,9 @@ import java.io.PrintWriter;
 /**
  * TAC optimization phase: optimize a TAC program.
  * <p>
- * The original decaf compiler has NO optimization, thus, we implement the transformation as identity function.
+ * Which passes run depends on the optimization level (see {@link Config#optLevel}), and they are run by a
+ * {@link PassManager}. At level 2, small functions are also inlined (see {@link Inliner}), and the functions calling them
+ * are optimized again. At level 0, the transformation is the identity function.
  */
 public class Optimizer extends Phase<TacProg, TacProg> {
     public Optimizer(Config config) {
@@ -20,9 +23,46 @@ public class Optimizer extends Phase<TacProg, TacProg> {
 
     @Override
     public TacProg transform(TacProg input) {
+        Log.info("phase: optimizer (level %d)", config.optLevel);
+
+        var pm = pipeline(config.optLevel);
+        pm.run(input);
+        if (config.optLevel >= 2) {
+            // Inline the optimized callees, and optimize the callers again
+            for (var func : new Inliner(config.inlineBudget).run(input)) {
+                pm.run(func);
+            }
+        }
+        pm.logStats();
         return input;
     }
 
+    /**
+     * Build the pipeline of an optimization level. Passes run in the order they are added here.
+     *
+     * @param level optimization level
+     * @return pass manager
+     */
+    static PassManager pipeline(int level) {
+        var pm = new PassManager();
+        if (level >= 2) {
+            pm.add(new ScalarReplacement());
+            pm.add(new SCCP());
+            pm.add(new GlobalValueNumbering());
+            pm.add(new LoopInvariantCodeMotion());
+            pm.add(new BoundsCheckElimination());
+            pm.add(new StrengthReduction());
+        } else if (level >= 1) {
+            pm.add(new ConstPropagation());
+        }
+        if (level >= 1) {
+            pm.add(new CopyPropagation());
+            pm.add(new DeadCodeElimination());
+            pm.add(new SimplifyCFG());
+        }
+        return pm;
+    }
+
     @Override
     public void onSucceed(TacProg program) {
         if (config.target.equals(Config.Target.PA4)) {
@@ -37,8 +77,15 @@ public class Optimizer extends Phase<TacProg, TacProg> {
             }
 
             // and then execute it using our simulator.
-            var simulator = new Simulator(System.in, config.output);
-            simulator.execute(program);
+            var simulator = new Simulator(System.in, config.output, config.simulatorOptions);
+            try {
+                simulator.execute(program);
+            } finally {
+                // Also when the program fails, e.g. out of its budget, which is when the counters are most needed
+                simulator.getStats().ifPresent(stats -> stats.printTo(new PrintWriter(System.err)));
+                simulator.getProfile().ifPresent(profile ->
+                        profile.writeTo(config.dstPath.resolve(config.getSourceBaseName() + ".profile")));
+            }
         }
     }
 }
@@ -0,0 +1,112 @@
+package decaf.backend.opt;
+
+import decaf.backend.dataflow.CFG;
+import decaf.lowlevel.label.IntrinsicLabel;
+import decaf.lowlevel.tac.Intrinsic;
+import decaf.lowlevel.tac.TacFunc;
+import decaf.lowlevel.tac.TacInstr;
+
+import java.util.List;
+
+/**
+ * An optimization pass over TAC.
+ * <p>
+ * A pass transforms one function at a time, in place, and tells whether it changed anything, so that the
+ * {@link PassManager} knows when a fixed point is reached.
+ */
+public abstract class Pass {
+    /**
+     * Name, for logging.
+     */
+    public final String name;
+
+    public Pass(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Entry of the transformation.
+     *
+     * @param func function to transform
+     * @param cfg  control flow graph of the function, freshly built from its current instruction sequence
+     * @return true if the function is changed
+     */
+    public abstract boolean transform(TacFunc func, CFG<TacInstr> cfg);
+
+    /**
+     * Replace the instruction sequence of a function. The function label is kept.
+     *
+     * @param func function
+     * @param body new instructions, following the function label
+     */
+    protected static void replace(TacFunc func, List<TacInstr> body) {
+        var seq = func.getInstrSeq();
+        var entry = seq.get(0);
+        seq.clear();
+        seq.add(entry);
+        seq.addAll(body);
+    }
+
+    /**
+     * Are two instruction sequences the same, instruction by instruction?
+     *
+     * @param before an instruction sequence
+     * @param after  another one
+     * @return true if so
+     */
+    protected static boolean sameInstrs(List<TacInstr> before, List<TacInstr> after) {
+        if (before.size() != after.size()) {
+            return false;
+        }
+        for (var i = 0; i < before.size(); i++) {
+            if (!before.get(i).toString().equals(after.get(i).toString())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Does an instruction allocate a fresh object, i.e. call the {@code ALLOCATE} intrinsic?
+     *
+     * @param instr instruction
+     * @return true if so
+     */
+    protected static boolean isAllocation(TacInstr instr) {
+        if (instr instanceof TacInstr.DirectCall) {
+            var entry = ((TacInstr.DirectCall) instr).entry;
+            return entry.isIntrinsic() && ((IntrinsicLabel) entry).opcode == Intrinsic.Opcode.ALLOCATE;
+        }
+        return false;
+    }
+
+    /**
+     * Does an instruction halt the program, i.e. call the {@code HALT} intrinsic?
+     *
+     * @param instr instruction
+     * @return true if so
+     */
+    protected static boolean isHalt(TacInstr instr) {
+        if (instr instanceof TacInstr.DirectCall) {
+            var entry = ((TacInstr.DirectCall) instr).entry;
+            return entry.isIntrinsic() && ((IntrinsicLabel) entry).opcode == Intrinsic.Opcode.HALT;
+        }
+        return false;
+    }
+
+    /**
+     * May an instruction write the memory? Intrinsics only write memory they allocate.
+     *
+     * @param instr instruction
+     * @return true if so
+     */
+    protected static boolean writesMemory(TacInstr instr) {
+        if (instr instanceof TacInstr.Memory) {
+            return ((TacInstr.Memory) instr).op == TacInstr.Memory.Op.STORE;
+        }
+        if (instr instanceof TacInstr.DirectCall) {
+            return !((TacInstr.DirectCall) instr).entry.isIntrinsic();
+        }
+        return instr instanceof TacInstr.IndirectCall;
+    }
+}
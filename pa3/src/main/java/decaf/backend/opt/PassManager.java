@@ -0,0 +1,128 @@
+package decaf.backend.opt;
+
+import decaf.backend.dataflow.CFGBuilder;
+import decaf.lowlevel.log.Log;
+import decaf.lowlevel.tac.TacFunc;
+import decaf.lowlevel.tac.TacInstr;
+import decaf.lowlevel.tac.TacProg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Run a pipeline of optimization passes over every function of a TAC program.
+ * <p>
+ * Passes run in the order they are added. As one pass often exposes opportunities for another, the whole pipeline is
+ * repeated on a function until no pass changes it any more, or until {@link #MAX_ITERATIONS} rounds, which is logged
+ * as a warning. Whether a pass changed the function is found by comparing its instructions before and after the pass,
+ * so that a pass wrongly reporting a change can't keep the pipeline running.
+ * <p>
+ * For every pass, we also record the number of times it runs and changes something, the time it takes, and the number
+ * of instructions it removes, see {@link #logStats}.
+ */
+public class PassManager {
+    /**
+     * Maximum number of rounds of the pipeline on a function.
+     */
+    public static final int MAX_ITERATIONS = 16;
+
+    private final List<Pass> passes = new ArrayList<>();
+
+    private final List<Stats> stats = new ArrayList<>();
+
+    /**
+     * Add a pass to the end of the pipeline.
+     *
+     * @param pass pass
+     * @return this
+     */
+    public PassManager add(Pass pass) {
+        passes.add(pass);
+        stats.add(new Stats());
+        return this;
+    }
+
+    /**
+     * Optimize every function of a program.
+     *
+     * @param program program
+     */
+    public void run(TacProg program) {
+        for (var func : program.funcs) {
+            run(func);
+        }
+    }
+
+    /**
+     * Optimize a function.
+     *
+     * @param func function
+     * @return number of rounds of the pipeline, the last one changing nothing unless it is the
+     * {@link #MAX_ITERATIONS}th
+     */
+    public int run(TacFunc func) {
+        for (var round = 1; round <= MAX_ITERATIONS; round++) {
+            var changed = false;
+            for (var i = 0; i < passes.size(); i++) {
+                var pass = passes.get(i);
+                var stat = stats.get(i);
+
+                var before = new ArrayList<>(func.getInstrSeq());
+                var start = System.nanoTime();
+                var cfg = new CFGBuilder<TacInstr>().buildFrom(func.getInstrSeq());
+                pass.transform(func, cfg);
+                if (!Pass.sameInstrs(before, func.getInstrSeq())) {
+                    changed = true;
+                    stat.changes++;
+                }
+                stat.time += System.nanoTime() - start;
+                stat.runs++;
+                stat.removed += countInstrs(before) - countInstrs(func.getInstrSeq());
+            }
+
+            if (!changed) {
+                return round;
+            }
+        }
+        Log.warn("optimizer: %s is still changing after %d rounds", func.entry.name, MAX_ITERATIONS);
+        return MAX_ITERATIONS;
+    }
+
+    /**
+     * Log the statistics of every pass.
+     */
+    public void logStats() {
+        for (var i = 0; i < passes.size(); i++) {
+            var stat = stats.get(i);
+            Log.info("pass %s: %d runs, %d changes, %d instructions removed, %.3f ms", passes.get(i).name,
+                    stat.runs, stat.changes, stat.removed, stat.time / 1e6);
+        }
+    }
+
+    /**
+     * Count the instructions of a function, not including labels and comments.
+     *
+     * @param func function
+     * @return number of instructions
+     */
+    public static int countInstrs(TacFunc func) {
+        return countInstrs(func.getInstrSeq());
+    }
+
+    private static int countInstrs(List<TacInstr> seq) {
+        var count = 0;
+        for (var instr : seq) {
+            if (!instr.isLabel() && !(instr instanceof TacInstr.Memo)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static class Stats {
+        int runs;
+        int changes;
+        long removed;
+        long time;
+    }
+}
@@ -0,0 +1,435 @@
+package decaf.backend.opt;
+
+import decaf.backend.dataflow.*;
+import decaf.lowlevel.instr.Temp;
+import decaf.lowlevel.label.Label;
+import decaf.lowlevel.tac.ClosureTable;
+import decaf.lowlevel.tac.TacFunc;
+import decaf.lowlevel.tac.TacInstr;
+
+import java.util.*;
+
+/**
+ * Sparse conditional constant propagation (Wegman and Zadeck, "Constant Propagation with Conditional Branches").
+ * <p>
+ * The function is first put in SSA form (see {@link SSABuilder}). Every temp starts as "undetermined", and only moves
+ * down the lattice to a constant, and then to "not a constant". Meanwhile, a CFG edge is only followed once it is found
+ * executable, so that a φ-node ignores the paths never taken, and a branch on a temp proved constant never makes its
+ * other arm executable.
+ * <p>
+ * Beyond arithmetic, values flow through the fields of objects allocated in the function that never escape it, i.e.
+ * whose address is only ever used as the base of loads and stores (or to compute addresses only loaded from): a load
+ * from a field written by exactly one store, which dominates the load, yields the stored value. This is what typically
+ * proves the kind tag of a closure record (see {@code TacEmitter.visitCall}), and collapses its run-time dispatch. The
+ * closures of static methods are not allocated but shared, in a table that is never written (see
+ * {@link ClosureTable}), so a load of their kind tag from there yields 0.
+ * <p>
+ * At last, every instruction computing a constant becomes a constant load, every conditional branch on a constant is
+ * resolved, the function is translated out of SSA form, and constant loads whose results are never used are removed.
+ * Unexecutable blocks are left to {@link SimplifyCFG}.
+ */
+public class SCCP extends Pass {
+    public SCCP() {
+        super("sccp");
+    }
+
+    // lattice of a temp
+    private static final int UNDETERMINED = 0;
+    private static final int CONSTANT = 1;
+    private static final int VARYING = 2;
+
+    private CFG<TacInstr> cfg;
+    private DominatorTree<TacInstr> domTree;
+    private Map<Label, Integer> labelToBlock;
+
+    // block and position of every instruction
+    private Map<TacInstr, Integer> blockOf;
+    private Map<TacInstr, Integer> indexOf;
+
+    // definition and users of every temp, by index
+    private TacInstr[] defs;
+    private List<List<TacInstr>> users;
+
+    // for a load from a field of a non-escaping object: the temp written by the only store to that field
+    private Map<TacInstr, Temp> sources;
+
+    private int[] lattice;
+    private int[] constant;
+
+    // executable blocks, and the executable edges into every block (by predecessor)
+    private boolean[] executableBlock;
+    private List<Set<Integer>> executableEdge;
+
+    private final Deque<int[]> flowWorklist = new ArrayDeque<>();
+    private final Deque<Integer> ssaWorklist = new ArrayDeque<>();
+
+    @Override
+    public boolean transform(TacFunc func, CFG<TacInstr> original) {
+        var saved = new ArrayList<>(func.getInstrSeq());
+        new SSABuilder().build(func);
+
+        cfg = new CFGBuilder<TacInstr>().buildFrom(func.getInstrSeq());
+        domTree = new DominatorTree<>(cfg);
+        labelToBlock = new TreeMap<>();
+        blockOf = new IdentityHashMap<>();
+        indexOf = new IdentityHashMap<>();
+        var temps = func.getUsedTempCount();
+        defs = new TacInstr[temps];
+        users = new ArrayList<>();
+        for (var t = 0; t < temps; t++) {
+            users.add(new ArrayList<>());
+        }
+        for (var bb : cfg) {
+            bb.label.ifPresent(label -> labelToBlock.put(label, bb.id));
+            var index = 0;
+            for (var loc : bb) {
+                blockOf.put(loc.instr, bb.id);
+                indexOf.put(loc.instr, index++);
+                for (var dst : loc.instr.dsts) {
+                    if (dst != null) {
+                        defs[dst.index] = loc.instr;
+                    }
+                }
+                for (var src : loc.instr.srcs) {
+                    users.get(src.index).add(loc.instr);
+                }
+            }
+        }
+
+        findFieldSources();
+        propagate();
+
+        if (!rewrite(func)) {
+            // Undo SSA, only keeping the temps compact
+            func.getInstrSeq().clear();
+            func.getInstrSeq().addAll(saved);
+            func.renumberTemps();
+            return ConstPropagation.removeDeadLoads(func);
+        }
+        new SSADestructor().destruct(func);
+        ConstPropagation.removeDeadLoads(func);
+        return true;
+    }
+
+    /**
+     * Find the loads that read a field of a non-escaping object, written by exactly one dominating store.
+     */
+    private void findFieldSources() {
+        sources = new IdentityHashMap<>();
+        for (var def : defs) {
+            if (def == null || !isAllocation(def)) {
+                continue;
+            }
+            var object = def.dsts[0];
+
+            // Every use must be the base of a load or store, and stores must not write the address itself. Addresses
+            // derived from it by arithmetic, e.g. to walk the captured variables, may only be loaded from.
+            var stores = new TreeMap<Integer, List<TacInstr.Memory>>();
+            var escapes = false;
+            var derived = new TreeSet<Temp>();
+            var worklist = new ArrayDeque<Temp>();
+            derived.add(object);
+            worklist.add(object);
+            while (!escapes && !worklist.isEmpty()) {
+                var address = worklist.poll();
+                for (var user : users.get(address.index)) {
+                    if (user instanceof TacInstr.Memory) {
+                        var memory = (TacInstr.Memory) user;
+                        if (memory.op == TacInstr.Memory.Op.LOAD) {
+                            continue;
+                        }
+                        if (memory.dst.compareTo(address) == 0 || address.compareTo(object) != 0) {
+                            escapes = true;
+                            break;
+                        }
+                        stores.computeIfAbsent(memory.offset, k -> new ArrayList<>()).add(memory);
+                    } else if (user instanceof TacInstr.Phi || user instanceof TacInstr.Assign
+                            || isAddressArithmetic(user)) {
+                        if (derived.add(user.dsts[0])) {
+                            worklist.add(user.dsts[0]);
+                        }
+                    } else {
+                        escapes = true;
+                        break;
+                    }
+                }
+            }
+            if (escapes) {
+                continue;
+            }
+
+            for (var user : users.get(object.index)) {
+                if (!(user instanceof TacInstr.Memory)) {
+                    continue;
+                }
+                var memory = (TacInstr.Memory) user;
+                if (memory.op != TacInstr.Memory.Op.LOAD) {
+                    continue;
+                }
+                var candidates = stores.get(memory.offset);
+                if (candidates != null && candidates.size() == 1 && precedes(candidates.get(0), memory)) {
+                    var source = candidates.get(0).dst;
+                    sources.put(memory, source);
+                    users.get(source.index).add(memory);
+                }
+            }
+        }
+    }
+
+    /**
+     * Does a load read the kind tag of a shared closure, i.e. from the table of closures at a constant offset?
+     */
+    private boolean readsSharedClosureKind(TacInstr.Memory load) {
+        if (load.op != TacInstr.Memory.Op.LOAD || !(defs[load.base.index] instanceof TacInstr.Binary)) {
+            return false;
+        }
+        var address = (TacInstr.Binary) defs[load.base.index];
+        if (address.op != TacInstr.Binary.Op.ADD || !(defs[address.lhs.index] instanceof TacInstr.LoadVTbl)
+                || !(defs[address.rhs.index] instanceof TacInstr.LoadImm4)) {
+            return false;
+        }
+        var table = ((TacInstr.LoadVTbl) defs[address.lhs.index]).vtbl;
+        var offset = ((TacInstr.LoadImm4) defs[address.rhs.index]).value + load.offset;
+        return table instanceof ClosureTable && ((ClosureTable) table).isKind(offset);
+    }
+
+    private static boolean isAddressArithmetic(TacInstr instr) {
+        if (instr instanceof TacInstr.Binary) {
+            var op = ((TacInstr.Binary) instr).op;
+            return op == TacInstr.Binary.Op.ADD || op == TacInstr.Binary.Op.SUB;
+        }
+        return false;
+    }
+
+    /**
+     * Is every execution of {@code instr} preceded by an execution of {@code first}?
+     */
+    private boolean precedes(TacInstr first, TacInstr instr) {
+        if (blockOf.get(first).equals(blockOf.get(instr))) {
+            return indexOf.get(first) < indexOf.get(instr);
+        }
+        return domTree.dominates(blockOf.get(first), blockOf.get(instr));
+    }
+
+    /**
+     * Solve the lattice of every temp, and find the executable blocks.
+     */
+    private void propagate() {
+        var n = cfg.nodes.size();
+        lattice = new int[defs.length];
+        constant = new int[defs.length];
+        for (var t = 0; t < defs.length; t++) {
+            if (defs[t] == null) { // arguments, and temps read before written
+                lattice[t] = VARYING;
+            }
+        }
+        executableBlock = new boolean[n];
+        executableEdge = new ArrayList<>();
+        for (var i = 0; i < n; i++) {
+            executableEdge.add(new TreeSet<>());
+        }
+
+        markBlock(0);
+        while (!flowWorklist.isEmpty() || !ssaWorklist.isEmpty()) {
+            while (!flowWorklist.isEmpty()) {
+                var edge = flowWorklist.poll();
+                var from = edge[0];
+                var to = edge[1];
+                if (!executableEdge.get(to).add(from)) {
+                    continue;
+                }
+                if (executableBlock[to]) {
+                    for (var loc : cfg.getBlock(to)) {
+                        if (loc.instr instanceof TacInstr.Phi) {
+                            visit(loc.instr);
+                        }
+                    }
+                } else {
+                    markBlock(to);
+                }
+            }
+            while (!ssaWorklist.isEmpty()) {
+                for (var user : users.get(ssaWorklist.poll())) {
+                    if (executableBlock[blockOf.get(user)]) {
+                        visit(user);
+                    }
+                }
+            }
+        }
+    }
+
+    private void markBlock(int b) {
+        executableBlock[b] = true;
+        var bb = cfg.getBlock(b);
+        for (var loc : bb) {
+            visit(loc.instr);
+        }
+
+        if (bb.kind != BasicBlock.Kind.END_BY_COND_JUMP) {
+            for (var s : cfg.getSucc(b)) {
+                flowWorklist.add(new int[]{b, s});
+            }
+        }
+    }
+
+    private void visit(TacInstr instr) {
+        if (instr instanceof TacInstr.Phi) { // merge values flowing along executable edges
+            var phi = (TacInstr.Phi) instr;
+            var edges = executableEdge.get(blockOf.get(phi));
+            var state = UNDETERMINED;
+            var value = 0;
+            for (var i = 0; i < phi.from.length; i++) {
+                var src = phi.srcs[i].index;
+                if (!edges.contains(labelToBlock.get(phi.from[i]))) {
+                    continue;
+                }
+                if (lattice[src] == VARYING || (lattice[src] == CONSTANT && state == CONSTANT
+                        && constant[src] != value)) {
+                    state = VARYING;
+                    break;
+                }
+                if (lattice[src] == CONSTANT) {
+                    state = CONSTANT;
+                    value = constant[src];
+                }
+            }
+            update(phi.dst, state, value);
+            return;
+        }
+
+        if (instr instanceof TacInstr.CondBranch) {
+            var branch = (TacInstr.CondBranch) instr;
+            var cond = branch.cond.index;
+            if (lattice[cond] == UNDETERMINED) {
+                return;
+            }
+            var block = blockOf.get(branch);
+            if (lattice[cond] == VARYING || ConstPropagation.taken(branch, constant[cond])) {
+                flowWorklist.add(new int[]{block, labelToBlock.get(branch.target)});
+            }
+            if (block + 1 < cfg.nodes.size()
+                    && (lattice[cond] == VARYING || !ConstPropagation.taken(branch, constant[cond]))) {
+                flowWorklist.add(new int[]{block, block + 1});
+            }
+            return;
+        }
+
+        if (instr.dsts.length == 0 || instr.dsts[0] == null) {
+            return;
+        }
+        var dst = instr.dsts[0];
+        if (instr instanceof TacInstr.LoadImm4) {
+            update(dst, CONSTANT, ((TacInstr.LoadImm4) instr).value);
+        } else if (instr instanceof TacInstr.Assign) {
+            var src = ((TacInstr.Assign) instr).src.index;
+            update(dst, lattice[src], constant[src]);
+        } else if (instr instanceof TacInstr.Unary) {
+            var unary = (TacInstr.Unary) instr;
+            var operand = unary.operand.index;
+            if (lattice[operand] == CONSTANT) {
+                update(dst, CONSTANT, ConstPropagation.fold(unary.op, constant[operand]));
+            } else {
+                update(dst, lattice[operand], 0);
+            }
+        } else if (instr instanceof TacInstr.Binary) {
+            var binary = (TacInstr.Binary) instr;
+            var lhs = binary.lhs.index;
+            var rhs = binary.rhs.index;
+            if (lattice[lhs] == VARYING || lattice[rhs] == VARYING) {
+                update(dst, VARYING, 0);
+            } else if (lattice[lhs] == CONSTANT && lattice[rhs] == CONSTANT) {
+                if (ConstPropagation.foldable(binary.op, constant[rhs])) {
+                    update(dst, CONSTANT, ConstPropagation.fold(binary.op, constant[lhs], constant[rhs]));
+                } else {
+                    update(dst, VARYING, 0);
+                }
+            }
+        } else if (instr instanceof TacInstr.Memory && readsSharedClosureKind((TacInstr.Memory) instr)) {
+            update(dst, CONSTANT, 0);
+        } else if (sources.containsKey(instr)) {
+            var source = sources.get(instr).index;
+            update(dst, lattice[source], constant[source]);
+        } else {
+            update(dst, VARYING, 0);
+        }
+    }
+
+    private void update(Temp temp, int state, int c) {
+        var t = temp.index;
+        if (state > lattice[t] || (state == CONSTANT && lattice[t] == CONSTANT && c != constant[t])) {
+            if (state == CONSTANT && lattice[t] == CONSTANT) {
+                state = VARYING;
+            }
+            lattice[t] = state;
+            constant[t] = c;
+            ssaWorklist.add(t);
+        }
+    }
+
+    /**
+     * Replace computations of constants by constant loads, and resolve branches on constants.
+     *
+     * @return true if anything changes
+     */
+    private boolean rewrite(TacFunc func) {
+        // Be conservative if the analysis is inconclusive, which never happens with well-formed code
+        for (var bb : cfg) {
+            if (executableBlock[bb.id] && bb.kind == BasicBlock.Kind.END_BY_COND_JUMP
+                    && lattice[((TacInstr.CondBranch) bb.getLastInstr()).cond.index] == UNDETERMINED) {
+                return false;
+            }
+        }
+
+        var changed = false;
+        var body = new ArrayList<TacInstr>();
+        for (var bb : cfg) {
+            bb.label.ifPresent(label -> body.add(new TacInstr.Mark(label)));
+            if (!executableBlock[bb.id]) {
+                for (var loc : bb) {
+                    body.add(loc.instr);
+                }
+                continue;
+            }
+
+            // Constant φ-nodes become loads after all the φ-nodes
+            var loads = new ArrayList<TacInstr>();
+            for (var loc : bb) {
+                var instr = loc.instr;
+                if (!(instr instanceof TacInstr.Phi)) {
+                    body.addAll(loads);
+                    loads.clear();
+                }
+
+                if (instr instanceof TacInstr.CondBranch && lattice[instr.srcs[0].index] == CONSTANT) {
+                    var branch = (TacInstr.CondBranch) instr;
+                    if (ConstPropagation.taken(branch, constant[branch.cond.index])) {
+                        body.add(new TacInstr.Branch(branch.target));
+                    }
+                    changed = true;
+                } else if (isPure(instr) && lattice[instr.dsts[0].index] == CONSTANT) {
+                    var load = new TacInstr.LoadImm4(instr.dsts[0], constant[instr.dsts[0].index]);
+                    (instr instanceof TacInstr.Phi ? loads : body).add(load);
+                    changed = true;
+                } else {
+                    body.add(instr);
+                }
+            }
+            body.addAll(loads);
+        }
+
+        if (changed) {
+            replace(func, body);
+        }
+        return changed;
+    }
+
+    /**
+     * Can an instruction computing a constant be replaced by a constant load? A load proved constant never traps, as
+     * the store to the same address executed before it.
+     */
+    private static boolean isPure(TacInstr instr) {
+        return instr instanceof TacInstr.Phi || instr instanceof TacInstr.Assign || instr instanceof TacInstr.Unary
+                || instr instanceof TacInstr.Binary
+                || (instr instanceof TacInstr.Memory && ((TacInstr.Memory) instr).op == TacInstr.Memory.Op.LOAD);
+    }
+}
@@ -0,0 +1,81 @@
+package decaf.backend.opt;
+
+import decaf.backend.dataflow.CFG;
+import decaf.lowlevel.instr.Temp;
+import decaf.lowlevel.tac.TacFunc;
+import decaf.lowlevel.tac.TacInstr;
+
+import java.util.*;
+
+/**
+ * Scalar replacement of objects that never escape the function.
+ * <p>
+ * Such objects are found by a simple escape analysis (see {@link DeadCodeElimination.FreshObjects}): the temp holding
+ * the address is written only by the allocation, and it (or any address computed from it) is only loaded from,
+ * compared, or stored to at a constant offset. Since nothing else may write the object, every field read with a
+ * constant offset from the address is kept in a temp: it is set to 0 right after the allocation (the allocated memory
+ * is filled with 0), and copied at every store. The loads then become copies of these temps.
+ * <p>
+ * The stores and the allocation are kept here, and {@link DeadCodeElimination} removes them once nothing loads from
+ * the object any more. This is typically the case for closures, e.g. {@code {0, entry}} of a static method used as a
+ * value: once the loads of its kind and entry are replaced, the call on it is resolved by constant propagation, and
+ * the other cases of the call, which load the rest of the object, are unreachable.
+ */
+public class ScalarReplacement extends Pass {
+    public ScalarReplacement() {
+        super("scalar-replacement");
+    }
+
+    @Override
+    public boolean transform(TacFunc func, CFG<TacInstr> cfg) {
+        var objects = new DeadCodeElimination.FreshObjects(func);
+
+        // Temps holding the fields loaded from every object, by offset
+        var fields = new TreeMap<Temp, TreeMap<Integer, Temp>>();
+        for (var instr : func.getInstrSeq()) {
+            if (isLoad(instr) && objects.isObject(((TacInstr.Memory) instr).base)) {
+                var load = (TacInstr.Memory) instr;
+                fields.computeIfAbsent(load.base, t -> new TreeMap<>()).computeIfAbsent(load.offset,
+                        offset -> func.freshTemp());
+            }
+        }
+        if (fields.isEmpty()) {
+            return false;
+        }
+
+        var body = new ArrayList<TacInstr>();
+        for (var instr : func.getInstrSeq()) {
+            if (isAllocation(instr) && fields.containsKey(instr.dsts[0])) {
+                body.add(instr);
+                for (var field : fields.get(instr.dsts[0]).values()) {
+                    body.add(new TacInstr.LoadImm4(field, 0));
+                }
+                continue;
+            }
+
+            if (instr instanceof TacInstr.Memory && fields.containsKey(((TacInstr.Memory) instr).base)) {
+                var memory = (TacInstr.Memory) instr;
+                var field = fields.get(memory.base).get(memory.offset);
+                if (memory.op == TacInstr.Memory.Op.LOAD) {
+                    body.add(new TacInstr.Assign(memory.dst, field));
+                    continue;
+                }
+                body.add(instr);
+                if (field != null) {
+                    body.add(new TacInstr.Assign(field, memory.dst));
+                }
+                continue;
+            }
+
+            body.add(instr);
+        }
+
+        func.getInstrSeq().clear();
+        func.getInstrSeq().addAll(body);
+        return true;
+    }
+
+    private static boolean isLoad(TacInstr instr) {
+        return instr instanceof TacInstr.Memory && ((TacInstr.Memory) instr).op == TacInstr.Memory.Op.LOAD;
+    }
+}
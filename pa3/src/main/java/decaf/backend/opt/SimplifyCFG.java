@@ -0,0 +1,152 @@
+package decaf.backend.opt;
+
+import decaf.backend.dataflow.BasicBlock;
+import decaf.backend.dataflow.CFG;
+import decaf.lowlevel.label.Label;
+import decaf.lowlevel.tac.TacFunc;
+import decaf.lowlevel.tac.TacInstr;
+
+import java.util.*;
+
+/**
+ * Simplify the control flow graph:
+ * <ul>
+ *     <li>remove blocks that are unreachable from the entry, e.g. code after a return;</li>
+ *     <li>thread jumps: a jump to an empty block, which falls through to the next one, or to a block of a single jump,
+ *     goes straight to where control ends up;</li>
+ *     <li>remove jumps and conditional jumps to the very next instruction, or to the next instruction past empty
+ *     blocks;</li>
+ *     <li>remove labels that no jump refers to, so that neighbouring blocks merge. Empty blocks, e.g. those left by
+ *     splitting edges in {@link decaf.backend.dataflow.SSADestructor}, lose their labels once jumps are threaded past
+ *     them, and disappear.</li>
+ * </ul>
+ */
+public class SimplifyCFG extends Pass {
+    public SimplifyCFG() {
+        super("simplify-cfg");
+    }
+
+    @Override
+    public boolean transform(TacFunc func, CFG<TacInstr> cfg) {
+        var reachable = reachable(cfg);
+        var blocks = new ArrayList<BasicBlock<TacInstr>>();
+        for (var bb : cfg) {
+            if (reachable[bb.id] && !(bb.isEmpty() && bb.label.isEmpty())) {
+                blocks.add(bb);
+            }
+        }
+
+        var destinations = threadJumps(blocks);
+        var threaded = false;
+
+        // Thread jumps, remove jumps to the next block, and find the labels still in use
+        var body = new ArrayList<TacInstr>();
+        var targets = new TreeSet<Label>();
+        for (var i = 0; i < blocks.size(); i++) {
+            var bb = blocks.get(i);
+            bb.label.ifPresent(label -> body.add(new TacInstr.Mark(label)));
+
+            // Labels control falls through to, past empty blocks
+            var next = new TreeSet<Label>();
+            for (var j = i + 1; j < blocks.size() && blocks.get(j).label.isPresent(); j++) {
+                next.add(blocks.get(j).label.get());
+                if (!blocks.get(j).isEmpty()) {
+                    break;
+                }
+            }
+
+            for (var loc : bb) {
+                var instr = loc.instr;
+                if (instr instanceof TacInstr.Branch || instr instanceof TacInstr.CondBranch) {
+                    var target = destinations.get(instr.label);
+                    if (next.contains(target)) {
+                        continue;
+                    }
+                    if (target.compareTo(instr.label) != 0) {
+                        instr = instr instanceof TacInstr.Branch
+                                ? new TacInstr.Branch(target)
+                                : new TacInstr.CondBranch(((TacInstr.CondBranch) instr).op,
+                                ((TacInstr.CondBranch) instr).cond, target);
+                        threaded = true;
+                    }
+                }
+                if (instr.label != null && !instr.isLabel()) {
+                    targets.add(instr.label);
+                }
+                body.add(instr);
+            }
+        }
+
+        // Remove unused labels
+        var it = body.iterator();
+        while (it.hasNext()) {
+            var instr = it.next();
+            if (instr.isLabel() && !targets.contains(instr.label)) {
+                it.remove();
+            }
+        }
+
+        // Nothing is ever added, so the function changes iff anything is removed, or a jump is threaded
+        var changed = threaded || body.size() != func.getInstrSeq().size() - 1;
+        if (changed) {
+            replace(func, body);
+        }
+        return changed;
+    }
+
+    /**
+     * Find where control ends up after jumping to every label: an empty block falls through to the next block (which
+     * starts with a label), and a block of a single jump goes on to its target. In an infinite loop of such blocks, any
+     * label of the loop will do.
+     *
+     * @param blocks reachable blocks, in order
+     * @return final destination of every label
+     */
+    private static Map<Label, Label> threadJumps(List<BasicBlock<TacInstr>> blocks) {
+        var index = new TreeMap<Label, Integer>();
+        for (var i = 0; i < blocks.size(); i++) {
+            var id = i;
+            blocks.get(i).label.ifPresent(label -> index.put(label, id));
+        }
+
+        var destinations = new TreeMap<Label, Label>();
+        for (var label : index.keySet()) {
+            var target = label;
+            var seen = new TreeSet<Label>();
+            while (seen.add(target)) {
+                int i = index.get(target);
+                while (blocks.get(i).isEmpty() && i + 1 < blocks.size() && blocks.get(i + 1).label.isPresent()) {
+                    i++;
+                }
+                var bb = blocks.get(i);
+                target = bb.label.get();
+                if (bb.locs.size() == 1 && bb.getLastInstr() instanceof TacInstr.Branch) {
+                    target = bb.getLastInstr().label;
+                }
+            }
+            destinations.put(label, target);
+        }
+        return destinations;
+    }
+
+    /**
+     * Find the blocks reachable from the entry.
+     *
+     * @return reachability of every block, by block id
+     */
+    static boolean[] reachable(CFG<TacInstr> cfg) {
+        var reachable = new boolean[cfg.nodes.size()];
+        var stack = new ArrayDeque<Integer>();
+        reachable[0] = true;
+        stack.push(0);
+        while (!stack.isEmpty()) {
+            for (var next : cfg.getSucc(stack.pop())) {
+                if (!reachable[next]) {
+                    reachable[next] = true;
+                    stack.push(next);
+                }
+            }
+        }
+        return reachable;
+    }
+}
@@ -0,0 +1,506 @@
+package decaf.backend.opt;
+
+import decaf.backend.dataflow.*;
+import decaf.lowlevel.instr.Temp;
+import decaf.lowlevel.tac.TacFunc;
+import decaf.lowlevel.tac.TacInstr;
+
+import java.util.*;
+
+/**
+ * Strength reduction of induction variables (Cooper, Simpson and Vick, "Operator Strength Reduction").
+ * <p>
+ * Loops are given preheaders like in {@link LoopInvariantCodeMotion}, and the function is put in SSA form (see
+ * {@link SSABuilder}). An induction variable of a loop is then a family of temps around a φ-node of its header, each of
+ * them being a φ-node, a copy, or another one plus (or minus) a loop invariant, e.g. {@code i} and {@code i + 1} in
+ * {@code for (i = 0; ...; i = i + 1)}.
+ * <p>
+ * A product {@code i * c} of an induction variable and an invariant is an induction variable too: the family is cloned,
+ * every member multiplied by {@code c}, which only takes to multiply the initial values and the steps once in the
+ * preheader, and the product becomes a copy of the clone of {@code i}. A sum {@code base + i * c} of such a derived
+ * induction variable and an invariant is reduced the same way, so that the address of an array element becomes a
+ * pointer moved by 4 every iteration.
+ * <p>
+ * At last, the exit test of a loop comparing {@code i} to an invariant bound compares the pointer to
+ * {@code base + bound * c} instead (linear function test replacement), and {@code i} is often left for
+ * {@link DeadCodeElimination} to remove. The pointer must not overflow where {@code i} doesn't, so {@code i} must count
+ * up from a non-negative constant, {@code c} must be a positive constant, and the bound must be a small constant or the
+ * length of the array {@code base} points to. A small constant only does when {@code base} is known to be an address,
+ * that of a fresh allocation or of an array whose length is loaded: an arbitrary integer {@code x + i * 4} may well
+ * overflow.
+ */
+public class StrengthReduction extends Pass {
+    public StrengthReduction() {
+        super("strength-reduction");
+    }
+
+    /**
+     * An induction variable.
+     */
+    private static class Family {
+        final LoopNest.Loop loop;
+        final int preheader;
+
+        // definition of every member, and the instruction of the function after which it is (or would be) cloned
+        final Map<Temp, TacInstr> members = new TreeMap<>();
+        final Map<Temp, TacInstr> anchors = new TreeMap<>();
+
+        // for a derived family: the family it is derived from, how, and the member of this one for every member there
+        final Family parent;
+        final TacInstr.Binary.Op op;
+        final Temp operand;
+        final Map<Temp, Temp> clones = new TreeMap<>();
+
+        Family(LoopNest.Loop loop, int preheader, Family parent, TacInstr.Binary.Op op, Temp operand) {
+            this.loop = loop;
+            this.preheader = preheader;
+            this.parent = parent;
+            this.op = op;
+            this.operand = operand;
+        }
+    }
+
+    private TacFunc func;
+    private CFG<TacInstr> cfg;
+
+    // definition and block of every temp, including new ones, but not the arguments
+    private Map<Temp, TacInstr> defs;
+    private Map<Temp, Integer> defBlock;
+
+    // temps the length of an array is loaded from, i.e. at offset -4
+    private Set<Temp> arrays;
+
+    private Map<Temp, Family> familyOf;
+    private List<Family> derived;
+
+    // temps made copies of a member of a derived family
+    private Map<Temp, Temp> aliases;
+
+    // new instructions: φ-nodes by block, at the end of preheaders, and after some instructions of the function
+    private Map<Integer, List<TacInstr>> newPhis;
+    private Map<Integer, List<TacInstr>> newPreheaderInstrs;
+    private Map<TacInstr, List<TacInstr>> newInstrsAfter;
+    private Map<List<Object>, Temp> preheaderValues;
+
+    private Map<TacInstr, TacInstr> rewritten;
+
+    @Override
+    public boolean transform(TacFunc func, CFG<TacInstr> original) {
+        var nest = new LoopNest<>(original, new DominatorTree<>(original));
+        if (nest.loops.isEmpty()) {
+            return false;
+        }
+
+        var saved = new ArrayList<>(func.getInstrSeq());
+        LoopInvariantCodeMotion.insertPreheaders(func, original, nest);
+        new SSABuilder().build(func);
+        if (!reduce(func)) {
+            // Undo the preheaders and SSA, only keeping the temps compact
+            func.getInstrSeq().clear();
+            func.getInstrSeq().addAll(saved);
+            func.renumberTemps();
+            return false;
+        }
+        new SSADestructor().destruct(func);
+        return true;
+    }
+
+    /**
+     * Reduce the products of induction variables, in SSA form.
+     *
+     * @return true if anything is changed
+     */
+    private boolean reduce(TacFunc func) {
+        this.func = func;
+        cfg = new CFGBuilder<TacInstr>().buildFrom(func.getInstrSeq());
+        var domTree = new DominatorTree<>(cfg);
+        var nest = new LoopNest<>(cfg, domTree);
+        defs = new TreeMap<>();
+        defBlock = new TreeMap<>();
+        arrays = new TreeSet<>();
+        for (var bb : cfg) {
+            for (var loc : bb) {
+                for (var dst : loc.instr.dsts) {
+                    if (dst != null) {
+                        defs.put(dst, loc.instr);
+                        defBlock.put(dst, bb.id);
+                    }
+                }
+                if (loc.instr instanceof TacInstr.Memory) {
+                    var memory = (TacInstr.Memory) loc.instr;
+                    if (memory.op == TacInstr.Memory.Op.LOAD && memory.offset == -4) {
+                        arrays.add(memory.base);
+                    }
+                }
+            }
+        }
+
+        familyOf = new TreeMap<>();
+        derived = new ArrayList<>();
+        aliases = new TreeMap<>();
+        newPhis = new TreeMap<>();
+        newPreheaderInstrs = new TreeMap<>();
+        newInstrsAfter = new IdentityHashMap<>();
+        preheaderValues = new HashMap<>();
+        rewritten = new IdentityHashMap<>();
+
+        for (var loop : nest.loops) {
+            var preheader = preheaderOf(loop);
+            if (preheader == -1) {
+                continue;
+            }
+            for (var loc : cfg.getBlock(loop.header)) {
+                if (loc.instr instanceof TacInstr.Phi && !familyOf.containsKey(loc.instr.dsts[0])) {
+                    findFamily(loop, preheader, (TacInstr.Phi) loc.instr);
+                }
+            }
+        }
+        if (familyOf.isEmpty()) {
+            return false;
+        }
+
+        // Operands are reduced before the instructions using them
+        for (var b : domTree.reversePostorder) {
+            for (var loc : cfg.getBlock(b)) {
+                if (loc.instr instanceof TacInstr.Binary) {
+                    reduceCandidate((TacInstr.Binary) loc.instr, b);
+                }
+            }
+        }
+        for (var b : domTree.reversePostorder) {
+            for (var loc : cfg.getBlock(b)) {
+                if (loc.instr instanceof TacInstr.Binary) {
+                    replaceTest((TacInstr.Binary) loc.instr, b);
+                }
+            }
+        }
+        if (rewritten.isEmpty()) {
+            return false;
+        }
+
+        var body = new ArrayList<TacInstr>();
+        for (var bb : cfg) {
+            bb.label.ifPresent(label -> body.add(new TacInstr.Mark(label)));
+            body.addAll(newPhis.getOrDefault(bb.id, List.of()));
+            var instrs = new ArrayList<TacInstr>();
+            for (var loc : bb) {
+                instrs.add(rewritten.getOrDefault(loc.instr, loc.instr));
+                instrs.addAll(newInstrsAfter.getOrDefault(loc.instr, List.of()));
+            }
+            var extra = newPreheaderInstrs.getOrDefault(bb.id, List.of());
+            if (!instrs.isEmpty() && !instrs.get(instrs.size() - 1).isSequential()) {
+                instrs.addAll(instrs.size() - 1, extra);
+            } else {
+                instrs.addAll(extra);
+            }
+            body.addAll(instrs);
+        }
+        replace(func, body);
+        return true;
+    }
+
+    /**
+     * Find the preheader of a loop, i.e. its only predecessor from outside, which has no other successor.
+     *
+     * @return the preheader, or -1 if none
+     */
+    private int preheaderOf(LoopNest.Loop loop) {
+        var outside = -1;
+        for (var p : cfg.getPrev(loop.header)) {
+            if (!loop.contains(p)) {
+                if (outside != -1) {
+                    return -1;
+                }
+                outside = p;
+            }
+        }
+        return outside != -1 && cfg.getSucc(outside).size() == 1 ? outside : -1;
+    }
+
+    private boolean isInLoop(Temp temp, LoopNest.Loop loop) {
+        var b = defBlock.get(temp);
+        return b != null && loop.contains(b);
+    }
+
+    /**
+     * Collect the temps a φ-node of a loop header depends on in the loop, and make them a family if they are all
+     * φ-nodes, copies, or sums and differences with an invariant.
+     */
+    private void findFamily(LoopNest.Loop loop, int preheader, TacInstr.Phi phi) {
+        var family = new Family(loop, preheader, null, null, null);
+        var worklist = new ArrayDeque<Temp>();
+        worklist.add(phi.dst);
+        while (!worklist.isEmpty()) {
+            var temp = worklist.pop();
+            if (family.members.containsKey(temp)) {
+                continue;
+            }
+            if (familyOf.containsKey(temp)) {
+                return;
+            }
+            var def = defs.get(temp);
+            var inLoop = new ArrayList<Temp>();
+            for (var src : def.srcs) {
+                if (isInLoop(src, loop)) {
+                    inLoop.add(src);
+                }
+            }
+            if (def instanceof TacInstr.Binary) {
+                var binary = (TacInstr.Binary) def;
+                var ok = switch (binary.op) {
+                    case ADD -> inLoop.size() == 1;
+                    case SUB -> inLoop.size() == 1 && inLoop.get(0).compareTo(binary.lhs) == 0;
+                    default -> false;
+                };
+                if (!ok) {
+                    return;
+                }
+            } else if (def instanceof TacInstr.Assign) {
+                if (inLoop.isEmpty()) {
+                    return;
+                }
+            } else if (!(def instanceof TacInstr.Phi)) {
+                return;
+            }
+            family.members.put(temp, def);
+            family.anchors.put(temp, def);
+            worklist.addAll(inLoop);
+        }
+
+        for (var member : family.members.keySet()) {
+            familyOf.put(member, family);
+        }
+    }
+
+    /**
+     * Reduce a product of an induction variable and an invariant, or a sum of a derived one and an invariant.
+     */
+    private void reduceCandidate(TacInstr.Binary instr, int block) {
+        var op = instr.op;
+        Temp[][] orders = switch (op) {
+            case MUL, ADD -> new Temp[][]{{instr.lhs, instr.rhs}, {instr.rhs, instr.lhs}};
+            case SUB -> new Temp[][]{{instr.lhs, instr.rhs}};
+            default -> new Temp[0][];
+        };
+        for (var operands : orders) {
+            var iv = aliases.getOrDefault(operands[0], operands[0]);
+            var family = familyOf.get(iv);
+            if (family == null || !family.loop.contains(block) || isInLoop(operands[1], family.loop)
+                    || (op != TacInstr.Binary.Op.MUL && family.parent == null)) {
+                continue;
+            }
+            var reduced = derive(family, op, operands[1]);
+            var member = reduced.clones.get(iv);
+            rewritten.put(instr, new TacInstr.Assign(instr.dst, member));
+            aliases.put(instr.dst, member);
+            return;
+        }
+    }
+
+    /**
+     * Derive a family by applying an operation with an invariant to all members of another one.
+     */
+    private Family derive(Family family, TacInstr.Binary.Op op, Temp operand) {
+        for (var other : derived) {
+            if (other.parent == family && other.op == op && other.operand.compareTo(operand) == 0) {
+                return other;
+            }
+        }
+
+        var result = new Family(family.loop, family.preheader, family, op, operand);
+        for (var member : family.members.keySet()) {
+            result.clones.put(member, func.freshTemp());
+        }
+        for (var entry : family.members.entrySet()) {
+            var member = entry.getKey();
+            var def = entry.getValue();
+            var clone = result.clones.get(member);
+            TacInstr instr;
+            if (def instanceof TacInstr.Phi) {
+                var srcs = new Temp[def.srcs.length];
+                for (var i = 0; i < srcs.length; i++) {
+                    var src = def.srcs[i];
+                    srcs[i] = family.members.containsKey(src) ? result.clones.get(src)
+                            : preheaderValue(family.preheader, op, src, operand);
+                }
+                instr = new TacInstr.Phi(clone, srcs, ((TacInstr.Phi) def).from);
+                newPhis.computeIfAbsent(defBlock.get(member), k -> new ArrayList<>()).add(instr);
+            } else {
+                if (def instanceof TacInstr.Assign) {
+                    instr = new TacInstr.Assign(clone, result.clones.get(def.srcs[0]));
+                } else {
+                    // (x + c) * k = x * k + c * k, and (x + c) + k = (x + k) + c
+                    var binary = (TacInstr.Binary) def;
+                    var iv = family.members.containsKey(binary.lhs) ? binary.lhs : binary.rhs;
+                    var step = iv == binary.lhs ? binary.rhs : binary.lhs;
+                    if (op == TacInstr.Binary.Op.MUL) {
+                        step = preheaderValue(family.preheader, op, step, operand);
+                    }
+                    instr = new TacInstr.Binary(binary.op, clone, result.clones.get(iv), step);
+                }
+                newInstrsAfter.computeIfAbsent(family.anchors.get(member), k -> new ArrayList<>()).add(instr);
+            }
+            result.members.put(clone, instr);
+            result.anchors.put(clone, family.anchors.get(member));
+            defs.put(clone, instr);
+            defBlock.put(clone, defBlock.get(member));
+            familyOf.put(clone, result);
+        }
+        derived.add(result);
+        return result;
+    }
+
+    /**
+     * Compute an operation of two invariants at the end of a preheader, once.
+     */
+    private Temp preheaderValue(int preheader, TacInstr.Binary.Op op, Temp lhs, Temp rhs) {
+        var key = List.<Object>of(preheader, op, lhs.index, rhs.index);
+        var value = preheaderValues.get(key);
+        if (value == null) {
+            value = func.freshTemp();
+            newPreheaderInstrs.computeIfAbsent(preheader, k -> new ArrayList<>())
+                    .add(new TacInstr.Binary(op, value, lhs, rhs));
+            defBlock.put(value, preheader);
+            preheaderValues.put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Replace the exit test of a loop on an induction variable by a test on a pointer derived from it.
+     */
+    private void replaceTest(TacInstr.Binary instr, int block) {
+        var last = cfg.getBlock(block).getLastInstr();
+        if (!(last instanceof TacInstr.CondBranch) || ((TacInstr.CondBranch) last).cond.compareTo(instr.dst) != 0) {
+            return;
+        }
+        var branch = (TacInstr.CondBranch) last;
+
+        for (var lhs : new boolean[]{true, false}) {
+            // Only "i < bound" and "i <= bound", where the loop is left once false
+            var op = instr.op;
+            if (lhs ? op != TacInstr.Binary.Op.LES && op != TacInstr.Binary.Op.LEQ
+                    : op != TacInstr.Binary.Op.GTR && op != TacInstr.Binary.Op.GEQ) {
+                continue;
+            }
+            var iv = lhs ? instr.lhs : instr.rhs;
+            var bound = lhs ? instr.rhs : instr.lhs;
+            var family = familyOf.get(iv);
+            if (family == null || family.parent != null || family.loop.header != block
+                    || isInLoop(bound, family.loop) || !countsUp(family)
+                    || (branch.op == TacInstr.CondBranch.Op.BEQZ) == jumpsInto(branch, family.loop)) {
+                continue;
+            }
+            for (var scaled : derived) {
+                if (scaled.parent != family || scaled.op != TacInstr.Binary.Op.MUL) {
+                    continue;
+                }
+                var factor = constantOf(scaled.operand);
+                if (factor == null || factor <= 0) {
+                    continue;
+                }
+                for (var pointer : derived) {
+                    if (pointer.parent != scaled || pointer.op != TacInstr.Binary.Op.ADD
+                            || !isSafeBound(bound, factor, pointer.operand)) {
+                        continue;
+                    }
+                    var offset = preheaderValue(family.preheader, TacInstr.Binary.Op.MUL, bound, scaled.operand);
+                    var end = preheaderValue(family.preheader, TacInstr.Binary.Op.ADD, pointer.operand, offset);
+                    var current = pointer.clones.get(scaled.clones.get(iv));
+                    rewritten.put(instr, lhs ? new TacInstr.Binary(instr.op, instr.dst, current, end)
+                            : new TacInstr.Binary(instr.op, instr.dst, end, current));
+                    return;
+                }
+            }
+        }
+    }
+
+    private boolean jumpsInto(TacInstr.CondBranch branch, LoopNest.Loop loop) {
+        for (var b : loop.blocks) {
+            var label = cfg.getBlock(b).label;
+            if (label.isPresent() && label.get().compareTo(branch.target) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Does a family start from non-negative constants, and only add small positive constants?
+     */
+    private boolean countsUp(Family family) {
+        for (var def : family.members.values()) {
+            if (def instanceof TacInstr.Phi) {
+                for (var src : def.srcs) {
+                    if (!family.members.containsKey(src)) {
+                        var value = constantOf(src);
+                        if (value == null || value < 0) {
+                            return false;
+                        }
+                    }
+                }
+            } else if (def instanceof TacInstr.Binary) {
+                var binary = (TacInstr.Binary) def;
+                var step = family.members.containsKey(binary.lhs) ? binary.rhs : binary.lhs;
+                var value = constantOf(step);
+                if (binary.op != TacInstr.Binary.Op.ADD || value == null || value <= 0 || value > Short.MAX_VALUE) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Can {@code base + bound * factor}, or a bit more, be computed without overflow? True if the bound is the length of
+     * the array {@code base} points to, or a small enough constant and {@code base} is an address.
+     */
+    private boolean isSafeBound(Temp bound, int factor, Temp base) {
+        var value = constantOf(bound);
+        if (value != null) {
+            return value >= 0 && (long) value * factor <= Short.MAX_VALUE && isAddress(base);
+        }
+        var def = defs.get(bound);
+        if (def instanceof TacInstr.Memory) {
+            var load = (TacInstr.Memory) def;
+            return load.op == TacInstr.Memory.Op.LOAD && load.base.compareTo(base) == 0 && load.offset == -4;
+        }
+        return false;
+    }
+
+    /**
+     * Is a temp known to hold an address: the result of an allocation, or an array whose length is loaded? Copies of
+     * an address, and an address plus a small constant (e.g. the array {@code allocate(size) + 4}) are addresses too.
+     */
+    private boolean isAddress(Temp temp) {
+        while (true) {
+            var def = defs.get(temp);
+            if (arrays.contains(temp) || (def != null && isAllocation(def))) {
+                return true;
+            }
+            if (def instanceof TacInstr.Assign) {
+                temp = ((TacInstr.Assign) def).src;
+            } else if (def instanceof TacInstr.Binary && ((TacInstr.Binary) def).op == TacInstr.Binary.Op.ADD) {
+                var binary = (TacInstr.Binary) def;
+                var value = constantOf(binary.rhs);
+                if (value == null || value < 0 || value > Short.MAX_VALUE) {
+                    return false;
+                }
+                temp = binary.lhs;
+            } else {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Find the constant a temp is loaded with, possibly through copies.
+     */
+    private Integer constantOf(Temp temp) {
+        var def = defs.get(temp);
+        while (def instanceof TacInstr.Assign) {
+            def = defs.get(((TacInstr.Assign) def).src);
+        }
+        return def instanceof TacInstr.LoadImm4 ? ((TacInstr.LoadImm4) def).value : null;
+    }
+}
@@ -1,6 +1,8 @@
 package decaf.driver;
 
+import decaf.backend.opt.Inliner;
 import decaf.lowlevel.log.Log;
+import decaf.lowlevel.tac.SimulatorOptions;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.io.FilenameUtils;
@@ -48,12 +50,32 @@ public class Config {
      */
     public final Target target;
 
-    private Config(FileInputStream source, Path sourcePath, OutputStream output, Path dstPath, Target target) {
+    /**
+     * Options of the TAC simulator (PA3, PA4).
+     */
+    public final SimulatorOptions simulatorOptions;
+
+    /**
+     * Optimization level (PA4, PA5): 0 for no optimization (the default), 1 for cheap optimizations, 2 for all
+     * optimizations.
+     */
+    public final int optLevel;
+
+    /**
+     * Maximum number of instructions of a function inlined at every call site (PA4, PA5, at optimization level 2).
+     */
+    public final int inlineBudget;
+
+    private Config(FileInputStream source, Path sourcePath, OutputStream output, Path dstPath, Target target,
+                   SimulatorOptions simulatorOptions, int optLevel, int inlineBudget) {
         this.source = source;
         this.sourcePath = sourcePath;
         this.output = output;
         this.dstPath = dstPath;
         this.target = target;
+        this.simulatorOptions = simulatorOptions;
+        this.optLevel = optLevel;
+        this.inlineBudget = inlineBudget;
     }
 
     /**
@@ -119,7 +141,70 @@ public class Config {
             }
         }
 
-        return new Config(source, sourcePath, output, dstPath, target);
+        var simulatorOptions = SimulatorOptions.builder()
+                .stats(cli.hasOption(OptParser.SIM_STATS))
+                .profile(cli.hasOption(OptParser.SIM_PROFILE))
+                .gc(cli.hasOption(OptParser.SIM_GC))
+                .interactive(cli.hasOption(OptParser.SIM_INTERACTIVE));
+        // For every limit, 0 means unbounded
+        if (cli.hasOption(OptParser.SIM_MAX_INSTRUCTIONS)) {
+            simulatorOptions.maxInstructions(parseNonNegative(cli.getOptionValue(OptParser.SIM_MAX_INSTRUCTIONS)));
+        }
+        if (cli.hasOption(OptParser.SIM_TIME_LIMIT)) {
+            simulatorOptions.timeLimit(parseNonNegative(cli.getOptionValue(OptParser.SIM_TIME_LIMIT)));
+        }
+        if (cli.hasOption(OptParser.SIM_HEAP_LIMIT)) {
+            simulatorOptions.heapLimit(parseNonNegative(cli.getOptionValue(OptParser.SIM_HEAP_LIMIT)));
+        }
+
+        var optLevel = 0;
+        if (cli.hasOption(OptParser.OPT_LEVEL)) {
+            optLevel = parseOptLevel(cli.getOptionValue(OptParser.OPT_LEVEL));
+        }
+
+        var inlineBudget = Inliner.DEFAULT_BUDGET;
+        if (cli.hasOption(OptParser.INLINE_BUDGET)) {
+            inlineBudget = (int) Math.min(parseNonNegative(cli.getOptionValue(OptParser.INLINE_BUDGET)),
+                    Integer.MAX_VALUE);
+        }
+
+        return new Config(source, sourcePath, output, dstPath, target, simulatorOptions.build(), optLevel,
+                inlineBudget);
+    }
+
+    /**
+     * Parse optimization level from string, see {@link #optLevel}.
+     *
+     * @param level string representation of the level
+     * @return level, 0, 1 or 2
+     * @throws ParseException if input is invalid
+     */
+    private static int parseOptLevel(String level) throws ParseException {
+        return switch (level) {
+            case "0" -> 0;
+            case "1" -> 1;
+            case "2" -> 2;
+            default -> throw new ParseException(String.format("Invalid optimization level: '%s'", level));
+        };
+    }
+
+    /**
+     * Parse a non-negative integer from string.
+     *
+     * @param number string representation of the integer
+     * @return integer
+     * @throws ParseException if input is invalid
+     */
+    private static long parseNonNegative(String number) throws ParseException {
+        try {
+            var value = Long.parseLong(number);
+            if (value >= 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new ParseException(String.format("Invalid non-negative integer: '%s'", number));
     }
 
     /**
@@ -62,6 +62,82 @@ public class OptParser {
             .desc("also dump log to a file")
             .build();
 
+    static final String OPT_LEVEL = "O";
+    final Option optLevel = Option
+            .builder(OPT_LEVEL)
+            .hasArg()
+            .argName("level")
+            .desc("optimization level of PA4 and PA5: 0, 1 or 2 (default 0), e.g. -O2")
+            .build();
+
+    static final String INLINE_BUDGET = "inline-budget";
+    final Option inlineBudget = Option
+            .builder(null)
+            .longOpt(INLINE_BUDGET)
+            .hasArg()
+            .argName("number")
+            .desc("maximum number of instructions of a function inlined at every call site at -O2, 0 to disable inlining (default 20)")
+            .build();
+
+    static final String SIM_MAX_INSTRUCTIONS = "sim-max-instr";
+    final Option simMaxInstructions = Option
+            .builder(null)
+            .longOpt(SIM_MAX_INSTRUCTIONS)
+            .hasArg()
+            .argName("number")
+            .desc("maximum number of instructions the simulator executes, 0 for unbounded (default 100000)")
+            .build();
+
+    static final String SIM_TIME_LIMIT = "sim-time-limit";
+    final Option simTimeLimit = Option
+            .builder(null)
+            .longOpt(SIM_TIME_LIMIT)
+            .hasArg()
+            .argName("ms")
+            .desc("maximum wall-clock time the simulator executes in milliseconds, 0 for unbounded (default 0)")
+            .build();
+
+    static final String SIM_HEAP_LIMIT = "sim-heap-limit";
+    final Option simHeapLimit = Option
+            .builder(null)
+            .longOpt(SIM_HEAP_LIMIT)
+            .hasArg()
+            .argName("bytes")
+            .desc("maximum size of the heap of the simulator in bytes, 0 for unbounded (default 0)")
+            .build();
+
+    static final String SIM_GC = "sim-gc";
+    final Option simGc = Option
+            .builder(null)
+            .longOpt(SIM_GC)
+            .hasArg(false)
+            .desc("reclaim unreachable memory in the simulator with a garbage collector (disables the JIT)")
+            .build();
+
+    static final String SIM_STATS = "sim-stats";
+    final Option simStats = Option
+            .builder(null)
+            .longOpt(SIM_STATS)
+            .hasArg(false)
+            .desc("print execution statistics of the simulator to stderr")
+            .build();
+
+    static final String SIM_PROFILE = "sim-profile";
+    final Option simProfile = Option
+            .builder(null)
+            .longOpt(SIM_PROFILE)
+            .hasArg(false)
+            .desc("write an execution profile of the simulator next to the TAC output, as <basename>.profile")
+            .build();
+
+    static final String SIM_INTERACTIVE = "sim-interactive";
+    final Option simInteractive = Option
+            .builder(null)
+            .longOpt(SIM_INTERACTIVE)
+            .hasArg(false)
+            .desc("flush the output of the simulator after every line (default only at exit)")
+            .build();
+
     static final String HELP = "h";
     final Option help = Option
             .builder(HELP)
@@ -82,6 +158,17 @@ public class OptParser {
         options.addOption(logLevel);
         options.addOption(logFile);
         options.addOption(logColorful);
+        // optimizer related
+        options.addOption(optLevel);
+        options.addOption(inlineBudget);
+        // simulator related
+        options.addOption(simMaxInstructions);
+        options.addOption(simTimeLimit);
+        options.addOption(simHeapLimit);
+        options.addOption(simGc);
+        options.addOption(simStats);
+        options.addOption(simProfile);
+        options.addOption(simInteractive);
     }
 
     public void printHelp() {
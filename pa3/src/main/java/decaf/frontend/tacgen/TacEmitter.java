@@ -5,6 +5,7 @@ import decaf.frontend.tree.Tree;
 import decaf.frontend.tree.Visitor;
 import decaf.frontend.type.BuiltInType;
 import decaf.lowlevel.instr.Temp;
+import decaf.lowlevel.label.FuncLabel;
 import decaf.lowlevel.label.Label;
 import decaf.lowlevel.tac.FuncVisitor;
 import decaf.lowlevel.tac.Intrinsic;
@@ -247,7 +248,6 @@ public interface TacEmitter extends Visitor<FuncVisitor> {
 
     @Override
     default void visitVarSel(Tree.VarSel expr, FuncVisitor mv) {
-        var zero = mv.visitLoad(0);
         var one = mv.visitLoad(1);
         var three = mv.visitLoad(3);
         var eight = mv.visitLoad(8);
@@ -263,10 +263,7 @@ public interface TacEmitter extends Visitor<FuncVisitor> {
         }
         if (expr.isMethodName) {
             if (expr.isStatic) {
-                var tmp = mv.visitIntrinsicCall(Intrinsic.ALLOCATE, true, eight);
-                mv.visitStoreTo(tmp, zero);
-                mv.visitStoreTo(tmp, 4, mv.visitFuncEntry(expr.calleeName, expr.name));
-                expr.val = tmp;
+                expr.val = mv.visitStaticClosure(expr.calleeName, expr.name);
             } else {
                 var tmp = mv.visitIntrinsicCall(Intrinsic.ALLOCATE, true, twelve);
                 mv.visitStoreTo(tmp, one);
@@ -314,6 +311,14 @@ public interface TacEmitter extends Visitor<FuncVisitor> {
 
     @Override
     default void visitCall(Tree.Call expr, FuncVisitor mv) {
+        if (expr.callee instanceof Tree.VarSel) {
+            var callee = (Tree.VarSel) expr.callee;
+            if (callee.isArrayLength || callee.isMethodName) {
+                emitKnownCall(expr, callee, mv);
+                return;
+            }
+        }
+
         expr.callee.accept(this, mv);
 
         expr.args.forEach(arg -> arg.accept(this, mv));
@@ -369,7 +374,10 @@ public interface TacEmitter extends Visitor<FuncVisitor> {
         mv.visitBranch(exit);
         mv.visitLabel(notLambda);
         //3Array
-        mv.visitAssign(expr.val, mv.visitLoadFrom(entry, -4));
+        var length = mv.visitLoadFrom(entry, -4);
+        if (!expr.type.isVoidType()) {
+            mv.visitAssign(expr.val, length);
+        }
         mv.visitLabel(exit);
     }
 
@@ -562,6 +570,72 @@ public interface TacEmitter extends Visitor<FuncVisitor> {
         mv.visitLabel(exit);
     }
 
+    /**
+     * Emit code for a call whose callee is known at compile time, without building a closure for it:
+     * <ul>
+     *     <li>{@code array.length()} loads the length of the array;</li>
+     *     <li>a static method is called directly;</li>
+     *     <li>a member method is called through the virtual table of the receiver.</li>
+     * </ul>
+     * <p>
+     * Pseudo code of a member method call:
+     * <pre>
+     *     object = do receiver
+     *     vtbl = *(object + 0)
+     *     entry = *(vtbl + offset of method)
+     *     arg_1 = do argument 1
+     *     ...
+     *     parm object
+     *     parm arg_1
+     *     ...
+     *     ret = call entry
+     * </pre>
+     * As through a closure, the receiver and its virtual table are read before the arguments are evaluated. If the
+     * member method is overridden by no subclass (see {@link FuncVisitor#resolveMemberMethod}), it is called directly.
+     *
+     * @param expr   call
+     * @param callee callee, either a method name or the {@code length} of an array
+     * @param mv     current method visitor
+     */
+    private void emitKnownCall(Tree.Call expr, Tree.VarSel callee, FuncVisitor mv) {
+        if (callee.isArrayLength) {
+            var array = callee.receiver.get();
+            array.accept(this, mv);
+            expr.val = mv.visitLoadFrom(array.val, -4);
+            return;
+        }
+
+        Temp object = null;
+        Temp entry = null;
+        Optional<FuncLabel> target = Optional.empty();
+        if (!callee.isStatic) {
+            var receiver = callee.receiver.get();
+            receiver.accept(this, mv);
+            object = receiver.val;
+            target = mv.resolveMemberMethod(callee.calleeName, callee.name);
+            if (target.isPresent()) {
+                // Only one method may be called, but a null object must still fail here
+                mv.visitLoadFrom(object);
+            } else {
+                entry = mv.visitFuncEntry(object, callee.calleeName, callee.name);
+            }
+        }
+
+        expr.args.forEach(arg -> arg.accept(this, mv));
+        var temps = new ArrayList<Temp>();
+        expr.args.forEach(arg -> temps.add(arg.val));
+        var needReturn = !expr.type.isVoidType();
+        if (callee.isStatic) {
+            expr.val = mv.visitStaticCall(callee.calleeName, callee.name, temps, needReturn);
+        } else if (target.isPresent()) {
+            temps.add(0, object);
+            expr.val = mv.visitCall(target.get(), temps, needReturn);
+        } else {
+            mv.visitParm(object);
+            expr.val = mv.visitCall(entry, temps, needReturn);
+        }
+    }
+
     /**
      * Emit code for initializing a new array.
      * <p>
@@ -25,7 +25,7 @@ public class TacGen extends Phase<Tree.TopLevel, TacProg> implements TacEmitter
         for (var clazz : tree.classes) {
             info.add(clazz.symbol.getInfo());
         }
-        var pw = new ProgramWriter(info);
+        var pw = new ProgramWriter(info, config.optLevel >= 2);
 
         // Step 1: create virtual tables.
         pw.visitVTables();
@@ -81,8 +81,15 @@ public class TacGen extends Phase<Tree.TopLevel, TacProg> implements TacEmitter
             }
 
             // and then execute it using our simulator.
-            var simulator = new Simulator(System.in, config.output);
-            simulator.execute(program);
+            var simulator = new Simulator(System.in, config.output, config.simulatorOptions);
+            try {
+                simulator.execute(program);
+            } finally {
+                // Also when the program fails, e.g. out of its budget, which is when the counters are most needed
+                simulator.getStats().ifPresent(stats -> stats.printTo(new PrintWriter(System.err)));
+                simulator.getProfile().ifPresent(profile ->
+                        profile.writeTo(config.dstPath.resolve(config.getSourceBaseName() + ".profile")));
+            }
         }
     }
 }
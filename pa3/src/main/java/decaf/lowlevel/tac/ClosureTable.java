@@ -0,0 +1,68 @@
+package decaf.lowlevel.tac;
+
+import decaf.lowlevel.label.FuncLabel;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The table of closures of static methods. A static method used as a value is not given a fresh closure, but the
+ * address of its closure here, which is shared by all its uses (see {@link FuncVisitor#visitStaticClosure}), and never
+ * written.
+ * <p>
+ * It is laid out and addressed like a virtual table (see {@link VTable}), with no parent and no member methods: after
+ * the parent and the name, every closure takes 8 bytes, i.e. its kind (always 0, for a static method) and its entry.
+ */
+public class ClosureTable extends VTable {
+    /**
+     * Entries of all closures, in order.
+     */
+    List<FuncLabel> entries = new ArrayList<>();
+
+    ClosureTable(String name) {
+        super(name, Optional.empty());
+    }
+
+    public List<FuncLabel> getEntries() {
+        return entries;
+    }
+
+    @Override
+    public int getSize() {
+        return 8 + 8 * entries.size();
+    }
+
+    /**
+     * Offset of a closure.
+     *
+     * @param index index of the closure, see {@link #getEntries}
+     * @return offset in bytes
+     */
+    public int offsetOf(int index) {
+        return 8 + 8 * index;
+    }
+
+    /**
+     * Is the word at some offset the kind of a closure?
+     *
+     * @param offset offset in bytes
+     * @return true if so
+     */
+    public boolean isKind(int offset) {
+        return offset >= 8 && offset < getSize() && (offset - 8) % 8 == 0;
+    }
+
+    @Override
+    public void printTo(PrintWriter pw) {
+        pw.println(label.prettyString() + ":");
+        pw.println("    NULL");
+        pw.println("    \"" + className + "\"");
+        for (var l : entries) {
+            pw.println("    0");
+            pw.println("    " + l.prettyString());
+        }
+        pw.println();
+    }
+}
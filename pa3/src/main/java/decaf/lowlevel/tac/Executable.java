@@ -0,0 +1,121 @@
+package decaf.lowlevel.tac;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A TAC program linked for the simulator, see {@link Linker} and {@link Simulator#prepare}.
+ * <p>
+ * Every label, virtual table, constant string and callee has been resolved to an integer, so that the simulator never
+ * looks anything up by name at run time.
+ * <p>
+ * An executable image is immutable (except for the cache of compiled code, which is safe to share), so one image can
+ * be executed many times, by several simulators in parallel.
+ */
+public final class Executable {
+    /**
+     * Instruction memory. Instruction at address {@code pc} takes {@code code[pc * WIDTH ... pc * WIDTH + WIDTH - 1]},
+     * see {@link Opcodes}.
+     */
+    final int[] code;
+
+    /**
+     * Opcode to dispatch on when the interpreter executes the instruction at address {@code pc}: either the opcode of
+     * the instruction in {@link #code}, or a superinstruction starting from it, see {@link Linker#fuse}.
+     */
+    final int[] dispatch;
+
+    /**
+     * Functions, indexed by function id.
+     */
+    final TacFunc[] funcs;
+
+    /**
+     * Address of the entry instruction of every function, indexed by function id.
+     */
+    final int[] funcEntry;
+
+    /**
+     * Number of temps used by every function, indexed by function id.
+     */
+    final int[] funcTemps;
+
+    /**
+     * Look up a function id by the address of its entry instruction, or -1 if no function starts there.
+     */
+    final int[] funcAt;
+
+    /**
+     * Look up the id of the function that an instruction belongs to, by the address of the instruction.
+     */
+    final int[] funcOf;
+
+    /**
+     * Id of the main function.
+     */
+    final int main;
+
+    /**
+     * Memory addresses of virtual tables, in the order they must be allocated.
+     */
+    final int[] vtableAddr;
+
+    /**
+     * Contents of virtual tables, i.e. parent address, class name and member method addresses.
+     */
+    final int[][] vtableWords;
+
+    /**
+     * Constant strings. The index of a string in this list is its index in the string pool.
+     */
+    final List<String> strings;
+
+    /**
+     * Look up the index of a constant string.
+     */
+    final Map<String, Integer> stringIndex;
+
+    /**
+     * Compiled code of every function, shared by all simulators executing this image, see {@link Jit}.
+     */
+    final AtomicReferenceArray<Jit.Code> compiled;
+
+    /**
+     * Class loader of the compiled code. Nothing else refers to it, so the compiled classes are unloaded with this image.
+     */
+    final Jit.Loader loader = new Jit.Loader();
+
+    Executable(int[] code, int[] dispatch, TacFunc[] funcs, int[] funcEntry, int[] funcTemps, int[] funcAt, int[] funcOf, int main,
+               int[] vtableAddr, int[][] vtableWords, List<String> strings) {
+        this.code = code;
+        this.dispatch = dispatch;
+        this.funcs = funcs;
+        this.funcEntry = funcEntry;
+        this.funcTemps = funcTemps;
+        this.funcAt = funcAt;
+        this.funcOf = funcOf;
+        this.main = main;
+        this.vtableAddr = vtableAddr;
+        this.vtableWords = vtableWords;
+        this.strings = Collections.unmodifiableList(strings);
+
+        var stringIndex = new HashMap<String, Integer>();
+        for (var i = 0; i < strings.size(); i++) {
+            stringIndex.put(strings.get(i), i);
+        }
+        this.stringIndex = Collections.unmodifiableMap(stringIndex);
+        this.compiled = new AtomicReferenceArray<>(funcs.length);
+    }
+
+    /**
+     * Get number of instructions.
+     *
+     * @return number of instructions
+     */
+    int size() {
+        return code.length / Opcodes.WIDTH;
+    }
+}
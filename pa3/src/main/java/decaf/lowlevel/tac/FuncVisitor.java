@@ -5,6 +5,7 @@ import decaf.lowlevel.label.FuncLabel;
 import decaf.lowlevel.label.Label;
 
 import java.util.List;
+import java.util.Optional;
 
 /**
  * Append instructions to a TAC function.
@@ -190,6 +191,9 @@ public class FuncVisitor {
 
     /**
      * Append instructions to invoke a member method.
+     * <p>
+     * If the method is monomorphic (see {@link #resolveMemberMethod}), it is called directly. Its virtual table is still
+     * loaded, so that calling a method of a null object fails as usual.
      *
      * @param object     object ref temp
      * @param clazz      class name
@@ -201,7 +205,11 @@ public class FuncVisitor {
     public Temp visitMemberCall(Temp object, String clazz, String method, List<Temp> args, boolean needReturn) {
         Temp temp = null;
         var vtbl = visitLoadFrom(object);
-        var entry = visitLoadFrom(vtbl, ctx.getOffset(clazz, method));
+        var target = resolveMemberMethod(clazz, method);
+        Temp entry = null;
+        if (target.isEmpty()) {
+            entry = visitLoadFrom(vtbl, ctx.getOffset(clazz, method));
+        }
 
         func.add(new TacInstr.Parm(object));
         for (var arg : args) {
@@ -209,13 +217,26 @@ public class FuncVisitor {
         }
         if (needReturn) {
             temp = freshTemp();
-            func.add(new TacInstr.IndirectCall(temp, entry));
+            func.add(target.isPresent() ? new TacInstr.DirectCall(temp, target.get())
+                    : new TacInstr.IndirectCall(temp, entry));
         } else {
-            func.add(new TacInstr.IndirectCall(entry));
+            func.add(target.isPresent() ? new TacInstr.DirectCall(target.get()) : new TacInstr.IndirectCall(entry));
         }
         return temp;
     }
 
+    /**
+     * Find the only implementation of a member method that may be called on an object of a class, i.e. the method is
+     * overridden by no subclass. Methods are only resolved so if the program writer is asked to devirtualize calls.
+     *
+     * @param clazz  class name
+     * @param method member method name
+     * @return label of the implementation, if it is the only one
+     */
+    public Optional<FuncLabel> resolveMemberMethod(String clazz, String method) {
+        return ctx.getMonomorphicLabel(clazz, method);
+    }
+
     /**
      * @see #visitMemberCall(Temp, String, String, List, boolean)
      */
@@ -294,6 +315,18 @@ public class FuncVisitor {
         var vtbl = visitLoadVTable("static");
         return visitLoadFrom(vtbl, ctx.getOffset(clazz, method));
     }
+    /**
+     * Get the closure of a static method, when it is used as a value. It is not allocated, but shared by all uses: its
+     * address is in the table of closures, see {@link ClosureTable}.
+     *
+     * @param clazz  class name
+     * @param method static method name
+     * @return the address of the closure
+     */
+    public Temp visitStaticClosure(String clazz, String method) {
+        var table = visitLoadVTable(ProgramWriter.CLOSURE_TABLE);
+        return visitBinary(TacInstr.Binary.Op.ADD, table, visitLoad(ctx.getClosureOffset(clazz, method)));
+    }
     public Temp visitFuncEntry(decaf.frontend.tree.Pos pos) {
         var vtbl = visitLoadVTable("fun");
         return visitLoadFrom(vtbl, ctx.getOffset("lambda", pos.toString()));
@@ -302,6 +335,20 @@ public class FuncVisitor {
         var entry = ctx.getFuncLabel("lambda", pos.toString());
         return new FuncVisitor(entry, numArgs, ctx);
     }
+    public Temp visitCall(FuncLabel entry, List<Temp> args, boolean needReturn) {
+        Temp temp = null;
+
+        for (var arg : args) {
+            func.add(new TacInstr.Parm(arg));
+        }
+        if (needReturn) {
+            temp = freshTemp();
+            func.add(new TacInstr.DirectCall(temp, entry));
+        } else {
+            func.add(new TacInstr.DirectCall(entry));
+        }
+        return temp;
+    }
     public void visitParm(Temp arg) {
         func.add(new TacInstr.Parm(arg));
     }
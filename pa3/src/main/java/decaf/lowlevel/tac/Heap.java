@@ -0,0 +1,457 @@
+package decaf.lowlevel.tac;
+
+import java.util.Arrays;
+
+/**
+ * Simulator's heap.
+ * <p>
+ * The heap is one flat, growable address space of 4-byte words, stored as a page table of {@code int[]} pages. Next to
+ * the data, a side table (with the same paging) records for every word the id of the block that owns it, and the
+ * bounds of every block are kept in two plain arrays. In this way, null and bounds checks on every load and store take
+ * constant time and never allocate.
+ * <p>
+ * Without garbage collection, blocks are handed out contiguously and are never freed. With garbage collection, an
+ * allocation may trigger a mark-sweep collection, once as many words as the live data have been allocated since the
+ * last one, or when the heap would exceed its limit. The collector marks every block reachable from the roots (found
+ * by the simulator, see {@link Roots}) and then frees the others. Free runs of words are coalesced, and reused by
+ * later allocations on a first-fit basis, from segregated free lists for small blocks.
+ * <p>
+ * TAC is untyped: a word of an object, an array or a frame may hold an integer or an address, and an address may point
+ * into the middle of a block (e.g. array elements after the length word, or a pointer stepping over the elements). So
+ * the collector is conservative: any word that looks like an address inside an allocated block keeps that block
+ * alive. A reachable block is never freed, though an integer that happens to look like an address may keep garbage.
+ */
+final class Heap {
+    /**
+     * Address of the first block. Don't start from address 0, because 0 is reserved as the null pointer.
+     */
+    static final int BASE = 16;
+
+    private static final int PAGE_BITS = 10;
+
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    /**
+     * Blocks of at most this many words are kept in segregated free lists, larger ones in a single list.
+     */
+    private static final int SMALL_WORDS = 16;
+
+    /**
+     * Don't collect until at least this many words have been allocated since the last collection.
+     */
+    private static final int MIN_COLLECT_INTERVAL = 1 << 16;
+
+    /**
+     * Finds the roots of the heap for the garbage collector.
+     */
+    interface Roots {
+        /**
+         * Call {@link Heap#mark} on every root.
+         *
+         * @param heap the heap being collected
+         */
+        void scan(Heap heap);
+    }
+
+    /**
+     * Roots, or null if garbage collection is disabled.
+     */
+    private final Roots roots;
+
+    /**
+     * Maximum number of words, or {@link Long#MAX_VALUE} if unbounded.
+     */
+    private final long limit;
+
+    /**
+     * Data pages.
+     */
+    private int[][] data = new int[16][];
+
+    /**
+     * Owner pages: id of the block owning each word, or 0 if no block owns it.
+     */
+    private int[][] owner = new int[16][];
+
+    /**
+     * Number of pages in use.
+     */
+    private int pages = 0;
+
+    /**
+     * Next free word.
+     */
+    private int top = BASE / 4;
+
+    /**
+     * Bounds of every block, in words: {@code [blockStart[id], blockEnd[id])}. Block ids start from 1.
+     */
+    private int[] blockStart = new int[64];
+    private int[] blockEnd = new int[64];
+
+    /**
+     * Largest block id in use.
+     */
+    private int blocks = 0;
+
+    /**
+     * Ids of freed blocks, to be reused. The start of a freed block is set to -1.
+     */
+    private int[] freeIds = new int[64];
+    private int freeIdCount = 0;
+
+    /**
+     * Free runs of words below {@link #top}: those of {@code n <= SMALL_WORDS} words start at
+     * {@code small[n][0 ... smallCount[n] - 1]}, larger ones at {@code largeStart[k]} with {@code largeLength[k]}
+     * words.
+     */
+    private final int[][] small = new int[SMALL_WORDS + 1][8];
+    private final int[] smallCount = new int[SMALL_WORDS + 1];
+    private int[] largeStart = new int[8];
+    private int[] largeLength = new int[8];
+    private int largeCount = 0;
+
+    /**
+     * Marking state: the mark bit of every block, and the blocks marked but not yet scanned.
+     */
+    private boolean[] marked = new boolean[64];
+    private int[] markStack = new int[64];
+    private int markTop = 0;
+
+    /**
+     * Number of words in allocated blocks.
+     */
+    private long used = 0;
+
+    /**
+     * Number of words allocated since the last collection, and how many to allocate before the next one.
+     */
+    private long allocatedSinceCollection = 0;
+    private long collectAfter = MIN_COLLECT_INTERVAL;
+
+    /**
+     * Statistics: number of collections, number of blocks and bytes freed by them, total time spent in them (in
+     * nanoseconds), and the largest size the heap has grown to (in bytes).
+     */
+    long collections = 0;
+    long collectedBlocks = 0;
+    long collectedBytes = 0;
+    long collectionTime = 0;
+    long peakSize = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param limit maximum size in bytes, or {@link SimulatorOptions#UNBOUNDED}
+     * @param roots roots of the garbage collector, or null to disable garbage collection
+     */
+    Heap(long limit, Roots roots) {
+        this.limit = limit == SimulatorOptions.UNBOUNDED ? Long.MAX_VALUE : limit / 4;
+        this.roots = roots;
+    }
+
+    /**
+     * Allocate memory in bytes. The allocated memory is filled with 0.
+     *
+     * @param size the size in bytes.
+     * @return the starting address of the allocated memory block
+     */
+    int alloc(int size) {
+        if (size < 0) {
+            throw new Simulator.Error("Memory allocation error: negative size " + size);
+        }
+
+        var words = (int) ((size + 3L) / 4);
+        if (roots != null && allocatedSinceCollection + words > collectAfter) {
+            collect();
+        }
+
+        var start = take(words);
+        if (start < 0) {
+            if (roots != null && top + words - BASE / 4 > limit) {
+                collect();
+                start = take(words);
+            }
+            if (start < 0) {
+                start = grow(words, size);
+            }
+        }
+        var end = start + words;
+
+        int id;
+        if (freeIdCount > 0) {
+            id = freeIds[--freeIdCount];
+        } else {
+            id = ++blocks;
+            if (blocks == blockStart.length) {
+                blockStart = Arrays.copyOf(blockStart, blocks * 2);
+                blockEnd = Arrays.copyOf(blockEnd, blocks * 2);
+                marked = Arrays.copyOf(marked, blocks * 2);
+            }
+        }
+        blockStart[id] = start;
+        blockEnd[id] = end;
+
+        fill(owner, start, end, id);
+        fill(data, start, end, 0);
+        used += words;
+        allocatedSinceCollection += words;
+        return start * 4;
+    }
+
+    /**
+     * Take a run of words from the free lists.
+     *
+     * @param words number of words
+     * @return the first word of the run, or -1 if no free run is large enough
+     */
+    private int take(int words) {
+        if (words == 0) {
+            return -1;
+        }
+
+        for (var n = words; n <= SMALL_WORDS; n++) {
+            if (smallCount[n] > 0) {
+                var start = small[n][--smallCount[n]];
+                release(start + words, n - words);
+                return start;
+            }
+        }
+
+        for (var k = 0; k < largeCount; k++) {
+            var length = largeLength[k];
+            if (length >= words) {
+                var start = largeStart[k];
+                largeCount--;
+                largeStart[k] = largeStart[largeCount];
+                largeLength[k] = largeLength[largeCount];
+                release(start + words, length - words);
+                return start;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Put a run of words into the free lists.
+     *
+     * @param start first word
+     * @param words number of words
+     */
+    private void release(int start, int words) {
+        if (words == 0) {
+            return;
+        }
+
+        if (words <= SMALL_WORDS) {
+            var count = smallCount[words];
+            if (count == small[words].length) {
+                small[words] = Arrays.copyOf(small[words], count * 2);
+            }
+            small[words][count] = start;
+            smallCount[words] = count + 1;
+        } else {
+            if (largeCount == largeStart.length) {
+                largeStart = Arrays.copyOf(largeStart, largeCount * 2);
+                largeLength = Arrays.copyOf(largeLength, largeCount * 2);
+            }
+            largeStart[largeCount] = start;
+            largeLength[largeCount] = words;
+            largeCount++;
+        }
+    }
+
+    /**
+     * Take a run of words from the top of the heap.
+     *
+     * @param words number of words
+     * @param size  the size in bytes asked for, for error reporting
+     * @return the first word of the run
+     */
+    private int grow(int words, int size) {
+        var start = top;
+        var end = start + words;
+        if (end < start || end > Integer.MAX_VALUE / 4 || end - BASE / 4 > limit) {
+            throw new Simulator.Error("Memory allocation error: out of memory, size " + size);
+        }
+
+        ensurePages(end);
+        top = end;
+        peakSize = Math.max(peakSize, (long) (end - BASE / 4) * 4);
+        return start;
+    }
+
+    /**
+     * Mark the block that a word points into, if any, as reachable. Called on every root by {@link Roots#scan}, and
+     * on every word of every reachable block.
+     *
+     * @param value the word
+     */
+    void mark(int value) {
+        if (value <= 0 || (value & 3) != 0) {
+            return;
+        }
+
+        var w = value >>> 2;
+        if (w < BASE / 4 || w >= top) {
+            return;
+        }
+
+        var id = owner[w >>> PAGE_BITS][w & PAGE_MASK];
+        if (id != 0 && !marked[id]) {
+            marked[id] = true;
+            if (markTop == markStack.length) {
+                markStack = Arrays.copyOf(markStack, markTop * 2);
+            }
+            markStack[markTop++] = id;
+        }
+    }
+
+    /**
+     * Collect garbage: mark every block reachable from the roots, free the others, and rebuild the free lists.
+     */
+    private void collect() {
+        var begin = System.nanoTime();
+
+        // Mark
+        roots.scan(this);
+        while (markTop > 0) {
+            var id = markStack[--markTop];
+            for (var w = blockStart[id]; w < blockEnd[id]; w++) {
+                mark(data[w >>> PAGE_BITS][w & PAGE_MASK]);
+            }
+        }
+
+        // Sweep
+        for (var id = 1; id <= blocks; id++) {
+            if (blockStart[id] < 0) {
+                continue;
+            }
+            if (marked[id]) {
+                marked[id] = false;
+                continue;
+            }
+
+            var words = blockEnd[id] - blockStart[id];
+            fill(owner, blockStart[id], blockEnd[id], 0);
+            blockStart[id] = -1;
+            blockEnd[id] = -1;
+            if (freeIdCount == freeIds.length) {
+                freeIds = Arrays.copyOf(freeIds, freeIdCount * 2);
+            }
+            freeIds[freeIdCount++] = id;
+            used -= words;
+            collectedBlocks++;
+            collectedBytes += words * 4L;
+        }
+
+        // Coalesce free runs, and give the last one back to the top of the heap
+        Arrays.fill(smallCount, 0);
+        largeCount = 0;
+        var w = BASE / 4;
+        while (w < top) {
+            if (owner[w >>> PAGE_BITS][w & PAGE_MASK] != 0) {
+                w++;
+                continue;
+            }
+            var start = w;
+            while (w < top && owner[w >>> PAGE_BITS][w & PAGE_MASK] == 0) {
+                w++;
+            }
+            if (w == top) {
+                top = start;
+            } else {
+                release(start, w - start);
+            }
+        }
+
+        allocatedSinceCollection = 0;
+        collectAfter = Math.max(MIN_COLLECT_INTERVAL, used);
+        collections++;
+        collectionTime += System.nanoTime() - begin;
+    }
+
+    /**
+     * Load a word.
+     *
+     * @param base   base address
+     * @param offset offset in bytes
+     * @return the word at {@code base + offset}
+     */
+    int load(int base, int offset) {
+        var word = check(base, offset);
+        return data[word >>> PAGE_BITS][word & PAGE_MASK];
+    }
+
+    /**
+     * Store a word.
+     *
+     * @param value  the word
+     * @param base   base address
+     * @param offset offset in bytes
+     */
+    void store(int value, int base, int offset) {
+        var word = check(base, offset);
+        data[word >>> PAGE_BITS][word & PAGE_MASK] = value;
+    }
+
+    /**
+     * Check an access: the base address must point into an allocated block, and the accessed word must stay inside
+     * that same block.
+     *
+     * @return the accessed word
+     */
+    private int check(int base, int offset) {
+        if (base <= 0) {
+            throw new Simulator.Error("Null pointer exception");
+        }
+
+        if ((base & 3) != 0) {
+            throw new Simulator.Error("Base address not aligned: " + base);
+        }
+
+        if ((offset & 3) != 0) {
+            throw new Simulator.Error("Offset not aligned: " + offset);
+        }
+
+        var b = base >>> 2;
+        if (b >= top) {
+            throw new Simulator.Error(String.format("Memory access out of bound %d", base));
+        }
+
+        var id = owner[b >>> PAGE_BITS][b & PAGE_MASK];
+        var word = b + (offset >> 2);
+        if (id == 0 || word < blockStart[id] || word >= blockEnd[id]) {
+            throw new Simulator.Error(String.format("Memory access out of bound %d", base + offset));
+        }
+        return word;
+    }
+
+    /**
+     * Fill words {@code [from, to)} of a paged table with a value.
+     */
+    private static void fill(int[][] table, int from, int to, int value) {
+        for (var w = from; w < to; ) {
+            var page = w >>> PAGE_BITS;
+            var end = Math.min(to, (page + 1) << PAGE_BITS);
+            Arrays.fill(table[page], w & PAGE_MASK, ((end - 1) & PAGE_MASK) + 1, value);
+            w = end;
+        }
+    }
+
+    private void ensurePages(int words) {
+        var needed = (words + PAGE_MASK) >>> PAGE_BITS;
+        if (needed > data.length) {
+            var length = Math.max(needed, data.length * 2);
+            data = Arrays.copyOf(data, length);
+            owner = Arrays.copyOf(owner, length);
+        }
+        while (pages < needed) {
+            data[pages] = new int[PAGE_SIZE];
+            owner[pages] = new int[PAGE_SIZE];
+            pages++;
+        }
+    }
+}
@@ -0,0 +1,777 @@
+package decaf.lowlevel.tac;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Just-in-time compiler of the simulator: translate a hot function of a linked program into JVM bytecode.
+ * <p>
+ * Each compiled function is one class implementing {@link Code}, defined by the {@link Loader} of its program, so that
+ * the compiled classes are unloaded together with the program once it is no longer used. Temps become JVM locals,
+ * while the heap, calls and intrinsics go through the simulator, see {@link Runtime}. At the start of every basic block, the compiled code charges the instructions
+ * of the block to the simulator's budget. If the budget would be exceeded inside the block, the compiled code falls
+ * back to the interpreter, which resumes from that very block. Thus, a program behaves the same, no matter which of
+ * its functions are compiled.
+ * <p>
+ * Basic blocks end after branches, returns and calls. Any basic block is an entry of the compiled code, so that a
+ * long-running loop can switch from the interpreter to the compiled code on a back edge (on-stack replacement).
+ */
+final class Jit {
+    /**
+     * Compile a function when it has been invoked this many times.
+     */
+    static final int INVOKE_THRESHOLD = 500;
+
+    /**
+     * Compile a function when its loops have jumped back this many times.
+     */
+    static final int BACKEDGE_THRESHOLD = 2000;
+
+    /**
+     * Maximum nesting depth of compiled code on the JVM stack. Deeper calls stay in the interpreter, which does not
+     * consume the JVM stack.
+     */
+    static final int MAX_DEPTH = 256;
+
+    /**
+     * Compiled code of a function.
+     * <p>
+     * Compiled classes are in another runtime package than this one, as they are defined by another class loader, so
+     * they only access public classes and members. This interface and {@link Runtime} are thus public, which still
+     * doesn't make them visible out of this package, as {@link Jit} itself isn't.
+     */
+    public interface Code {
+        /**
+         * Run the compiled function.
+         *
+         * @param rt   entries of the simulator
+         * @param regs where to load the initial values of temps
+         * @param base temp {@code i} is initialized as {@code regs[base + i]}
+         * @param pc   address of the instruction to start with, must be the start of a basic block
+         * @return return value, or 0 if the function returns nothing
+         */
+        int invoke(Runtime rt, int[] regs, int base, int pc);
+    }
+
+    /**
+     * Entries of the simulator for compiled code. See the methods of the same names in {@link Simulator}.
+     */
+    public abstract static class Runtime {
+        /**
+         * Charge a basic block to the instruction budget.
+         *
+         * @param size number of instructions in the block
+         * @return true if the entire block can be executed, or else the caller must fall back to the interpreter
+         */
+        public abstract boolean tick(int size);
+
+        /**
+         * Fall back to the interpreter, in the middle of a compiled function.
+         *
+         * @param func  function id
+         * @param pc    address of the next instruction to execute
+         * @param temps values of temps
+         * @return return value, or 0 if the function returns nothing
+         */
+        public abstract int deopt(int func, int pc, int[] temps);
+
+        public abstract int load(int base, int offset);
+
+        public abstract void store(int value, int base, int offset);
+
+        public abstract void parm(int value);
+
+        public abstract int call(int func, int pc);
+
+        public abstract int callIndirect(int addr, int pc);
+
+        public abstract int intrinsic(int opcode);
+    }
+
+    /**
+     * Class loader of the compiled code of a program, see {@link Executable#loader}.
+     */
+    static final class Loader extends ClassLoader {
+        Loader() {
+            super(Jit.class.getClassLoader());
+        }
+
+        Class<?> define(byte[] bytes) {
+            return defineClass(null, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Placeholder of a function that cannot be compiled, so that no one tries again.
+     */
+    static final Code UNCOMPILABLE = (sim, regs, base, pc) -> {
+        throw new IllegalStateException("function is not compiled");
+    };
+
+    /**
+     * Compile a function.
+     *
+     * @param exe  linked program
+     * @param func function id
+     * @return compiled code, or null if the function cannot be compiled (e.g. too large for a JVM method)
+     */
+    static Code compile(Executable exe, int func) {
+        var start = exe.funcEntry[func];
+        var end = func + 1 < exe.funcs.length ? exe.funcEntry[func + 1] : exe.size();
+        var bytes = new Jit(exe, func, start, end).compile();
+        if (bytes == null) {
+            return null;
+        }
+
+        try {
+            var clazz = exe.loader.define(bytes);
+            return (Code) clazz.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    private static final String RUNTIME = "decaf/lowlevel/tac/Jit$Runtime";
+
+    private static final String ILLEGAL_STATE = "java/lang/IllegalStateException";
+
+    /**
+     * First JVM local for temps: 0 is {@code this}, 1 to 4 are the parameters of {@link Code#invoke}.
+     */
+    private static final int FIRST_LOCAL = 5;
+
+    private final Executable exe;
+
+    private final int func;
+
+    private final int start;
+
+    private final int end;
+
+    private final int temps;
+
+    private final Assembler asm = new Assembler();
+
+    private Jit(Executable exe, int func, int start, int end) {
+        this.exe = exe;
+        this.func = func;
+        this.start = start;
+        this.end = end;
+        this.temps = exe.funcTemps[func];
+    }
+
+    /**
+     * Compile into a class file.
+     *
+     * @return class file, or null if failed
+     */
+    private byte[] compile() {
+        var code = exe.code;
+
+        // Find basic blocks
+        var leader = new boolean[end - start + 1];
+        leader[0] = true;
+        leader[end - start] = true;
+        for (var pc = start; pc < end; pc++) {
+            var i = pc * Opcodes.WIDTH;
+            if (!legal(code[i], code[i + 1], code[i + 2], code[i + 3])) {
+                return null;
+            }
+
+            switch (code[i]) {
+                case Opcodes.BRANCH, Opcodes.BEQZ, Opcodes.BNEZ -> {
+                    var target = code[i] == Opcodes.BRANCH ? code[i + 1] : code[i + 2];
+                    if (target < start || target >= end) {
+                        return null;
+                    }
+                    leader[target - start] = true;
+                    leader[pc + 1 - start] = true;
+                }
+                case Opcodes.RETURN, Opcodes.RETURN_VOID,
+                        Opcodes.DIRECT_CALL, Opcodes.DIRECT_CALL_VOID,
+                        Opcodes.INDIRECT_CALL, Opcodes.INDIRECT_CALL_VOID,
+                        Opcodes.INTRINSIC_CALL, Opcodes.INTRINSIC_CALL_VOID -> leader[pc + 1 - start] = true;
+            }
+        }
+
+        var labels = new int[end - start];
+        for (var pc = start; pc < end; pc++) {
+            labels[pc - start] = leader[pc - start] ? asm.newLabel() : -1;
+        }
+        var deopt = asm.newLabel();
+        var badEntry = asm.newLabel();
+
+        // Prologue: load temps, and jump to the entry block
+        for (var t = 0; t < temps; t++) {
+            asm.op(ALOAD_2);
+            asm.op(ILOAD_3);
+            asm.push(t);
+            asm.op(IADD);
+            asm.op(IALOAD);
+            asm.store(FIRST_LOCAL + t);
+        }
+        asm.load(4);
+        var keys = new ArrayList<Integer>();
+        var targets = new ArrayList<Integer>();
+        for (var pc = start; pc < end; pc++) {
+            if (leader[pc - start]) {
+                keys.add(pc);
+                targets.add(labels[pc - start]);
+            }
+        }
+        asm.lookupSwitch(badEntry, keys, targets);
+
+        // Basic blocks
+        for (var pc = start; pc < end; pc++) {
+            if (leader[pc - start]) {
+                var size = 1;
+                while (!leader[pc + size - start]) {
+                    size++;
+                }
+
+                asm.bind(labels[pc - start]);
+                var body = asm.newLabel();
+                asm.op(ALOAD_1);
+                asm.push(size);
+                asm.invoke(INVOKEVIRTUAL, RUNTIME, "tick", "(I)Z");
+                asm.jump(IFNE, body);
+                asm.push(pc);
+                asm.jump(GOTO, deopt);
+                asm.bind(body);
+            }
+
+            var i = pc * Opcodes.WIDTH;
+            emit(pc, code[i], code[i + 1], code[i + 2], code[i + 3], labels);
+        }
+
+        // Fall back to the interpreter: save temps, and resume from the address on the operand stack
+        asm.bind(deopt);
+        asm.store(4);
+        asm.op(ALOAD_1);
+        asm.push(func);
+        asm.load(4);
+        asm.push(temps);
+        asm.op(NEWARRAY);
+        asm.u1(T_INT);
+        for (var t = 0; t < temps; t++) {
+            asm.op(DUP);
+            asm.push(t);
+            asm.load(FIRST_LOCAL + t);
+            asm.op(IASTORE);
+        }
+        asm.invoke(INVOKEVIRTUAL, RUNTIME, "deopt", "(II[I)I");
+        asm.op(IRETURN);
+
+        // Unreachable, unless the caller gives an illegal entry
+        asm.bind(badEntry);
+        asm.op(NEW);
+        asm.u2(asm.pool.clazz(ILLEGAL_STATE));
+        asm.op(DUP);
+        asm.ldc(asm.pool.string("Illegal entry of compiled function " + exe.funcs[func].entry.prettyString()));
+        asm.invoke(INVOKESPECIAL, ILLEGAL_STATE, "<init>", "(Ljava/lang/String;)V");
+        asm.op(ATHROW);
+
+        if (!asm.resolve()) {
+            return null;
+        }
+        return asm.toClassFile("decaf/lowlevel/tac/Jit$Compiled" + counter.incrementAndGet(), FIRST_LOCAL + temps);
+    }
+
+    /**
+     * Are all temp operands of an instruction inside the frame?
+     */
+    private boolean legal(int opcode, int a, int b, int c) {
+        return switch (opcode) {
+            case Opcodes.ASSIGN, Opcodes.NEG, Opcodes.LNOT, Opcodes.LOAD, Opcodes.STORE, Opcodes.INDIRECT_CALL ->
+                    temp(a) && temp(b);
+            case Opcodes.ADD, Opcodes.SUB, Opcodes.MUL, Opcodes.DIV, Opcodes.MOD, Opcodes.EQU, Opcodes.NEQ,
+                    Opcodes.LES, Opcodes.LEQ, Opcodes.GTR, Opcodes.GEQ, Opcodes.LAND, Opcodes.LOR ->
+                    temp(a) && temp(b) && temp(c);
+            case Opcodes.LOAD_VTBL, Opcodes.LOAD_IMM4, Opcodes.LOAD_STR_CONST, Opcodes.PARM, Opcodes.BEQZ,
+                    Opcodes.BNEZ, Opcodes.DIRECT_CALL, Opcodes.INDIRECT_CALL_VOID, Opcodes.INTRINSIC_CALL,
+                    Opcodes.RETURN -> temp(a);
+            case Opcodes.NOP, Opcodes.BRANCH, Opcodes.RETURN_VOID, Opcodes.DIRECT_CALL_VOID,
+                    Opcodes.INTRINSIC_CALL_VOID -> true;
+            default -> false;
+        };
+    }
+
+    private boolean temp(int index) {
+        return index >= 0 && index < temps;
+    }
+
+    private int local(int temp) {
+        return FIRST_LOCAL + temp;
+    }
+
+    private void emit(int pc, int opcode, int a, int b, int c, int[] labels) {
+        switch (opcode) {
+            case Opcodes.ASSIGN -> {
+                asm.load(local(b));
+                asm.store(local(a));
+            }
+            case Opcodes.LOAD_VTBL, Opcodes.LOAD_IMM4, Opcodes.LOAD_STR_CONST -> {
+                asm.push(b);
+                asm.store(local(a));
+            }
+            case Opcodes.NEG -> {
+                asm.load(local(b));
+                asm.op(INEG);
+                asm.store(local(a));
+            }
+            case Opcodes.LNOT -> {
+                asm.load(local(b));
+                bool(IFEQ);
+                asm.store(local(a));
+            }
+            case Opcodes.ADD, Opcodes.SUB, Opcodes.MUL, Opcodes.DIV, Opcodes.MOD -> {
+                asm.load(local(b));
+                asm.load(local(c));
+                asm.op(switch (opcode) {
+                    case Opcodes.ADD -> IADD;
+                    case Opcodes.SUB -> ISUB;
+                    case Opcodes.MUL -> IMUL;
+                    case Opcodes.DIV -> IDIV;
+                    default -> IREM;
+                });
+                asm.store(local(a));
+            }
+            case Opcodes.EQU, Opcodes.NEQ, Opcodes.LES, Opcodes.LEQ, Opcodes.GTR, Opcodes.GEQ -> {
+                asm.load(local(b));
+                asm.load(local(c));
+                bool(switch (opcode) {
+                    case Opcodes.EQU -> IF_ICMPEQ;
+                    case Opcodes.NEQ -> IF_ICMPNE;
+                    case Opcodes.LES -> IF_ICMPLT;
+                    case Opcodes.LEQ -> IF_ICMPLE;
+                    case Opcodes.GTR -> IF_ICMPGT;
+                    default -> IF_ICMPGE;
+                });
+                asm.store(local(a));
+            }
+            case Opcodes.LAND, Opcodes.LOR -> {
+                // LAND: (b != 0 && c != 0) ? 1 : 0, LOR: (b != 0 || c != 0) ? 1 : 0
+                var shortcut = asm.newLabel();
+                var done = asm.newLabel();
+                var jump = opcode == Opcodes.LAND ? IFEQ : IFNE;
+                asm.load(local(b));
+                asm.jump(jump, shortcut);
+                asm.load(local(c));
+                asm.jump(jump, shortcut);
+                asm.push(opcode == Opcodes.LAND ? 1 : 0);
+                asm.jump(GOTO, done);
+                asm.bind(shortcut);
+                asm.push(opcode == Opcodes.LAND ? 0 : 1);
+                asm.bind(done);
+                asm.store(local(a));
+            }
+            case Opcodes.LOAD -> {
+                asm.op(ALOAD_1);
+                asm.load(local(b));
+                asm.push(c);
+                asm.invoke(INVOKEVIRTUAL, RUNTIME, "load", "(II)I");
+                asm.store(local(a));
+            }
+            case Opcodes.STORE -> {
+                asm.op(ALOAD_1);
+                asm.load(local(a));
+                asm.load(local(b));
+                asm.push(c);
+                asm.invoke(INVOKEVIRTUAL, RUNTIME, "store", "(III)V");
+            }
+            case Opcodes.PARM -> {
+                asm.op(ALOAD_1);
+                asm.load(local(a));
+                asm.invoke(INVOKEVIRTUAL, RUNTIME, "parm", "(I)V");
+            }
+            case Opcodes.BRANCH -> asm.jump(GOTO, labels[a - start]);
+            case Opcodes.BEQZ, Opcodes.BNEZ -> {
+                asm.load(local(a));
+                asm.jump(opcode == Opcodes.BEQZ ? IFEQ : IFNE, labels[b - start]);
+            }
+            case Opcodes.DIRECT_CALL, Opcodes.DIRECT_CALL_VOID -> {
+                var hasDst = opcode == Opcodes.DIRECT_CALL;
+                asm.op(ALOAD_1);
+                asm.push(hasDst ? b : a);
+                asm.push(pc);
+                asm.invoke(INVOKEVIRTUAL, RUNTIME, "call", "(II)I");
+                result(hasDst, a);
+            }
+            case Opcodes.INDIRECT_CALL, Opcodes.INDIRECT_CALL_VOID -> {
+                var hasDst = opcode == Opcodes.INDIRECT_CALL;
+                asm.op(ALOAD_1);
+                asm.load(local(hasDst ? b : a));
+                asm.push(pc);
+                asm.invoke(INVOKEVIRTUAL, RUNTIME, "callIndirect", "(II)I");
+                result(hasDst, a);
+            }
+            case Opcodes.INTRINSIC_CALL, Opcodes.INTRINSIC_CALL_VOID -> {
+                var hasDst = opcode == Opcodes.INTRINSIC_CALL;
+                asm.op(ALOAD_1);
+                asm.push(hasDst ? b : a);
+                asm.invoke(INVOKEVIRTUAL, RUNTIME, "intrinsic", "(I)I");
+                result(hasDst, a);
+            }
+            case Opcodes.RETURN -> {
+                asm.load(local(a));
+                asm.op(IRETURN);
+            }
+            case Opcodes.RETURN_VOID -> {
+                asm.push(0);
+                asm.op(IRETURN);
+            }
+        }
+    }
+
+    /**
+     * Turn a conditional jump into a boolean on the operand stack: 1 if it jumps, or else 0.
+     */
+    private void bool(int jump) {
+        var yes = asm.newLabel();
+        var done = asm.newLabel();
+        asm.jump(jump, yes);
+        asm.push(0);
+        asm.jump(GOTO, done);
+        asm.bind(yes);
+        asm.push(1);
+        asm.bind(done);
+    }
+
+    private void result(boolean hasDst, int dst) {
+        if (hasDst) {
+            asm.store(local(dst));
+        } else {
+            asm.op(POP);
+        }
+    }
+
+    // JVM opcodes in use
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int ILOAD = 0x15;
+    private static final int ILOAD_3 = 0x1d;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ALOAD_2 = 0x2c;
+    private static final int IALOAD = 0x2e;
+    private static final int ISTORE = 0x36;
+    private static final int IASTORE = 0x4f;
+    private static final int POP = 0x57;
+    private static final int DUP = 0x59;
+    private static final int IADD = 0x60;
+    private static final int ISUB = 0x64;
+    private static final int IMUL = 0x68;
+    private static final int IDIV = 0x6c;
+    private static final int IREM = 0x70;
+    private static final int INEG = 0x74;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9a;
+    private static final int IF_ICMPEQ = 0x9f;
+    private static final int IF_ICMPNE = 0xa0;
+    private static final int IF_ICMPLT = 0xa1;
+    private static final int IF_ICMPGE = 0xa2;
+    private static final int IF_ICMPGT = 0xa3;
+    private static final int IF_ICMPLE = 0xa4;
+    private static final int GOTO = 0xa7;
+    private static final int LOOKUPSWITCH = 0xab;
+    private static final int IRETURN = 0xac;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int NEW = 0xbb;
+    private static final int NEWARRAY = 0xbc;
+    private static final int ATHROW = 0xbf;
+    private static final int WIDE = 0xc4;
+
+    private static final int T_INT = 10;
+
+    /**
+     * Constant pool of the class file.
+     */
+    private static class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        private final Map<String, Integer> indices = new HashMap<>();
+
+        private int count = 1;
+
+        int utf8(String value) {
+            return add("U" + value, () -> {
+                out.writeByte(1);
+                out.writeUTF(value);
+            });
+        }
+
+        int clazz(String name) {
+            var nameIndex = utf8(name);
+            return add("C" + name, () -> {
+                out.writeByte(7);
+                out.writeShort(nameIndex);
+            });
+        }
+
+        int string(String value) {
+            var valueIndex = utf8(value);
+            return add("S" + value, () -> {
+                out.writeByte(8);
+                out.writeShort(valueIndex);
+            });
+        }
+
+        int integer(int value) {
+            return add("I" + value, () -> {
+                out.writeByte(3);
+                out.writeInt(value);
+            });
+        }
+
+        int method(String owner, String name, String descriptor) {
+            var classIndex = clazz(owner);
+            var nameIndex = utf8(name);
+            var descriptorIndex = utf8(descriptor);
+            var nameAndType = add("N" + name + ":" + descriptor, () -> {
+                out.writeByte(12);
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            });
+            return add("M" + owner + "." + name + ":" + descriptor, () -> {
+                out.writeByte(10);
+                out.writeShort(classIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        private interface Entry {
+            void write() throws IOException;
+        }
+
+        private int add(String key, Entry entry) {
+            var index = indices.get(key);
+            if (index != null) {
+                return index;
+            }
+            try {
+                entry.write();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            indices.put(key, count);
+            return count++;
+        }
+    }
+
+    /**
+     * Assembler of a single method, and writer of the class file containing it.
+     */
+    private static class Assembler {
+        final ConstantPool pool = new ConstantPool();
+
+        private byte[] code = new byte[1024];
+
+        private int pos = 0;
+
+        private final List<Integer> labelPos = new ArrayList<>();
+
+        /**
+         * Jumps to be patched: position of the jump instruction, position of its offset, label, offset size (2 or 4).
+         */
+        private final List<int[]> fixups = new ArrayList<>();
+
+        int newLabel() {
+            labelPos.add(-1);
+            return labelPos.size() - 1;
+        }
+
+        void bind(int label) {
+            labelPos.set(label, pos);
+        }
+
+        void u1(int value) {
+            if (pos == code.length) {
+                code = Arrays.copyOf(code, code.length * 2);
+            }
+            code[pos++] = (byte) value;
+        }
+
+        void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        void u4(int value) {
+            u2(value >> 16);
+            u2(value);
+        }
+
+        void op(int opcode) {
+            u1(opcode);
+        }
+
+        void push(int value) {
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(BIPUSH);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(SIPUSH);
+                u2(value);
+            } else {
+                ldc(pool.integer(value));
+            }
+        }
+
+        void ldc(int index) {
+            op(LDC_W);
+            u2(index);
+        }
+
+        void load(int local) {
+            variable(ILOAD, local);
+        }
+
+        void store(int local) {
+            variable(ISTORE, local);
+        }
+
+        private void variable(int opcode, int local) {
+            if (local > 255) {
+                op(WIDE);
+                op(opcode);
+                u2(local);
+            } else {
+                op(opcode);
+                u1(local);
+            }
+        }
+
+        void invoke(int opcode, String owner, String name, String descriptor) {
+            op(opcode);
+            u2(pool.method(owner, name, descriptor));
+        }
+
+        void jump(int opcode, int label) {
+            fixups.add(new int[]{pos, pos + 1, label, 2});
+            op(opcode);
+            u2(0);
+        }
+
+        void lookupSwitch(int defaultLabel, List<Integer> keys, List<Integer> labels) {
+            var at = pos;
+            op(LOOKUPSWITCH);
+            while (pos % 4 != 0) {
+                u1(0);
+            }
+            fixups.add(new int[]{at, pos, defaultLabel, 4});
+            u4(0);
+            u4(keys.size());
+            for (var k = 0; k < keys.size(); k++) {
+                u4(keys.get(k));
+                fixups.add(new int[]{at, pos, labels.get(k), 4});
+                u4(0);
+            }
+        }
+
+        /**
+         * Patch all jumps.
+         *
+         * @return false if some jump is too far away
+         */
+        boolean resolve() {
+            if (pos > Short.MAX_VALUE) {
+                return false;
+            }
+            for (var fixup : fixups) {
+                var offset = labelPos.get(fixup[2]) - fixup[0];
+                var at = fixup[1];
+                if (fixup[3] == 4) {
+                    code[at++] = (byte) (offset >> 24);
+                    code[at++] = (byte) (offset >> 16);
+                }
+                code[at++] = (byte) (offset >> 8);
+                code[at] = (byte) offset;
+            }
+            return true;
+        }
+
+        /**
+         * Write a class with a default constructor and the assembled code as {@link Code#invoke}.
+         * <p>
+         * Version 49 class files need no stack map frames, so we do not have to compute them.
+         */
+        byte[] toClassFile(String name, int maxLocals) {
+            var thisClass = pool.clazz(name);
+            var superClass = pool.clazz("java/lang/Object");
+            var iface = pool.clazz("decaf/lowlevel/tac/Jit$Code");
+            var codeAttr = pool.utf8("Code");
+            var init = pool.utf8("<init>");
+            var initDescriptor = pool.utf8("()V");
+            var objectInit = pool.method("java/lang/Object", "<init>", "()V");
+            var invoke = pool.utf8("invoke");
+            var invokeDescriptor = pool.utf8("(L" + RUNTIME + ";[III)I");
+
+            var bytes = new ByteArrayOutputStream();
+            var out = new DataOutputStream(bytes);
+            try {
+                out.writeInt(0xCAFEBABE);
+                out.writeShort(0);
+                out.writeShort(49);
+                out.writeShort(pool.count);
+                pool.bytes.writeTo(out);
+                out.writeShort(0x0031); // ACC_PUBLIC | ACC_FINAL | ACC_SUPER
+                out.writeShort(thisClass);
+                out.writeShort(superClass);
+                out.writeShort(1);
+                out.writeShort(iface);
+                out.writeShort(0); // fields
+                out.writeShort(2); // methods
+
+                // public <init>() { super(); }
+                out.writeShort(0x0001);
+                out.writeShort(init);
+                out.writeShort(initDescriptor);
+                out.writeShort(1);
+                out.writeShort(codeAttr);
+                out.writeInt(12 + 5);
+                out.writeShort(1);
+                out.writeShort(1);
+                out.writeInt(5);
+                out.writeByte(ALOAD_0);
+                out.writeByte(INVOKESPECIAL);
+                out.writeShort(objectInit);
+                out.writeByte(RETURN);
+                out.writeShort(0);
+                out.writeShort(0);
+
+                // public int invoke(Runtime rt, int[] regs, int base, int pc)
+                out.writeShort(0x0001);
+                out.writeShort(invoke);
+                out.writeShort(invokeDescriptor);
+                out.writeShort(1);
+                out.writeShort(codeAttr);
+                out.writeInt(12 + pos);
+                out.writeShort(8);
+                out.writeShort(maxLocals);
+                out.writeInt(pos);
+                out.write(code, 0, pos);
+                out.writeShort(0);
+                out.writeShort(0);
+
+                out.writeShort(0); // attributes
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+    }
+}
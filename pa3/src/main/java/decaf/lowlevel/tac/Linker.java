@@ -0,0 +1,360 @@
+package decaf.lowlevel.tac;
+
+import decaf.lowlevel.instr.Temp;
+import decaf.lowlevel.label.FuncLabel;
+import decaf.lowlevel.label.IntrinsicLabel;
+import decaf.lowlevel.label.Label;
+
+import java.util.*;
+
+/**
+ * Link a TAC program for the simulator, i.e. lower it into a compact int-encoded instruction memory.
+ * <p>
+ * Linking is done in two passes:
+ * <ol>
+ *     <li>assign an address to every instruction, and record the address of every label;</li>
+ *     <li>encode every instruction, with labels, virtual tables, constant strings and callees resolved.</li>
+ * </ol>
+ * Labels and comments take no space in the instruction memory.
+ *
+ * @see Opcodes
+ * @see Executable
+ */
+final class Linker {
+    /**
+     * Address of the first virtual table. The simulator allocates virtual tables before anything else, so they are
+     * placed from the very bottom of the heap, one after another.
+     */
+    static final int DATA_BASE = Heap.BASE;
+
+    /**
+     * Link a TAC program.
+     *
+     * @param program TAC program
+     * @return linked program
+     */
+    static Executable link(TacProg program) {
+        return new Linker(program).link();
+    }
+
+    private final TacProg program;
+
+    private final Map<String, Integer> labelToAddr = new TreeMap<>();
+
+    private final Map<String, Integer> labelToFunc = new TreeMap<>();
+
+    private final Map<String, Integer> vtableToAddr = new TreeMap<>();
+
+    private final StringPool pool = new StringPool();
+
+    private Linker(TacProg program) {
+        this.program = program;
+    }
+
+    private Executable link() {
+        var funcs = program.funcs.toArray(new TacFunc[0]);
+        var funcEntry = new int[funcs.length];
+        var funcTemps = new int[funcs.length];
+
+        // Pass 1: layout functions
+        var addr = 0;
+        for (var i = 0; i < funcs.length; i++) {
+            var func = funcs[i];
+            labelToFunc.put(func.entry.name, i);
+            funcEntry[i] = addr;
+            funcTemps[i] = func.getUsedTempCount();
+
+            TacInstr last = null;
+            for (var instr : func.getInstrSeq()) {
+                if (instr.isLabel()) {
+                    labelToAddr.put(instr.label.name, addr);
+                } else if (!(instr instanceof TacInstr.Memo)) {
+                    last = instr;
+                    addr++;
+                }
+            }
+
+            if (last == null || !last.isReturn()) {
+                throw new Simulator.Error(String.format("In TAC function %s: the last instruction must be return",
+                        func.entry.prettyString()));
+            }
+        }
+
+        var funcAt = new int[addr];
+        var funcOf = new int[addr];
+        Arrays.fill(funcAt, -1);
+        for (var i = 0; i < funcs.length; i++) {
+            var end = i + 1 < funcs.length ? funcEntry[i + 1] : addr;
+            funcAt[funcEntry[i]] = i;
+            Arrays.fill(funcOf, funcEntry[i], end, i);
+        }
+
+        if (!labelToFunc.containsKey(FuncLabel.MAIN_LABEL.name)) {
+            throw new Simulator.Error("No legal main function found");
+        }
+
+        // Layout vtables
+        var vtables = program.vtables;
+        var vtableAddr = new int[vtables.size()];
+        var vtableWords = new int[vtables.size()][];
+        var dataAddr = DATA_BASE;
+        for (var i = 0; i < vtables.size(); i++) {
+            var vtbl = vtables.get(i);
+            vtableAddr[i] = dataAddr;
+            vtableToAddr.put(vtbl.label.name, dataAddr);
+            dataAddr += vtbl.getSize();
+        }
+
+        for (var i = 0; i < vtables.size(); i++) {
+            var vtbl = vtables.get(i);
+            var words = new int[vtbl.getSize() / 4];
+            words[0] = vtbl.parent.map(pv -> vtableToAddr.get(pv.label.name)).orElse(0);
+            words[1] = pool.add(vtbl.className);
+            var offset = 2;
+            for (var item : vtbl.getItems()) {
+                words[offset] = resolve(item);
+                offset++;
+            }
+            if (vtbl instanceof ClosureTable) {
+                for (var entry : ((ClosureTable) vtbl).getEntries()) {
+                    words[offset] = 0;
+                    words[offset + 1] = resolve(entry);
+                    offset += 2;
+                }
+            }
+            vtableWords[i] = words;
+        }
+
+        // Pass 2: encode instructions
+        var encoder = new Encoder(addr);
+        for (var func : funcs) {
+            for (var instr : func.getInstrSeq()) {
+                instr.accept(encoder);
+            }
+        }
+
+        var strings = new ArrayList<String>();
+        pool.forEach(strings::add);
+        return new Executable(encoder.code, fuse(encoder.code, addr), funcs, funcEntry, funcTemps, funcAt, funcOf,
+                labelToFunc.get(FuncLabel.MAIN_LABEL.name), vtableAddr, vtableWords, strings);
+    }
+
+    /**
+     * Recognize the common idioms of the instruction memory, and replace them with superinstructions (see
+     * {@link Opcodes}), so that the interpreter dispatches once for a whole sequence:
+     * <ul>
+     *     <li>load an immediate, and then compute a binary operation (and then branch on it);</li>
+     *     <li>compute a binary operation (often a comparison), and then branch on it;</li>
+     *     <li>load twice, typically the vtable of an object and then a method from it;</li>
+     *     <li>a run of PARMs.</li>
+     * </ul>
+     * Only the opcode of the first instruction is replaced, the rest of the instruction memory is left untouched. A
+     * superinstruction executes its instructions exactly as if they were executed one by one, so jumping into the
+     * middle of a sequence is fine.
+     *
+     * @param code instruction memory
+     * @param size number of instructions
+     * @return opcodes to dispatch on
+     */
+    static int[] fuse(int[] code, int size) {
+        var dispatch = new int[size];
+        for (var pc = 0; pc < size; pc++) {
+            dispatch[pc] = code[pc * Opcodes.WIDTH];
+        }
+
+        var pc = 0;
+        while (pc < size) {
+            var op = dispatch[pc];
+            var next = pc + 1 < size ? dispatch[pc + 1] : Opcodes.NOP;
+            var next2 = pc + 2 < size ? dispatch[pc + 2] : Opcodes.NOP;
+            if (op == Opcodes.LOAD_IMM4 && isBinary(next) && isCondBranch(next2)) {
+                dispatch[pc] = Opcodes.FUSED_IMM_BINARY_BRANCH;
+                pc += 3;
+            } else if (op == Opcodes.LOAD_IMM4 && isBinary(next)) {
+                dispatch[pc] = Opcodes.FUSED_IMM_BINARY;
+                pc += 2;
+            } else if (isBinary(op) && isCondBranch(next)) {
+                dispatch[pc] = Opcodes.FUSED_BINARY_BRANCH;
+                pc += 2;
+            } else if (op == Opcodes.LOAD && next == Opcodes.LOAD) {
+                dispatch[pc] = Opcodes.FUSED_LOAD_LOAD;
+                pc += 2;
+            } else if (op == Opcodes.PARM && next == Opcodes.PARM) {
+                dispatch[pc] = Opcodes.FUSED_PARMS;
+                pc += 2;
+                while (pc < size && dispatch[pc] == Opcodes.PARM) {
+                    pc++;
+                }
+            } else {
+                pc++;
+            }
+        }
+        return dispatch;
+    }
+
+    static boolean isBinary(int opcode) {
+        return opcode >= Opcodes.ADD && opcode <= Opcodes.LOR;
+    }
+
+    static boolean isCondBranch(int opcode) {
+        return opcode == Opcodes.BEQZ || opcode == Opcodes.BNEZ;
+    }
+
+    private int resolve(Label label) {
+        var addr = labelToAddr.get(label.name);
+        if (addr == null) {
+            throw new Simulator.Error("Undefined label " + label.prettyString());
+        }
+        return addr;
+    }
+
+    /**
+     * Encode every instruction into the instruction memory.
+     */
+    private class Encoder implements TacInstr.Visitor {
+        final int[] code;
+
+        int pc = 0;
+
+        Encoder(int size) {
+            code = new int[size * Opcodes.WIDTH];
+        }
+
+        private void emit(int opcode, int a, int b, int c) {
+            var i = pc * Opcodes.WIDTH;
+            code[i] = opcode;
+            code[i + 1] = a;
+            code[i + 2] = b;
+            code[i + 3] = c;
+            pc++;
+        }
+
+        /**
+         * Encode a temp by its index. Unreachable code emitted by the front end may refer to a missing ({@code null})
+         * temp, which is encoded as -1 and fails only if it is really executed.
+         */
+        private int idx(Temp temp) {
+            return temp == null ? -1 : temp.index;
+        }
+
+        @Override
+        public void visitAssign(TacInstr.Assign instr) {
+            if (instr.dst == null) { // the value is discarded
+                emit(Opcodes.NOP, 0, 0, 0);
+                return;
+            }
+            emit(Opcodes.ASSIGN, idx(instr.dst), idx(instr.src), 0);
+        }
+
+        @Override
+        public void visitLoadVTbl(TacInstr.LoadVTbl instr) {
+            emit(Opcodes.LOAD_VTBL, idx(instr.dst), vtableToAddr.get(instr.vtbl.label.name), 0);
+        }
+
+        @Override
+        public void visitLoadImm4(TacInstr.LoadImm4 instr) {
+            emit(Opcodes.LOAD_IMM4, idx(instr.dst), instr.value, 0);
+        }
+
+        @Override
+        public void visitLoadStrConst(TacInstr.LoadStrConst instr) {
+            emit(Opcodes.LOAD_STR_CONST, idx(instr.dst), pool.add(instr.value), 0);
+        }
+
+        @Override
+        public void visitUnary(TacInstr.Unary instr) {
+            var opcode = switch (instr.op) {
+                case NEG -> Opcodes.NEG;
+                case LNOT -> Opcodes.LNOT;
+            };
+            emit(opcode, idx(instr.dst), idx(instr.operand), 0);
+        }
+
+        @Override
+        public void visitBinary(TacInstr.Binary instr) {
+            var opcode = switch (instr.op) {
+                case ADD -> Opcodes.ADD;
+                case SUB -> Opcodes.SUB;
+                case MUL -> Opcodes.MUL;
+                case DIV -> Opcodes.DIV;
+                case MOD -> Opcodes.MOD;
+                case EQU -> Opcodes.EQU;
+                case NEQ -> Opcodes.NEQ;
+                case LES -> Opcodes.LES;
+                case LEQ -> Opcodes.LEQ;
+                case GTR -> Opcodes.GTR;
+                case GEQ -> Opcodes.GEQ;
+                case LAND -> Opcodes.LAND;
+                case LOR -> Opcodes.LOR;
+            };
+            emit(opcode, idx(instr.dst), idx(instr.lhs), idx(instr.rhs));
+        }
+
+        @Override
+        public void visitBranch(TacInstr.Branch instr) {
+            emit(Opcodes.BRANCH, resolve(instr.target), 0, 0);
+        }
+
+        @Override
+        public void visitCondBranch(TacInstr.CondBranch instr) {
+            var opcode = switch (instr.op) {
+                case BEQZ -> Opcodes.BEQZ;
+                case BNEZ -> Opcodes.BNEZ;
+            };
+            emit(opcode, idx(instr.cond), resolve(instr.target), 0);
+        }
+
+        @Override
+        public void visitReturn(TacInstr.Return instr) {
+            if (instr.value.isPresent()) {
+                emit(Opcodes.RETURN, idx(instr.value.get()), 0, 0);
+            } else {
+                emit(Opcodes.RETURN_VOID, 0, 0, 0);
+            }
+        }
+
+        @Override
+        public void visitParm(TacInstr.Parm instr) {
+            emit(Opcodes.PARM, idx(instr.value), 0, 0);
+        }
+
+        @Override
+        public void visitIndirectCall(TacInstr.IndirectCall instr) {
+            if (instr.dst.isPresent()) {
+                emit(Opcodes.INDIRECT_CALL, idx(instr.dst.get()), idx(instr.entry), 0);
+            } else {
+                emit(Opcodes.INDIRECT_CALL_VOID, idx(instr.entry), 0, 0);
+            }
+        }
+
+        @Override
+        public void visitDirectCall(TacInstr.DirectCall instr) {
+            if (instr.entry.isIntrinsic()) {
+                var opcode = ((IntrinsicLabel) instr.entry).opcode.ordinal();
+                if (instr.dst.isPresent()) {
+                    emit(Opcodes.INTRINSIC_CALL, idx(instr.dst.get()), opcode, 0);
+                } else {
+                    emit(Opcodes.INTRINSIC_CALL_VOID, opcode, 0, 0);
+                }
+                return;
+            }
+
+            // An undefined callee is reported only if the call is really executed.
+            var func = labelToFunc.getOrDefault(instr.entry.name, -1);
+            if (instr.dst.isPresent()) {
+                emit(Opcodes.DIRECT_CALL, idx(instr.dst.get()), func, 0);
+            } else {
+                emit(Opcodes.DIRECT_CALL_VOID, func, 0, 0);
+            }
+        }
+
+        @Override
+        public void visitMemory(TacInstr.Memory instr) {
+            var opcode = switch (instr.op) {
+                case LOAD -> Opcodes.LOAD;
+                case STORE -> Opcodes.STORE;
+            };
+            emit(opcode, idx(instr.dst), idx(instr.base), instr.offset);
+        }
+    }
+}
@@ -1,7 +1,18 @@
 package decaf.lowlevel.tac;
 
+/**
+ * Opcodes of the simulator's linked instruction memory, see {@link Linker}.
+ * <p>
+ * Every linked instruction takes {@link #WIDTH} ints: the opcode followed by at most 3 operands. Temps are encoded by
+ * their indices, and labels, virtual tables and functions are already resolved to integers.
+ */
 public interface Opcodes {
 
+    /**
+     * Number of ints taken by one linked instruction.
+     */
+    int WIDTH = 4;
+
     // 0-address
     int NOP = 0;
     int RETURN_VOID = 1;
@@ -39,4 +50,31 @@ public interface Opcodes {
     int GEQ = 27;
     int LAND = 28;
     int LOR = 29;
+
+    // memory access: dst/src, base, offset
+    int LOAD = 30;
+    int STORE = 31;
+
+    // conditional branch: cond, target
+    int BEQZ = 32;
+    int BNEZ = 33;
+
+    // intrinsic call: {dst,}? opcode
+    int INTRINSIC_CALL_VOID = 34;
+    int INTRINSIC_CALL = 35;
+
+    // Superinstructions, which only appear in Executable.dispatch (see Linker#fuse). A superinstruction replaces the
+    // opcode of the first one of a sequence of instructions, whose operands are left untouched in the instruction
+    // memory, and executes the entire sequence.
+
+    // LOAD_IMM4, binary
+    int FUSED_IMM_BINARY = 36;
+    // LOAD_IMM4, binary, BEQZ/BNEZ
+    int FUSED_IMM_BINARY_BRANCH = 37;
+    // binary, BEQZ/BNEZ
+    int FUSED_BINARY_BRANCH = 38;
+    // LOAD, LOAD (e.g. load vtable, and then load method from it)
+    int FUSED_LOAD_LOAD = 39;
+    // PARM, PARM, ...
+    int FUSED_PARMS = 40;
 }
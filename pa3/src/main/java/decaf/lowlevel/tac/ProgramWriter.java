@@ -10,15 +10,34 @@ import java.util.*;
  * encoding.
  */
 public class ProgramWriter {
+    /**
+     * Name of the table of closures of static methods, see {@link ClosureTable}. As it contains a '.', no class of the
+     * program is named so.
+     */
+    static final String CLOSURE_TABLE = "static.closure";
+
     /**
      * Constructor.
      *
      * @param classes basic info of classes declared in the program (warning: the arg will be modified by this method).
      */
     public ProgramWriter(List<ClassInfo> classes) {
+        this(classes, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param classes      basic info of classes declared in the program (warning: the arg will be modified by this
+     *                     method).
+     * @param devirtualize call member methods which no subclass overrides directly, without loading them from virtual
+     *                     tables (see {@link FuncVisitor#visitMemberCall})
+     */
+    public ProgramWriter(List<ClassInfo> classes, boolean devirtualize) {
         for (var clazz : classes) {
             this.classes.put(clazz.name, clazz);
         }
+        ctx.devirtualize = devirtualize;
     }
 
     /**
@@ -37,6 +56,7 @@ public class ProgramWriter {
         for (var clazz : classes.values()) {
             buildVTableFor(clazz);
         }
+        findMonomorphicMethods();
 
         // Create the `new` method for every class.
         for (var clazz : classes.values()) {
@@ -68,6 +88,13 @@ public class ProgramWriter {
         ctx.putOffsets(ctx.staticVtbl);
         ctx.putVTable(ctx.lambdaVtbl);
         ctx.putOffsets(ctx.lambdaVtbl);
+
+        // The closure of every static method, shared by all its uses as a value
+        for (var l : ctx.staticVtbl.memberMethods) {
+            ctx.putClosureOffset(l.clazz, l.method, ctx.closureTable.offsetOf(ctx.closureTable.entries.size()));
+            ctx.closureTable.entries.add(l);
+        }
+        ctx.putVTable(ctx.closureTable);
     }
     public void visitStaticMethod(String className, String funcName) {
         ctx.staticVtbl.memberMethods.add(ctx.getFuncLabel(className, funcName));
@@ -111,6 +138,42 @@ public class ProgramWriter {
         mv.visitEnd();
     }
 
+    /**
+     * Class hierarchy analysis: find the member methods which have a single implementation in a class and all its
+     * subclasses, i.e. the same label in the same slot of all their virtual tables. Whatever the object a call to such a
+     * method is made on, the callee is known.
+     */
+    private void findMonomorphicMethods() {
+        var subclasses = new HashMap<String, List<String>>();
+        for (var clazz : classes.values()) {
+            subclasses.putIfAbsent(clazz.name, new ArrayList<>());
+            clazz.parent.ifPresent(parent -> subclasses.computeIfAbsent(parent, c -> new ArrayList<>()).add(clazz.name));
+        }
+
+        for (var clazz : classes.values()) {
+            // Labels of the methods still monomorphic, or null once overridden
+            var labels = new ArrayList<>(ctx.getVTable(clazz.name).memberMethods);
+            var worklist = new ArrayDeque<>(subclasses.get(clazz.name));
+            while (!worklist.isEmpty()) {
+                var subclass = worklist.pop();
+                var items = ctx.getVTable(subclass).memberMethods;
+                for (var i = 0; i < labels.size(); i++) {
+                    if (labels.get(i) != null && labels.get(i).compareTo(items.get(i)) != 0) {
+                        labels.set(i, null);
+                    }
+                }
+                worklist.addAll(subclasses.get(subclass));
+            }
+
+            var methods = ctx.getVTable(clazz.name).memberMethods;
+            for (var i = 0; i < labels.size(); i++) {
+                if (labels.get(i) != null) {
+                    ctx.putMonomorphicLabel(clazz.name, methods.get(i).method, labels.get(i));
+                }
+            }
+        }
+    }
+
     private void buildVTableFor(ClassInfo clazz) {
         if (ctx.hasVTable(clazz.name)) return;
 
@@ -165,6 +228,8 @@ public class ProgramWriter {
 
         VTable lambdaVtbl = new VTable("fun", Optional.empty());
 
+        ClosureTable closureTable = new ClosureTable(CLOSURE_TABLE);
+
         void putConstructorLabel(String clazz) {
             putFuncLabel(clazz, "new");
         }
@@ -181,6 +246,17 @@ public class ProgramWriter {
             return labels.get(clazz + "." + method);
         }
 
+        void putMonomorphicLabel(String clazz, String method, FuncLabel label) {
+            monomorphicLabels.put(clazz + "." + method, label);
+        }
+
+        Optional<FuncLabel> getMonomorphicLabel(String clazz, String method) {
+            if (!devirtualize) {
+                return Optional.empty();
+            }
+            return Optional.ofNullable(monomorphicLabels.get(clazz + "." + method));
+        }
+
         Label freshLabel() {
             var name = "_L" + nextTempLabelId;
             nextTempLabelId++;
@@ -207,6 +283,14 @@ public class ProgramWriter {
             return offsets.get(clazz + "." + member);
         }
 
+        void putClosureOffset(String clazz, String method, int offset) {
+            offsets.put(closureTable.className + "." + clazz + "." + method, offset);
+        }
+
+        int getClosureOffset(String clazz, String method) {
+            return getOffset(closureTable.className, clazz + "." + method);
+        }
+
         void putOffsets(VTable vtbl) {
             if (vtbl.className.equals("static") || vtbl.className.equals("fun")) {
                 var offset = 8;
@@ -232,6 +316,11 @@ public class ProgramWriter {
 
         private Map<String, FuncLabel> labels = new TreeMap<>();
 
+        // the only implementation of every monomorphic member method, see findMonomorphicMethods
+        private Map<String, FuncLabel> monomorphicLabels = new TreeMap<>();
+
+        private boolean devirtualize;
+
         private Map<String, VTable> vtables = new TreeMap<>();
 
         private Map<String, Integer> offsets = new TreeMap<>();
@@ -1,17 +1,15 @@
 package decaf.lowlevel.tac;
 
-import decaf.lowlevel.instr.Temp;
-import decaf.lowlevel.label.FuncLabel;
-import decaf.lowlevel.label.IntrinsicLabel;
-import decaf.lowlevel.label.Label;
-
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.util.*;
 
 /**
  * TAC program simulator.
+ * <p>
+ * The program is first linked into a compact int-encoded instruction memory (see {@link Linker}), and then executed
+ * by a switch-based interpreter loop. Functions that turn out to be hot, i.e. invoked or looping many times, are
+ * compiled into JVM bytecode by {@link Jit}. Compiled and interpreted functions call each other freely.
  */
 public final class Simulator {
 
@@ -22,500 +20,866 @@ public final class Simulator {
      * @param out simulator's stdout
      */
     public Simulator(InputStream in, OutputStream out) {
-        _in = in;
-        _out = new PrintWriter(out);
+        this(in, out, SimulatorOptions.DEFAULT);
     }
 
     /**
-     * Execute a TAC program.
+     * Constructor.
      *
-     * @param program TAC program
+     * @param in      simulator's stdin
+     * @param out     simulator's stdout
+     * @param options simulator's options
      */
-    public void execute(TacProg program) {
-        // Initialize
-        _memory = new Memory();
-        _string_pool = new StringPool();
-        _vtable_to_addr = new TreeMap<>();
-        _instrs = new Vector<>();
-        _label_to_addr = new TreeMap<>();
-        _addr_to_function = new TreeMap<>();
-        _call_stack = new Stack<>();
-        _actual_args = new Vector<>();
-        _label_to_function = new TreeMap<>();
-
-        // Allocate vtables
-        for (VTable vtbl : program.vtables) {
-            var addr = _memory.alloc(vtbl.getSize());
-            _vtable_to_addr.put(vtbl.label.name, addr);
-        }
-
-        // Load instructions
-        var addr = 0;
-        for (var func : program.funcs) {
-            // Meet a function: label -> func, label -> addr, addr -> func
-            _label_to_function.put(func.entry.name, func);
-            _addr_to_function.put(addr, func);
-
-            // Add every non-pseudo instruction, and record labels if necessary
-            for (var instr : func.getInstrSeq()) {
-                if (instr.isLabel()) { // meet a label
-                    var lbl = instr.label;
-                    _label_to_addr.put(lbl.name, addr);
-                } else {
-                    _instrs.add(instr);
-                    addr++;
-                } // else: memo, ignore
-            }
+    public Simulator(InputStream in, OutputStream out, SimulatorOptions options) {
+        _io = new SimulatorIO(in, out, options.interactive);
+        _options = options;
+        _max_instructions = options.maxInstructions == SimulatorOptions.UNBOUNDED
+                ? Long.MAX_VALUE : options.maxInstructions;
+        _jit = options.jit && !options.stats && !options.profile && !options.gc;
+    }
 
-            // Check if the last instruction is RETURN
-            if (!_instrs.lastElement().isReturn()) {
-                throw new Error(String.format("In TAC function %s: the last instruction must be return",
-                        func.entry.prettyString()));
-            }
-        }
+    /**
+     * Flush the output of the program. Output is buffered, and is otherwise flushed only when the program terminates,
+     * or after every line in interactive mode (see {@link SimulatorOptions#interactive}).
+     */
+    public void flush() {
+        _io.flush();
+    }
 
-        // Fill in vtables
-        for (VTable vtbl : program.vtables) {
-            addr = _vtable_to_addr.get(vtbl.label.name);
-            var offset = 0;
+    /**
+     * Get statistics of the last execution, if enabled by {@link SimulatorOptions#stats}.
+     *
+     * @return statistics
+     */
+    public Optional<SimulatorStats> getStats() {
+        return Optional.ofNullable(_stats);
+    }
 
-            var parentAddr = vtbl.parent.map(pv -> _vtable_to_addr.get(pv.label.name)).orElse(0);
-            _memory.store(parentAddr, addr, offset);
-            offset += 4;
+    /**
+     * Get the execution profile of the last execution, if enabled by {@link SimulatorOptions#profile}.
+     *
+     * @return profile
+     */
+    public Optional<SimulatorProfile> getProfile() {
+        return Optional.ofNullable(_profile);
+    }
+
+    /**
+     * Prepare a TAC program for execution, i.e. link it (see {@link Linker}).
+     * <p>
+     * The result is immutable and thread-safe, and may be executed any number of times, concurrently by different
+     * simulators.
+     *
+     * @param program TAC program
+     * @return executable image
+     */
+    public static Executable prepare(TacProg program) {
+        return Linker.link(program);
+    }
 
-            var className = _string_pool.add(vtbl.className);
-            _memory.store(className, addr, 4);
-            offset += 4;
+    /**
+     * Execute a TAC program.
+     *
+     * @param program TAC program
+     */
+    public void execute(TacProg program) {
+        execute(prepare(program));
+    }
 
-            for (var item : vtbl.getItems()) {
-                _memory.store(_label_to_addr.get(item.name), addr, offset);
-                offset += 4;
+    /**
+     * Execute a prepared TAC program.
+     * <p>
+     * A simulator holds the state of one run, i.e. heap, call stack and I/O. Hence, to run a program concurrently,
+     * use one simulator per thread.
+     *
+     * @param exe executable image
+     */
+    public void execute(Executable exe) {
+        // Initialize
+        _exe = exe;
+        _memory = new Heap(_options.heapLimit, _options.gc ? this::scanRoots : null);
+        _strings = new ArrayList<>();
+        _string_index = new HashMap<>();
+        _stack = new int[1024];
+        _sp = 0;
+        _args = new int[8];
+        _argc = 0;
+        _count = 0;
+        _depth = 0;
+        _allocations = 0;
+        _bytes_allocated = 0;
+        _pc_counts = (_options.stats || _options.profile) ? new long[exe.size()] : null;
+        _stats = null;
+        _call_targets = _options.profile ? new long[exe.size()][] : null;
+        _alloc_bytes = _options.profile ? new long[exe.size()] : null;
+        _profile = null;
+        _invocations = new int[exe.funcs.length];
+        _backedges = new int[exe.funcs.length];
+        _compiled = new Jit.Code[exe.funcs.length];
+
+        // Allocate and fill in vtables
+        for (var i = 0; i < exe.vtableAddr.length; i++) {
+            var words = exe.vtableWords[i];
+            var addr = _memory.alloc(words.length * 4);
+            if (addr != exe.vtableAddr[i]) {
+                throw new Error("Virtual table layout mismatch at " + addr);
+            }
+            for (var j = 0; j < words.length; j++) {
+                _memory.store(words[j], addr, j * 4);
             }
         }
 
-        // Initialize call stack and push the frame of main function
-        if (!_label_to_function.containsKey(FuncLabel.MAIN_LABEL.name)) {
-            throw new Error("No legal main function found");
-        }
-
-        var frame = new Frame(_label_to_function.get(FuncLabel.MAIN_LABEL.name));
-        _call_stack.push(frame);
-        _pc = _label_to_addr.get(FuncLabel.MAIN_LABEL.name);
-
-        // Execute
-        var executor = new InstrExecutor();
-        var count = 0;
-        _halt = false;
-
-        while (!_call_stack.isEmpty()) {
-            if (count >= 100000) {
-                throw new Error("Max instruction limitation 10,0000 exceeds, maybe your program cannot terminate?");
+        // Execute, starting from main function
+        var start = System.currentTimeMillis();
+        _deadline = _options.timeLimit == SimulatorOptions.UNBOUNDED ? Long.MAX_VALUE : start + _options.timeLimit;
+        _checkpoint = 0;
+        try {
+            invoke(exe.main);
+        } catch (Halt halt) {
+            // the program halts
+        } finally {
+            _io.flush();
+            if (_options.stats) {
+                _stats = new SimulatorStats(exe, _pc_counts, _invocations, _allocations, _bytes_allocated, _memory,
+                        System.currentTimeMillis() - start);
             }
-
-            if (_halt) {
-                return;
+            if (_options.profile) {
+                _profile = new SimulatorProfile(exe, _pc_counts, _invocations, _call_targets, _alloc_bytes);
             }
-
-            _instrs.get(_pc).accept(executor);
-            count++;
         }
     }
 
+    private final SimulatorOptions _options;
+
+    /**
+     * Linked program.
+     */
+    private Executable _exe;
+
     /**
      * IO.
      */
-    private final InputStream _in;
-    private final PrintWriter _out;
+    private final SimulatorIO _io;
 
     /**
      * Memory.
      */
-    private Memory _memory;
+    private Heap _memory;
 
     /**
-     * String pool: either constant or read from stdin.
+     * String pool: constant strings are interned at link time (see {@link Executable#strings}), and strings read from
+     * stdin are interned here, with indices following the constant ones. Equal strings always share the same index.
      */
-    private StringPool _string_pool;
+    private List<String> _strings;
+    private Map<String, Integer> _string_index;
 
     /**
-     * Look up a vtable's address in memory by its name.
+     * Call stack of interpreted functions. All frames live one after another in this single growable array. A frame
+     * whose temps start from {@code fp} looks like:
+     * <pre>
+     *     stack[fp - 3]            caller's fp, or -1 if the frame is entered from Java (main function, compiled code)
+     *     stack[fp - 2]            caller's address of the next instruction to be executed once the call returns
+     *     stack[fp - 1]            caller's index of the temp to write the return value, or -1 if it is discarded
+     *     stack[fp .. fp + n - 1]  values of the n local temps, the first ones being the arguments
+     * </pre>
+     * Frames of compiled functions live on the JVM stack instead.
      */
-    private Map<String, Integer> _vtable_to_addr;
+    private int[] _stack;
 
     /**
-     * Simulate instruction memory. The "address" is simply the index of this vector.
+     * Top of the call stack.
      */
-    private Vector<TacInstr> _instrs;
+    private int _sp;
 
     /**
-     * Look up a label's address in instruction memory by its name.
+     * Size of a frame header, i.e. the saved caller's state.
      */
-    private Map<String, Integer> _label_to_addr;
+    private static final int FRAME_HEADER = 3;
 
     /**
-     * Look up a function by its entry label.
+     * Temporarily save the actual arguments given by the PARM instruction. These will be erased once a new frame
+     * is created, or an intrinsic is called.
      */
-    private Map<String, TacFunc> _label_to_function;
+    private int[] _args;
+    private int _argc;
 
     /**
-     * Look up a function by the address of its entry instruction.
+     * Number of executed instructions.
      */
-    private Map<Integer, TacFunc> _addr_to_function;
+    private long _count;
 
     /**
-     * Call stack, consists of frames.
+     * Budget: maximum number of instructions to execute, and the wall-clock time (in milliseconds since the epoch)
+     * to stop at.
      */
-    private Stack<Frame> _call_stack;
+    private final long _max_instructions;
+    private long _deadline;
 
     /**
-     * Temporarily save the actual arguments given by the PARM instruction. These will be erased once a new stack
-     * is created.
+     * Check the budget again once this many instructions have been executed. Reading the clock is expensive, so it is
+     * only done every {@link #CLOCK_INTERVAL} instructions.
      */
-    private Vector<Integer> _actual_args;
+    private long _checkpoint;
+
+    private static final int CLOCK_INTERVAL = 1 << 16;
 
     /**
-     * Program counter: point to the address of the instruction being executed.
+     * Statistics: number of executions of every instruction (null if disabled), number of allocated blocks and
+     * bytes.
      */
-    private int _pc;
+    private long[] _pc_counts;
+    private long _allocations;
+    private long _bytes_allocated;
+
+    private SimulatorStats _stats;
 
     /**
-     * Halt signal.
+     * Profile: number of calls from every indirect call site (by address) to every function (by id), and number of
+     * bytes allocated at every allocation site (by address). Null if disabled.
      */
-    private boolean _halt;
+    private long[][] _call_targets;
+    private long[] _alloc_bytes;
+
+    private SimulatorProfile _profile;
 
     /**
-     * Stack frame.
+     * Compile hot functions? Statistics, profiles and garbage collection need every instruction to be interpreted.
      */
-    private class Frame {
-        /**
-         * The function entry.
-         */
-        final Label entry;
+    private final boolean _jit;
 
-        /**
-         * An array to store values of local temps.
-         */
-        int[] array;
+    /**
+     * Profiling counters of every function, for the JIT compiler.
+     */
+    private int[] _invocations;
+    private int[] _backedges;
 
-        /**
-         * Save: which temp to write the return value.
-         */
-        Temp retValDst;
+    /**
+     * Compiled code of every function, or null if it is not (yet) compiled.
+     */
+    private Jit.Code[] _compiled;
 
-        /**
-         * Save: the address of the next instruction to be executed once the function call returns.
-         */
-        int pcNext;
+    /**
+     * Number of Java-level invocations (compiled code, or nested interpreter loops) on the JVM stack.
+     */
+    private int _depth;
 
-        Frame(Label entry, int arraySize) {
-            this.entry = entry;
-            this.array = new int[arraySize];
-            var i = 0;
-            for (var arg : _actual_args) { // copy actual arguments
-                this.array[i] = arg;
-                i++;
+    /**
+     * Interpreter loop over the linked instruction memory.
+     * <p>
+     * Terminates when the frame at {@code fp}, which must be entered from Java, returns.
+     *
+     * @param fp where the temps of the frame start
+     * @param pc address of the first instruction to execute
+     * @return return value, or 0 if the function returns nothing
+     */
+    private int run(int fp, int pc) {
+        final var exe = _exe;
+        final var code = exe.code;
+        final var dispatch = exe.dispatch;
+        final var counts = _pc_counts;
+        var stack = _stack;
+
+        while (true) {
+            if (_count >= _checkpoint) {
+                checkpoint(0);
+            }
+            _count++;
+            if (counts != null) {
+                counts[pc]++;
             }
-            _actual_args.clear(); // it will save args for future calls
-        }
 
-        Frame(TacFunc func) {
-            this(func.entry, func.getUsedTempCount());
+            var i = pc * Opcodes.WIDTH;
+            var a = code[i + 1];
+            var b = code[i + 2];
+            var c = code[i + 3];
+            switch (dispatch[pc]) {
+                case Opcodes.NOP -> {
+                }
+                case Opcodes.ASSIGN -> stack[fp + a] = stack[fp + b];
+                case Opcodes.LOAD_VTBL, Opcodes.LOAD_IMM4, Opcodes.LOAD_STR_CONST -> stack[fp + a] = b;
+                case Opcodes.NEG -> stack[fp + a] = -stack[fp + b];
+                case Opcodes.LNOT -> stack[fp + a] = (stack[fp + b] == 0) ? 1 : 0;
+                case Opcodes.FUSED_IMM_BINARY, Opcodes.FUSED_IMM_BINARY_BRANCH -> {
+                    stack[fp + a] = b;
+                    if (_count >= _checkpoint) {
+                        break;
+                    }
+                    pc++;
+                    i += Opcodes.WIDTH;
+                    _count++;
+                    if (counts != null) {
+                        counts[pc]++;
+                    }
+                    stack[fp + code[i + 1]] = binary(code[i], stack[fp + code[i + 2]], stack[fp + code[i + 3]]);
+                    if (dispatch[pc - 1] == Opcodes.FUSED_IMM_BINARY || _count >= _checkpoint) {
+                        break;
+                    }
+                    pc++;
+                    i += Opcodes.WIDTH;
+                    _count++;
+                    if (counts != null) {
+                        counts[pc]++;
+                    }
+                    if ((stack[fp + code[i + 1]] == 0) == (code[i] == Opcodes.BEQZ)) {
+                        pc = code[i + 2];
+                        continue;
+                    }
+                }
+                case Opcodes.FUSED_BINARY_BRANCH -> {
+                    stack[fp + a] = binary(code[i], stack[fp + b], stack[fp + c]);
+                    if (_count >= _checkpoint) {
+                        break;
+                    }
+                    pc++;
+                    i += Opcodes.WIDTH;
+                    _count++;
+                    if (counts != null) {
+                        counts[pc]++;
+                    }
+                    if ((stack[fp + code[i + 1]] == 0) == (code[i] == Opcodes.BEQZ)) {
+                        pc = code[i + 2];
+                        continue;
+                    }
+                }
+                case Opcodes.FUSED_LOAD_LOAD -> {
+                    stack[fp + a] = _memory.load(stack[fp + b], c);
+                    if (_count >= _checkpoint) {
+                        break;
+                    }
+                    pc++;
+                    i += Opcodes.WIDTH;
+                    _count++;
+                    if (counts != null) {
+                        counts[pc]++;
+                    }
+                    stack[fp + code[i + 1]] = _memory.load(stack[fp + code[i + 2]], code[i + 3]);
+                }
+                case Opcodes.FUSED_PARMS -> {
+                    parm(stack[fp + a]);
+                    while (code[i + Opcodes.WIDTH] == Opcodes.PARM && _count < _checkpoint) {
+                        pc++;
+                        i += Opcodes.WIDTH;
+                        _count++;
+                        if (counts != null) {
+                            counts[pc]++;
+                        }
+                        parm(stack[fp + code[i + 1]]);
+                    }
+                }
+                case Opcodes.ADD -> stack[fp + a] = stack[fp + b] + stack[fp + c];
+                case Opcodes.SUB -> stack[fp + a] = stack[fp + b] - stack[fp + c];
+                case Opcodes.MUL -> stack[fp + a] = stack[fp + b] * stack[fp + c];
+                case Opcodes.DIV -> stack[fp + a] = stack[fp + b] / stack[fp + c];
+                case Opcodes.MOD -> stack[fp + a] = stack[fp + b] % stack[fp + c];
+                case Opcodes.EQU -> stack[fp + a] = (stack[fp + b] == stack[fp + c]) ? 1 : 0;
+                case Opcodes.NEQ -> stack[fp + a] = (stack[fp + b] != stack[fp + c]) ? 1 : 0;
+                case Opcodes.LES -> stack[fp + a] = (stack[fp + b] < stack[fp + c]) ? 1 : 0;
+                case Opcodes.LEQ -> stack[fp + a] = (stack[fp + b] <= stack[fp + c]) ? 1 : 0;
+                case Opcodes.GTR -> stack[fp + a] = (stack[fp + b] > stack[fp + c]) ? 1 : 0;
+                case Opcodes.GEQ -> stack[fp + a] = (stack[fp + b] >= stack[fp + c]) ? 1 : 0;
+                case Opcodes.LAND -> stack[fp + a] = (stack[fp + b] == 0) ? 0 : (stack[fp + c] == 0) ? 0 : 1;
+                case Opcodes.LOR -> stack[fp + a] = (stack[fp + b] != 0) ? 1 : (stack[fp + c] == 0) ? 0 : 1;
+                case Opcodes.LOAD -> stack[fp + a] = _memory.load(stack[fp + b], c);
+                case Opcodes.STORE -> _memory.store(stack[fp + a], stack[fp + b], c);
+                case Opcodes.PARM -> parm(stack[fp + a]);
+                case Opcodes.BRANCH -> {
+                    if (a <= pc) { // back edge: maybe continue the loop in compiled code
+                        var jitted = hotLoop(exe.funcOf[pc]);
+                        if (jitted != null) {
+                            _depth++;
+                            var value = jitted.invoke(_runtime, stack, fp, a);
+                            _depth--;
+                            stack = _stack;
+
+                            // The compiled code completes the function
+                            pc = stack[fp - 2];
+                            fp = leave(fp, value);
+                            if (fp < 0) {
+                                return value;
+                            }
+                            continue;
+                        }
+                    }
+                    pc = a;
+                    continue;
+                }
+                case Opcodes.BEQZ -> {
+                    if (stack[fp + a] == 0) {
+                        pc = b;
+                        continue;
+                    }
+                }
+                case Opcodes.BNEZ -> {
+                    if (stack[fp + a] != 0) {
+                        pc = b;
+                        continue;
+                    }
+                }
+                case Opcodes.DIRECT_CALL, Opcodes.DIRECT_CALL_VOID,
+                        Opcodes.INDIRECT_CALL, Opcodes.INDIRECT_CALL_VOID -> {
+                    // Find the callee
+                    var hasDst = code[i] == Opcodes.DIRECT_CALL || code[i] == Opcodes.INDIRECT_CALL;
+                    var target = hasDst ? b : a;
+                    var func = switch (code[i]) {
+                        case Opcodes.DIRECT_CALL, Opcodes.DIRECT_CALL_VOID -> target;
+                        default -> funcAt(stack[fp + target]);
+                    };
+                    if (func < 0) {
+                        throw new Error("Call to an undefined function at " + pc);
+                    }
+                    if (_call_targets != null
+                            && (code[i] == Opcodes.INDIRECT_CALL || code[i] == Opcodes.INDIRECT_CALL_VOID)) {
+                        profileCall(pc, func);
+                    }
+
+                    var jitted = hot(func);
+                    if (jitted != null) { // invoke compiled code
+                        var value = enter(jitted, func);
+                        stack = _stack;
+                        if (hasDst) {
+                            stack[fp + a] = value;
+                        }
+                        break;
+                    }
+
+                    // Create callee's frame, and save caller's state into its header
+                    var callee = push(exe.funcTemps[func]);
+                    stack = _stack;
+                    stack[callee - 3] = fp;
+                    stack[callee - 2] = pc + 1;
+                    stack[callee - 1] = hasDst ? a : -1;
+
+                    // Invoke
+                    fp = callee;
+                    pc = exe.funcEntry[func];
+                    continue;
+                }
+                case Opcodes.INTRINSIC_CALL, Opcodes.INTRINSIC_CALL_VOID -> {
+                    var hasDst = code[i] == Opcodes.INTRINSIC_CALL;
+                    if (_alloc_bytes != null && (hasDst ? b : a) == Intrinsic.Opcode.ALLOCATE.ordinal()) {
+                        _alloc_bytes[pc] += _args[0];
+                    }
+                    var retVal = intrinsic(hasDst ? b : a);
+                    if (hasDst) {
+                        stack[fp + a] = retVal;
+                    }
+                }
+                case Opcodes.RETURN, Opcodes.RETURN_VOID -> {
+                    var value = code[i] == Opcodes.RETURN ? stack[fp + a] : 0;
+                    pc = stack[fp - 2];
+                    fp = leave(fp, code[i] == Opcodes.RETURN ? value : 0);
+                    if (fp < 0) {
+                        return value;
+                    }
+                    continue;
+                }
+                default -> throw new Error("Illegal instruction at " + pc);
+            }
+            pc++;
         }
     }
 
     /**
-     * Instruction executor.
+     * Compute a binary operation.
+     *
+     * @param opcode binary opcode
+     * @param lhs    left-hand side
+     * @param rhs    right-hand side
+     * @return result
      */
-    private class InstrExecutor implements TacInstr.Visitor {
-        @Override
-        public void visitAssign(TacInstr.Assign instr) {
-            var frame = _call_stack.peek();
-            frame.array[instr.dst.index] = frame.array[instr.src.index];
+    private static int binary(int opcode, int lhs, int rhs) {
+        return switch (opcode) {
+            case Opcodes.ADD -> lhs + rhs;
+            case Opcodes.SUB -> lhs - rhs;
+            case Opcodes.MUL -> lhs * rhs;
+            case Opcodes.DIV -> lhs / rhs;
+            case Opcodes.MOD -> lhs % rhs;
+            case Opcodes.EQU -> (lhs == rhs) ? 1 : 0;
+            case Opcodes.NEQ -> (lhs != rhs) ? 1 : 0;
+            case Opcodes.LES -> (lhs < rhs) ? 1 : 0;
+            case Opcodes.LEQ -> (lhs <= rhs) ? 1 : 0;
+            case Opcodes.GTR -> (lhs > rhs) ? 1 : 0;
+            case Opcodes.GEQ -> (lhs >= rhs) ? 1 : 0;
+            case Opcodes.LAND -> (lhs == 0) ? 0 : (rhs == 0) ? 0 : 1;
+            default -> (lhs != 0) ? 1 : (rhs == 0) ? 0 : 1;
+        };
+    }
 
-            _pc++;
+    /**
+     * Create a frame on top of the call stack, with the actual arguments copied into its first temps and the rest
+     * cleared. The frame header is left for the caller to fill in.
+     *
+     * @param temps number of temps
+     * @return where the temps of the new frame start
+     */
+    private int push(int temps) {
+        var fp = _sp + FRAME_HEADER;
+        var sp = fp + Math.max(temps, _argc);
+        reserve(sp);
+        System.arraycopy(_args, 0, _stack, fp, _argc);
+        Arrays.fill(_stack, fp + _argc, sp, 0);
+        _argc = 0; // it will save args for future calls
+        _sp = sp;
+        return fp;
+    }
+
+    /**
+     * Destroy the frame on top of the call stack, and pass the return value to the caller.
+     *
+     * @param fp    where the temps of the frame start
+     * @param value return value
+     * @return caller's fp, or -1 if the frame is entered from Java
+     */
+    private int leave(int fp, int value) {
+        var caller = _stack[fp - 3];
+        var retValDst = _stack[fp - 1];
+        _sp = fp - FRAME_HEADER;
+        if (caller >= 0 && retValDst >= 0) {
+            _stack[caller + retValDst] = value;
         }
+        return caller;
+    }
 
-        @Override
-        public void visitLoadVTbl(TacInstr.LoadVTbl instr) {
-            var frame = _call_stack.peek();
-            frame.array[instr.dst.index] = _vtable_to_addr.get(instr.vtbl.label.name);
+    private void reserve(int size) {
+        if (size > _stack.length) {
+            _stack = Arrays.copyOf(_stack, Math.max(size, _stack.length * 2));
+        }
+    }
 
-            _pc++;
+    /**
+     * Roots of the garbage collector: the temps of all frames on the call stack, and the virtual tables. Frame headers
+     * are scanned too, for simplicity: like any other integer, they may only keep some garbage alive.
+     *
+     * @param heap the heap being collected
+     */
+    private void scanRoots(Heap heap) {
+        for (var i = 0; i < _sp; i++) {
+            heap.mark(_stack[i]);
+        }
+        for (var addr : _exe.vtableAddr) {
+            heap.mark(addr);
         }
+    }
 
-        @Override
-        public void visitLoadImm4(TacInstr.LoadImm4 instr) {
-            var frame = _call_stack.peek();
-            frame.array[instr.dst.index] = instr.value;
+    /**
+     * Run the frame on top of the call stack in a nested interpreter loop.
+     *
+     * @param fp where the temps of the frame start
+     * @param pc address of the first instruction to execute
+     * @return return value
+     */
+    private int nested(int fp, int pc) {
+        _stack[fp - 3] = -1;
+        _stack[fp - 2] = -1;
+        _stack[fp - 1] = -1;
+        _depth++;
+        var value = run(fp, pc);
+        _depth--;
+        return value;
+    }
 
-            _pc++;
+    /**
+     * Invoke a function with the actual arguments given by the PARM instructions, in either way.
+     *
+     * @param func function id
+     * @return return value, or 0 if the function returns nothing
+     */
+    private int invoke(int func) {
+        var jitted = hot(func);
+        if (jitted != null) {
+            return enter(jitted, func);
         }
+        return nested(push(_exe.funcTemps[func]), _exe.funcEntry[func]);
+    }
 
-        @Override
-        public void visitLoadStrConst(TacInstr.LoadStrConst instr) {
-            var frame = _call_stack.peek();
-            var index = _string_pool.add(instr.value);
-            frame.array[instr.dst.index] = index;
-
-            _pc++;
+    /**
+     * Invoke the compiled code of a function with the actual arguments given by the PARM instructions.
+     */
+    private int enter(Jit.Code jitted, int func) {
+        var temps = _exe.funcTemps[func];
+        if (_args.length < temps) {
+            _args = Arrays.copyOf(_args, temps);
+        }
+        if (_argc < temps) {
+            Arrays.fill(_args, _argc, temps, 0);
         }
+        _argc = 0;
 
-        @Override
-        public void visitUnary(TacInstr.Unary instr) {
-            var frame = _call_stack.peek();
-            int operand = frame.array[instr.operand.index];
-            frame.array[instr.dst.index] = switch (instr.op) {
-                case NEG -> -operand;
-                case LNOT -> (operand == 0) ? 1 : 0;
-            };
+        _depth++;
+        var value = jitted.invoke(_runtime, _args, 0, _exe.funcEntry[func]);
+        _depth--;
+        return value;
+    }
 
-            _pc++;
+    /**
+     * Check the budget before executing more instructions, and decide when to check it again.
+     *
+     * @param size number of instructions to execute
+     * @throws Error if the budget is exhausted
+     */
+    private void checkpoint(int size) {
+        if (_count + Math.max(size, 1) > _max_instructions) {
+            throw new Error(String.format("Max instruction limitation %d exceeds, maybe your program cannot terminate?",
+                    _max_instructions));
+        }
+        if (_deadline != Long.MAX_VALUE) {
+            if (System.currentTimeMillis() > _deadline) {
+                throw new Error(String.format("Time limitation %d ms exceeds, maybe your program cannot terminate?",
+                        _options.timeLimit));
+            }
+            _checkpoint = Math.min(_max_instructions, _count + size + CLOCK_INTERVAL);
+        } else {
+            _checkpoint = _max_instructions;
         }
+    }
 
-        @Override
-        public void visitBinary(TacInstr.Binary instr) {
-            var frame = _call_stack.peek();
-            var lhs = frame.array[instr.lhs.index];
-            var rhs = frame.array[instr.rhs.index];
-            frame.array[instr.dst.index] = switch (instr.op) {
-                case ADD -> lhs + rhs;
-                case SUB -> lhs - rhs;
-                case MUL -> lhs * rhs;
-                case DIV -> lhs / rhs;
-                case MOD -> lhs % rhs;
-                case EQU -> (lhs == rhs) ? 1 : 0;
-                case NEQ -> (lhs != rhs) ? 1 : 0;
-                case LES -> (lhs < rhs) ? 1 : 0;
-                case LEQ -> (lhs <= rhs) ? 1 : 0;
-                case GTR -> (lhs > rhs) ? 1 : 0;
-                case GEQ -> (lhs >= rhs) ? 1 : 0;
-                case LAND -> (lhs == 0) ? 0 : (rhs == 0) ? 0 : 1;
-                case LOR -> (lhs != 0) ? 1 : (rhs == 0) ? 0 : 1;
-            };
-
-            _pc++;
+    /**
+     * Count an invocation of a function, and compile it if it becomes hot.
+     *
+     * @return compiled code to run, or null if the function should be interpreted
+     */
+    private Jit.Code hot(int func) {
+        var jitted = _compiled[func];
+        if (jitted == null && ++_invocations[func] == Jit.INVOKE_THRESHOLD && _jit) {
+            jitted = _compiled[func] = compile(func);
         }
+        return _depth < Jit.MAX_DEPTH ? jitted : null;
+    }
 
-        @Override
-        public void visitBranch(TacInstr.Branch instr) {
-            _pc = _label_to_addr.get(instr.target.name);
+    /**
+     * Count a back edge in a function, and compile it if it becomes hot.
+     *
+     * @return compiled code to run, or null if the function should be interpreted
+     */
+    private Jit.Code hotLoop(int func) {
+        var jitted = _compiled[func];
+        if (jitted == null && ++_backedges[func] == Jit.BACKEDGE_THRESHOLD && _jit) {
+            jitted = _compiled[func] = compile(func);
         }
+        return _depth < Jit.MAX_DEPTH ? jitted : null;
+    }
 
-        @Override
-        public void visitCondBranch(TacInstr.CondBranch instr) {
-            var frame = _call_stack.peek();
-            var jump = switch (instr.op) {
-                case BEQZ -> frame.array[instr.cond.index] == 0;
-                case BNEZ -> frame.array[instr.cond.index] != 0;
-            };
-
-            if (jump) {
-                _pc = _label_to_addr.get(instr.target.name);
-            } else {
-                _pc++;
-            }
+    /**
+     * Count a call from an indirect call site.
+     *
+     * @param pc   address of the call site
+     * @param func callee's function id
+     */
+    private void profileCall(int pc, int func) {
+        var targets = _call_targets[pc];
+        if (targets == null) {
+            targets = _call_targets[pc] = new long[_exe.funcs.length];
         }
+        targets[func]++;
+    }
 
-        @Override
-        public void visitReturn(TacInstr.Return instr) {
-            var value = instr.value.map(temp -> _call_stack.peek().array[temp.index]);
-            returnWith(value);
+    private int intern(String str) {
+        var index = _exe.stringIndex.get(str);
+        if (index == null) {
+            index = _string_index.get(str);
+            if (index == null) {
+                index = _exe.strings.size() + _strings.size();
+                _strings.add(str);
+                _string_index.put(str, index);
+            }
         }
+        return index;
+    }
 
-        private void returnWith(Optional<Integer> value) {
-            // Destroy the callee's frame
-            _call_stack.pop();
+    private String string(int index) {
+        var constants = _exe.strings.size();
+        return index < constants ? _exe.strings.get(index) : _strings.get(index - constants);
+    }
 
-            // Recover caller's state, if the caller exists
-            if (!_call_stack.isEmpty()) {
-                var frame = _call_stack.peek();
-                value.ifPresent(v -> frame.array[frame.retValDst.index] = v);
-                _pc = _call_stack.peek().pcNext;
-            } // else: the entire program terminates
+    /**
+     * Get the compiled code of a function, compiling it if no simulator running the same program has done so.
+     *
+     * @return compiled code, or null if the function cannot be compiled
+     */
+    private Jit.Code compile(int func) {
+        var jitted = _exe.compiled.get(func);
+        if (jitted == null) {
+            jitted = Jit.compile(_exe, func);
+            if (jitted == null) {
+                jitted = Jit.UNCOMPILABLE;
+            }
+            var witness = _exe.compiled.compareAndExchange(func, null, jitted);
+            if (witness != null) {
+                jitted = witness;
+            }
         }
+        return jitted == Jit.UNCOMPILABLE ? null : jitted;
+    }
 
-        @Override
-        public void visitParm(TacInstr.Parm instr) {
-            var frame = _call_stack.peek();
-            _actual_args.add(frame.array[instr.value.index]);
+    private int funcAt(int addr) {
+        return (addr >= 0 && addr < _exe.funcAt.length) ? _exe.funcAt[addr] : -1;
+    }
 
-            _pc++;
-        }
+    // The following are the entries for compiled code, see Jit.
 
+    /**
+     * Compiled code reaches the entries through this.
+     */
+    private final Jit.Runtime _runtime = new Jit.Runtime() {
         @Override
-        public void visitIndirectCall(TacInstr.IndirectCall instr) {
-            // Save caller's state
-            var frame = _call_stack.peek();
-            frame.pcNext = _pc + 1;
-            frame.retValDst = instr.dst.orElse(null);
+        public boolean tick(int size) {
+            return Simulator.this.tick(size);
+        }
 
-            // Create callee's frame and invoke
-            var addr = frame.array[instr.entry.index];
-            var func = _addr_to_function.get(addr);
-            _call_stack.push(new Frame(func));
-            _pc = addr;
+        @Override
+        public int deopt(int func, int pc, int[] temps) {
+            return Simulator.this.deopt(func, pc, temps);
         }
 
         @Override
-        public void visitDirectCall(TacInstr.DirectCall instr) {
-            // Save caller's state
-            var frame = _call_stack.peek();
-            frame.pcNext = _pc + 1;
-            frame.retValDst = instr.dst.orElse(null);
-
-            // Create callee's frame and invoke
-            if (instr.entry.isIntrinsic()) { // special: call intrinsic
-                var il = (IntrinsicLabel) instr.entry;
-                _call_stack.push(new Frame(il, 2));
-                callIntrinsic(il.opcode);
-            } else {
-                var func = _label_to_function.get(instr.entry.name);
-                _call_stack.push(new Frame(func));
-                _pc = _label_to_addr.get(instr.entry.name);
-            }
+        public int load(int base, int offset) {
+            return Simulator.this.load(base, offset);
         }
 
-        private void callIntrinsic(Intrinsic.Opcode opcode) {
-            var frame = _call_stack.peek();
-            Optional<Integer> retVal = Optional.empty();
+        @Override
+        public void store(int value, int base, int offset) {
+            Simulator.this.store(value, base, offset);
+        }
 
-            switch (opcode) {
-                case ALLOCATE -> retVal = Optional.of(_memory.alloc(frame.array[0]));
-                case READ_LINE -> {
-                    var scanner = new Scanner(_in);
-                    var str = scanner.nextLine();
-                    assert str.length() <= 63;
-                    retVal = Optional.of(_string_pool.add(str));
-                }
-                case READ_INT -> {
-                    var scanner = new Scanner(_in);
-                    var value = scanner.nextInt();
-                    retVal = Optional.of(value);
-                }
-                case STRING_EQUAL -> retVal = Optional.of(frame.array[0] == frame.array[1] ? 1 : 0);
-                case PRINT_INT -> {
-                    _out.print(frame.array[0]);
-                    _out.flush();
-                }
-                case PRINT_STRING -> {
-                    _out.print(_string_pool.get(frame.array[0]));
-                    _out.flush();
-                }
-                case PRINT_BOOL -> {
-                    _out.print(frame.array[0] == 0 ? "false" : "true");
-                    _out.flush();
-                }
-                case HALT -> _halt = true;
-            }
+        @Override
+        public void parm(int value) {
+            Simulator.this.parm(value);
+        }
 
-            returnWith(retVal);
+        @Override
+        public int call(int func, int pc) {
+            return Simulator.this.call(func, pc);
         }
 
         @Override
-        public void visitMemory(TacInstr.Memory instr) {
-            var frame = _call_stack.peek();
-            int base = frame.array[instr.base.index];
-            int offset = instr.offset;
-            switch (instr.op) {
-                case LOAD -> frame.array[instr.dst.index] = _memory.load(base, offset);
-                case STORE -> _memory.store(frame.array[instr.dst.index], base, offset);
-            }
+        public int callIndirect(int addr, int pc) {
+            return Simulator.this.callIndirect(addr, pc);
+        }
 
-            _pc++;
+        @Override
+        public int intrinsic(int opcode) {
+            return Simulator.this.intrinsic(opcode);
         }
-    }
+    };
 
     /**
-     * Memory.
+     * Charge a basic block to the instruction budget.
+     *
+     * @param size number of instructions in the block
+     * @return true if the entire block can be executed, or else the caller must fall back to the interpreter
      */
-    private class Memory {
-        /**
-         * Don't start from address 0, because 0 is reserved as the null pointer.
-         */
-        private int currentSize = 4;
-
-        private class Block implements Comparable<Block> {
-
-            public int start;
-
-            public int[] mem;
-
-            @Override
-            public int compareTo(Block o) {
-                return start > o.start ? 1 : start == o.start ? 0 : -1;
+    boolean tick(int size) {
+        if (_count + size > _checkpoint) {
+            if (_count + size > _max_instructions) {
+                return false;
             }
+            checkpoint(size);
         }
+        _count += size;
+        return true;
+    }
 
-        /**
-         * A heap is a list of memory blocks. It stores the actual data.
-         */
-        private List<Block> heap = new ArrayList<>();
-
-        /**
-         * Allocate memory in bytes.
-         *
-         * @param size the size in bytes.
-         * @return the starting address of the allocated memory block
-         */
-        public int alloc(int size) {
-            if (size < 0) {
-                throw new Error("Memory allocation error: negative size " + size);
-            }
+    int load(int base, int offset) {
+        return _memory.load(base, offset);
+    }
 
-            if (size % 4 != 0) {
-                size += 4 - (size % 4);
-            }
+    void store(int value, int base, int offset) {
+        _memory.store(value, base, offset);
+    }
 
-            size /= 4;
-            Block block = new Block();
-            block.start = currentSize;
-            currentSize += size;
-            block.mem = new int[size];
-            heap.add(block);
-            return block.start * 4;
+    void parm(int value) {
+        if (_argc == _args.length) {
+            _args = Arrays.copyOf(_args, _argc * 2);
         }
+        _args[_argc++] = value;
+    }
 
-        private Block checkHeapAccess(int base, int offset) {
-            if (base <= 0) {
-                throw new Error("Null pointer exception");
-            }
+    int call(int func, int pc) {
+        if (func < 0) {
+            throw new Error("Call to an undefined function at " + pc);
+        }
+        return invoke(func);
+    }
 
-            if (base % 4 != 0) {
-                throw new Error("Base address not aligned: " + base);
-            }
+    int callIndirect(int addr, int pc) {
+        return call(funcAt(addr), pc);
+    }
 
-            if (offset % 4 != 0) {
-                throw new Error("Offset not aligned: " + base);
-            }
+    int intrinsic(int opcode) {
+        var op = Intrinsic.Opcode.values()[opcode];
+        if (op.equals(Intrinsic.Opcode.HALT)) {
+            throw Halt.INSTANCE;
+        }
+        return callIntrinsic(op);
+    }
+
+    /**
+     * Fall back to the interpreter, in the middle of a compiled function.
+     *
+     * @param func  function id
+     * @param pc    address of the next instruction to execute
+     * @param temps values of temps
+     * @return return value, or 0 if the function returns nothing
+     */
+    int deopt(int func, int pc, int[] temps) {
+        var fp = _sp + FRAME_HEADER;
+        var sp = fp + temps.length;
+        reserve(sp);
+        System.arraycopy(temps, 0, _stack, fp, temps.length);
+        _sp = sp;
+        return nested(fp, pc);
+    }
 
-            base /= 4;
-            offset /= 4;
-            if (base >= currentSize) {
-                throw new Error(String.format("Memory access out of bound %d", base * 4));
+    /**
+     * Call an intrinsic with the actual arguments given by the PARM instructions.
+     *
+     * @param opcode intrinsic opcode
+     * @return return value, or 0 if the intrinsic returns nothing
+     */
+    private int callIntrinsic(Intrinsic.Opcode opcode) {
+        var args = _args;
+        if (_argc < 2) {
+            Arrays.fill(args, _argc, 2, 0);
+        }
+        _argc = 0;
+
+        var retVal = 0;
+        switch (opcode) {
+            case ALLOCATE -> {
+                retVal = _memory.alloc(args[0]);
+                _allocations++;
+                _bytes_allocated += args[0];
             }
-            Block temp = new Block();
-            temp.start = base;
-            int index = Collections.binarySearch(heap, temp);
-            Block block = index >= 0 ? heap.get(index) : heap.get(-index - 2);
-            int accessIndex = base - block.start + offset;
-            if (accessIndex < 0 || accessIndex >= block.mem.length) {
-                throw new Error(String.format("Memory access out of bound %d", base * 4 + offset * 4));
+            case READ_LINE -> {
+                var str = _io.readLine();
+                assert str.length() <= 63;
+                retVal = intern(str);
             }
-            return block;
+            case READ_INT -> retVal = _io.readInt();
+            case STRING_EQUAL -> retVal = args[0] == args[1] ? 1 : 0;
+            case PRINT_INT -> _io.print(Integer.toString(args[0]));
+            case PRINT_STRING -> _io.print(string(args[0]));
+            case PRINT_BOOL -> _io.print(args[0] == 0 ? "false" : "true");
         }
+        return retVal;
+    }
 
-        public int load(int base, int offset) {
-            Block block = checkHeapAccess(base, offset);
-            return block.mem[base / 4 - block.start + offset / 4];
-        }
+    /**
+     * Thrown to unwind everything when the program halts.
+     */
+    private static class Halt extends RuntimeException {
+        private static final long serialVersionUID = 1L;
 
-        public void store(int value, int base, int offset) {
-            Block block = checkHeapAccess(base, offset);
-            block.mem[base / 4 - block.start + offset / 4] = value;
+        static final Halt INSTANCE = new Halt();
+
+        private Halt() {
+            super(null, null, false, false);
         }
     }
 
-    private static class Error extends RuntimeException {
+    static class Error extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
         Error(String msg) {
             super("In simulator: " + msg);
         }
@@ -0,0 +1,158 @@
+package decaf.lowlevel.tac;
+
+import java.io.*;
+
+/**
+ * I/O of the simulator, i.e. what the intrinsics read from stdin and write to stdout.
+ * <p>
+ * Input is read through one buffered tokenizing reader, which lives as long as the simulator, so nothing buffered is
+ * lost between two reads. Output is buffered, and flushed only when the program halts, when the main function
+ * returns, or on demand. In interactive mode, output is also flushed after every line, and before every read so that
+ * prompts are visible.
+ */
+final class SimulatorIO {
+    private final Reader in;
+
+    private final Writer out;
+
+    private final boolean interactive;
+
+    private final char[] buf = new char[8192];
+
+    private int pos = 0;
+
+    private int limit = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param in          stdin
+     * @param out         stdout
+     * @param interactive flush after every line?
+     */
+    SimulatorIO(InputStream in, OutputStream out, boolean interactive) {
+        this.in = new InputStreamReader(in);
+        this.out = new BufferedWriter(new OutputStreamWriter(out), 1 << 16);
+        this.interactive = interactive;
+    }
+
+    /**
+     * Read an integer: skip whitespaces, read a token, and parse it. If nothing but whitespaces follows on the same
+     * line, that line is consumed too, so that a subsequent {@link #readLine} starts from the next line.
+     *
+     * @return the integer
+     */
+    int readInt() {
+        prepareRead();
+
+        int c;
+        while ((c = peek()) >= 0 && Character.isWhitespace(c)) {
+            pos++;
+        }
+        if (c < 0) {
+            throw new Simulator.Error("Unexpected end of input");
+        }
+
+        var token = new StringBuilder();
+        while ((c = peek()) >= 0 && !Character.isWhitespace(c)) {
+            token.append((char) c);
+            pos++;
+        }
+
+        while ((c = peek()) >= 0 && c != '\n' && Character.isWhitespace(c)) {
+            pos++;
+        }
+        if (c == '\n') {
+            pos++;
+        }
+
+        try {
+            return Integer.parseInt(token.toString());
+        } catch (NumberFormatException e) {
+            throw new Simulator.Error("Invalid integer input: " + token);
+        }
+    }
+
+    /**
+     * Read a line, without the line terminator.
+     *
+     * @return the line
+     */
+    String readLine() {
+        prepareRead();
+
+        if (peek() < 0) {
+            throw new Simulator.Error("Unexpected end of input");
+        }
+
+        var line = new StringBuilder();
+        int c;
+        while ((c = peek()) >= 0) {
+            pos++;
+            if (c == '\n') {
+                break;
+            }
+            line.append((char) c);
+        }
+
+        var length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r') {
+            line.setLength(length - 1);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Print a string.
+     *
+     * @param str the string
+     */
+    void print(String str) {
+        try {
+            out.write(str);
+            if (interactive && str.indexOf('\n') >= 0) {
+                out.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Flush the output.
+     */
+    void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void prepareRead() {
+        if (interactive) {
+            flush();
+        }
+    }
+
+    /**
+     * Look at the next character without consuming it.
+     *
+     * @return the character, or -1 at the end of input
+     */
+    private int peek() {
+        if (pos == limit) {
+            try {
+                limit = in.read(buf, 0, buf.length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            pos = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buf[pos];
+    }
+}
@@ -0,0 +1,152 @@
+package decaf.lowlevel.tac;
+
+/**
+ * Options of the TAC simulator.
+ */
+public final class SimulatorOptions {
+    /**
+     * Maximum number of instructions to execute, or {@link #UNBOUNDED}.
+     */
+    public final long maxInstructions;
+
+    /**
+     * Maximum wall-clock time to execute in milliseconds, or {@link #UNBOUNDED}.
+     */
+    public final long timeLimit;
+
+    /**
+     * Maximum size of the heap in bytes, or {@link #UNBOUNDED}. Allocating beyond it is an out of memory error.
+     */
+    public final long heapLimit;
+
+    /**
+     * Collect execution statistics? See {@link SimulatorStats}.
+     * <p>
+     * Statistics are collected by the interpreter, so this disables the JIT compiler.
+     */
+    public final boolean stats;
+
+    /**
+     * Collect an execution profile? See {@link SimulatorProfile}.
+     * <p>
+     * The profile is collected by the interpreter, so this disables the JIT compiler.
+     */
+    public final boolean profile;
+
+    /**
+     * Compile hot functions into JVM bytecode? See {@link Jit}.
+     */
+    public final boolean jit;
+
+    /**
+     * Reclaim unreachable memory blocks with a mark-sweep garbage collector? See {@link Heap}.
+     * <p>
+     * The collector finds its roots in the frames of the interpreter, so this disables the JIT compiler.
+     */
+    public final boolean gc;
+
+    /**
+     * Flush the output after every line, and before every read? Otherwise, output is flushed only when the program
+     * terminates.
+     */
+    public final boolean interactive;
+
+    /**
+     * No limit, for {@link #maxInstructions}, {@link #timeLimit} and {@link #heapLimit}.
+     */
+    public static final long UNBOUNDED = 0;
+
+    /**
+     * Default options: at most 100000 instructions, no time limit, no heap limit, no statistics, no profile, JIT
+     * enabled, no garbage collection, not interactive.
+     */
+    public static final SimulatorOptions DEFAULT = builder().build();
+
+    private SimulatorOptions(Builder builder) {
+        this.maxInstructions = builder.maxInstructions;
+        this.timeLimit = builder.timeLimit;
+        this.heapLimit = builder.heapLimit;
+        this.stats = builder.stats;
+        this.profile = builder.profile;
+        this.jit = builder.jit;
+        this.gc = builder.gc;
+        this.interactive = builder.interactive;
+    }
+
+    /**
+     * Start from the {@link #DEFAULT} options.
+     *
+     * @return builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Builder of simulator options, see the fields of {@link SimulatorOptions} for their meanings.
+     */
+    public static final class Builder {
+        private long maxInstructions = 100000;
+        private long timeLimit = UNBOUNDED;
+        private long heapLimit = UNBOUNDED;
+        private boolean stats = false;
+        private boolean profile = false;
+        private boolean jit = true;
+        private boolean gc = false;
+        private boolean interactive = false;
+
+        private Builder() {
+        }
+
+        public Builder maxInstructions(long maxInstructions) {
+            this.maxInstructions = checkLimit(maxInstructions);
+            return this;
+        }
+
+        public Builder timeLimit(long timeLimit) {
+            this.timeLimit = checkLimit(timeLimit);
+            return this;
+        }
+
+        public Builder heapLimit(long heapLimit) {
+            this.heapLimit = checkLimit(heapLimit);
+            return this;
+        }
+
+        public Builder stats(boolean stats) {
+            this.stats = stats;
+            return this;
+        }
+
+        public Builder profile(boolean profile) {
+            this.profile = profile;
+            return this;
+        }
+
+        public Builder jit(boolean jit) {
+            this.jit = jit;
+            return this;
+        }
+
+        public Builder gc(boolean gc) {
+            this.gc = gc;
+            return this;
+        }
+
+        public Builder interactive(boolean interactive) {
+            this.interactive = interactive;
+            return this;
+        }
+
+        public SimulatorOptions build() {
+            return new SimulatorOptions(this);
+        }
+
+        private static long checkLimit(long limit) {
+            if (limit < 0) {
+                throw new IllegalArgumentException("Negative limit: " + limit);
+            }
+            return limit;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package decaf.lowlevel.tac;
+
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Execution profile collected by the TAC simulator, when enabled by {@link SimulatorOptions#profile}.
+ * <p>
+ * Basic blocks are split at the same boundaries as {@link decaf.backend.dataflow.CFGBuilder} does, i.e. before every
+ * label except the function label, and after every jump, conditional jump and return, so that the id of a block here
+ * is the id of the same block in the control flow graph of the function. Call sites and allocation sites are located
+ * by the index of their instruction in {@link TacFunc#getInstrSeq}.
+ */
+public final class SimulatorProfile {
+    /**
+     * Profile of a function.
+     */
+    public static final class Function {
+        /**
+         * Function name, as printed in the TAC program.
+         */
+        public final String name;
+
+        /**
+         * Number of invocations.
+         */
+        public final long invocations;
+
+        /**
+         * Number of executed instructions.
+         */
+        public final long instructions;
+
+        /**
+         * Number of executions of every basic block, by block id. An empty block counts 0.
+         */
+        public final List<Long> blocks;
+
+        /**
+         * Every indirect call site that is ever executed, with the number of calls to every target.
+         */
+        public final List<CallSite> callSites;
+
+        /**
+         * Every allocation site that is ever executed.
+         */
+        public final List<AllocSite> allocSites;
+
+        Function(String name, long invocations, long instructions, List<Long> blocks, List<CallSite> callSites,
+                 List<AllocSite> allocSites) {
+            this.name = name;
+            this.invocations = invocations;
+            this.instructions = instructions;
+            this.blocks = Collections.unmodifiableList(blocks);
+            this.callSites = Collections.unmodifiableList(callSites);
+            this.allocSites = Collections.unmodifiableList(allocSites);
+        }
+    }
+
+    /**
+     * Profile of an indirect call site.
+     */
+    public static final class CallSite {
+        /**
+         * Index of the call instruction in the instruction sequence of its function.
+         */
+        public final int index;
+
+        /**
+         * Number of calls to every target function, by function name, most frequent first.
+         */
+        public final Map<String, Long> targets;
+
+        CallSite(int index, Map<String, Long> targets) {
+            this.index = index;
+            this.targets = Collections.unmodifiableMap(targets);
+        }
+    }
+
+    /**
+     * Profile of an allocation site, i.e. a call to the {@code ALLOCATE} intrinsic.
+     */
+    public static final class AllocSite {
+        /**
+         * Index of the call instruction in the instruction sequence of its function.
+         */
+        public final int index;
+
+        /**
+         * Number of allocations.
+         */
+        public final long count;
+
+        /**
+         * Number of bytes allocated.
+         */
+        public final long bytes;
+
+        AllocSite(int index, long count, long bytes) {
+            this.index = index;
+            this.count = count;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Profile of every function, by function name, in program order.
+     */
+    public final Map<String, Function> functions;
+
+    SimulatorProfile(Executable exe, long[] counts, int[] invocations, long[][] callTargets, long[] allocBytes) {
+        var functions = new LinkedHashMap<String, Function>();
+        for (var f = 0; f < exe.funcs.length; f++) {
+            var func = exe.funcs[f];
+            var blocks = new ArrayList<Long>();
+            var callSites = new ArrayList<CallSite>();
+            var allocSites = new ArrayList<AllocSite>();
+
+            var pc = exe.funcEntry[f];
+            var instructions = 0L;
+            var block = 0L;
+            var empty = true;
+            var index = 0;
+            for (var instr : func.getInstrSeq()) {
+                if (instr.isLabel()) {
+                    if (!instr.label.isFunc()) { // close the current block
+                        blocks.add(block);
+                        block = 0;
+                        empty = true;
+                    }
+                } else if (!(instr instanceof TacInstr.Memo)) {
+                    if (empty) {
+                        block = counts[pc];
+                        empty = false;
+                    }
+                    instructions += counts[pc];
+
+                    if (callTargets[pc] != null) {
+                        callSites.add(new CallSite(index, histogram(exe, callTargets[pc])));
+                    }
+                    if (isAllocation(exe, pc) && counts[pc] > 0) {
+                        allocSites.add(new AllocSite(index, counts[pc], allocBytes[pc]));
+                    }
+
+                    if (!instr.isSequential()) { // close the current block
+                        blocks.add(block);
+                        block = 0;
+                        empty = true;
+                    }
+                    pc++;
+                }
+                index++;
+            }
+
+            var name = func.entry.prettyString();
+            functions.put(name, new Function(name, invocations[f], instructions, blocks, callSites, allocSites));
+        }
+
+        this.functions = Collections.unmodifiableMap(functions);
+    }
+
+    private static boolean isAllocation(Executable exe, int pc) {
+        var i = pc * Opcodes.WIDTH;
+        var allocate = Intrinsic.Opcode.ALLOCATE.ordinal();
+        return switch (exe.code[i]) {
+            case Opcodes.INTRINSIC_CALL -> exe.code[i + 2] == allocate;
+            case Opcodes.INTRINSIC_CALL_VOID -> exe.code[i + 1] == allocate;
+            default -> false;
+        };
+    }
+
+    private static Map<String, Long> histogram(Executable exe, long[] calls) {
+        var targets = new ArrayList<Integer>();
+        for (var f = 0; f < calls.length; f++) {
+            if (calls[f] > 0) {
+                targets.add(f);
+            }
+        }
+        targets.sort((f1, f2) -> Long.compare(calls[f2], calls[f1]));
+
+        var histogram = new LinkedHashMap<String, Long>();
+        for (var f : targets) {
+            histogram.put(exe.funcs[f].entry.prettyString(), calls[f]);
+        }
+        return histogram;
+    }
+
+    /**
+     * Print in a line-based format, with whitespace-separated fields:
+     * <pre>
+     *     func  NAME INVOCATIONS INSTRUCTIONS
+     *     block NAME BLOCK_ID COUNT
+     *     call  NAME INDEX TARGET COUNT
+     *     alloc NAME INDEX COUNT BYTES
+     * </pre>
+     * Lines starting with {@code #} are comments.
+     *
+     * @param pw output
+     */
+    public void printTo(PrintWriter pw) {
+        pw.println("# func  NAME INVOCATIONS INSTRUCTIONS");
+        pw.println("# block NAME BLOCK_ID COUNT");
+        pw.println("# call  NAME INDEX TARGET COUNT");
+        pw.println("# alloc NAME INDEX COUNT BYTES");
+        for (var func : functions.values()) {
+            pw.printf("func %s %d %d%n", func.name, func.invocations, func.instructions);
+            for (var id = 0; id < func.blocks.size(); id++) {
+                pw.printf("block %s %d %d%n", func.name, id, func.blocks.get(id));
+            }
+            for (var site : func.callSites) {
+                site.targets.forEach((target, count) ->
+                        pw.printf("call %s %d %s %d%n", func.name, site.index, target, count));
+            }
+            for (var site : func.allocSites) {
+                pw.printf("alloc %s %d %d %d%n", func.name, site.index, site.count, site.bytes);
+            }
+        }
+        pw.flush();
+    }
+
+    /**
+     * Write to a file, in the format of {@link #printTo(PrintWriter)}. Failing to create the file is reported, but
+     * doesn't stop the compiler.
+     *
+     * @param path file path
+     */
+    public void writeTo(Path path) {
+        try (var printer = new PrintWriter(path.toFile())) {
+            printTo(printer);
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+        }
+    }
+}
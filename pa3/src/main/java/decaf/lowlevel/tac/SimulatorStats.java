@@ -0,0 +1,188 @@
+package decaf.lowlevel.tac;
+
+import java.io.PrintWriter;
+import java.util.*;
+
+/**
+ * Execution statistics collected by the TAC simulator, when enabled by {@link SimulatorOptions#stats}.
+ */
+public final class SimulatorStats {
+    /**
+     * Total number of executed instructions.
+     */
+    public final long instructions;
+
+    /**
+     * Number of executed instructions of every kind, i.e. the simple name of a {@link TacInstr} subclass.
+     */
+    public final Map<String, Long> instructionsByKind;
+
+    /**
+     * Number of executed instructions in every function, by function name.
+     */
+    public final Map<String, Long> instructionsByFunc;
+
+    /**
+     * Number of invocations of every function, by function name.
+     */
+    public final Map<String, Long> invocationsByFunc;
+
+    /**
+     * Number of calls to functions (not including intrinsics).
+     */
+    public final long calls;
+
+    /**
+     * Number of calls to intrinsics.
+     */
+    public final long intrinsicCalls;
+
+    /**
+     * Number of memory blocks allocated by the program.
+     */
+    public final long allocations;
+
+    /**
+     * Number of bytes allocated by the program.
+     */
+    public final long bytesAllocated;
+
+    /**
+     * Number of garbage collections, see {@link SimulatorOptions#gc}.
+     */
+    public final long collections;
+
+    /**
+     * Number of memory blocks and bytes freed by the garbage collector.
+     */
+    public final long collectedBlocks;
+    public final long collectedBytes;
+
+    /**
+     * Time spent in garbage collection in milliseconds.
+     */
+    public final long collectionTime;
+
+    /**
+     * Largest size the heap has grown to in bytes, including virtual tables.
+     */
+    public final long peakHeapSize;
+
+    /**
+     * Wall-clock execution time in milliseconds.
+     */
+    public final long elapsed;
+
+    SimulatorStats(Executable exe, long[] counts, int[] invocations, long allocations, long bytesAllocated, Heap heap,
+                   long elapsed) {
+        var byKind = new long[KINDS.length];
+        var byFunc = new long[exe.funcs.length];
+        var total = 0L;
+        var calls = 0L;
+        var intrinsicCalls = 0L;
+        for (var pc = 0; pc < counts.length; pc++) {
+            var count = counts[pc];
+            if (count == 0) {
+                continue;
+            }
+
+            var opcode = exe.code[pc * Opcodes.WIDTH];
+            total += count;
+            byKind[kindOf(opcode)] += count;
+            byFunc[exe.funcOf[pc]] += count;
+            switch (opcode) {
+                case Opcodes.DIRECT_CALL, Opcodes.DIRECT_CALL_VOID, Opcodes.INDIRECT_CALL,
+                        Opcodes.INDIRECT_CALL_VOID -> calls += count;
+                case Opcodes.INTRINSIC_CALL, Opcodes.INTRINSIC_CALL_VOID -> intrinsicCalls += count;
+            }
+        }
+
+        var instructionsByKind = new LinkedHashMap<String, Long>();
+        for (var k = 0; k < KINDS.length; k++) {
+            if (byKind[k] > 0) {
+                instructionsByKind.put(KINDS[k], byKind[k]);
+            }
+        }
+
+        // Hottest functions first
+        var funcs = new ArrayList<Integer>();
+        for (var f = 0; f < exe.funcs.length; f++) {
+            if (byFunc[f] > 0) {
+                funcs.add(f);
+            }
+        }
+        funcs.sort((f1, f2) -> Long.compare(byFunc[f2], byFunc[f1]));
+        var instructionsByFunc = new LinkedHashMap<String, Long>();
+        var invocationsByFunc = new LinkedHashMap<String, Long>();
+        for (var f : funcs) {
+            var name = exe.funcs[f].entry.prettyString();
+            instructionsByFunc.put(name, byFunc[f]);
+            invocationsByFunc.put(name, (long) invocations[f]);
+        }
+
+        this.instructions = total;
+        this.instructionsByKind = Collections.unmodifiableMap(instructionsByKind);
+        this.instructionsByFunc = Collections.unmodifiableMap(instructionsByFunc);
+        this.invocationsByFunc = Collections.unmodifiableMap(invocationsByFunc);
+        this.calls = calls;
+        this.intrinsicCalls = intrinsicCalls;
+        this.allocations = allocations;
+        this.bytesAllocated = bytesAllocated;
+        this.collections = heap.collections;
+        this.collectedBlocks = heap.collectedBlocks;
+        this.collectedBytes = heap.collectedBytes;
+        this.collectionTime = heap.collectionTime / 1000000;
+        this.peakHeapSize = heap.peakSize;
+        this.elapsed = elapsed;
+    }
+
+    private static final String[] KINDS = {
+            "Assign", "LoadVTbl", "LoadImm4", "LoadStrConst", "Unary", "Binary", "Branch", "CondBranch", "Return",
+            "Parm", "IndirectCall", "DirectCall", "Memory", "Other"
+    };
+
+    private static int kindOf(int opcode) {
+        return switch (opcode) {
+            case Opcodes.ASSIGN -> 0;
+            case Opcodes.LOAD_VTBL -> 1;
+            case Opcodes.LOAD_IMM4 -> 2;
+            case Opcodes.LOAD_STR_CONST -> 3;
+            case Opcodes.NEG, Opcodes.LNOT -> 4;
+            case Opcodes.ADD, Opcodes.SUB, Opcodes.MUL, Opcodes.DIV, Opcodes.MOD, Opcodes.EQU, Opcodes.NEQ,
+                    Opcodes.LES, Opcodes.LEQ, Opcodes.GTR, Opcodes.GEQ, Opcodes.LAND, Opcodes.LOR -> 5;
+            case Opcodes.BRANCH -> 6;
+            case Opcodes.BEQZ, Opcodes.BNEZ -> 7;
+            case Opcodes.RETURN, Opcodes.RETURN_VOID -> 8;
+            case Opcodes.PARM -> 9;
+            case Opcodes.INDIRECT_CALL, Opcodes.INDIRECT_CALL_VOID -> 10;
+            case Opcodes.DIRECT_CALL, Opcodes.DIRECT_CALL_VOID,
+                    Opcodes.INTRINSIC_CALL, Opcodes.INTRINSIC_CALL_VOID -> 11;
+            case Opcodes.LOAD, Opcodes.STORE -> 12;
+            default -> 13;
+        };
+    }
+
+    /**
+     * Pretty print.
+     *
+     * @param pw output
+     */
+    public void printTo(PrintWriter pw) {
+        pw.println("=== simulator statistics ===");
+        pw.printf("instructions:    %d%n", instructions);
+        pw.printf("calls:           %d%n", calls);
+        pw.printf("intrinsic calls: %d%n", intrinsicCalls);
+        pw.printf("allocations:     %d%n", allocations);
+        pw.printf("bytes allocated: %d%n", bytesAllocated);
+        pw.printf("peak heap size:  %d%n", peakHeapSize);
+        pw.printf("collections:     %d (%d blocks, %d bytes freed, %d ms)%n", collections, collectedBlocks,
+                collectedBytes, collectionTime);
+        pw.printf("elapsed:         %d ms%n", elapsed);
+        pw.println("--- by instruction kind ---");
+        instructionsByKind.forEach((kind, count) -> pw.printf("%-16s %d%n", kind, count));
+        pw.println("--- by function (instructions, invocations) ---");
+        instructionsByFunc.forEach((func, count) ->
+                pw.printf("%-32s %d %d%n", func, count, invocationsByFunc.get(func)));
+        pw.flush();
+    }
+}
@@ -1,10 +1,13 @@
 package decaf.lowlevel.tac;
 
+import decaf.lowlevel.instr.Temp;
 import decaf.lowlevel.label.FuncLabel;
+import decaf.lowlevel.label.Label;
 
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.TreeMap;
 
 public class TacFunc implements Comparable<TacFunc> {
     public final FuncLabel entry;
@@ -24,10 +27,57 @@ public class TacFunc implements Comparable<TacFunc> {
         return tempUsed;
     }
 
+    /**
+     * Create a fresh temp, for optimizations that introduce new values.
+     *
+     * @return temp
+     */
+    public Temp freshTemp() {
+        return new Temp(tempUsed++);
+    }
+
+    /**
+     * Create a fresh label, for optimizations that introduce new blocks.
+     * <p>
+     * Labels made by {@link FuncVisitor#freshLabel} are numbered across the whole program, which is long done when
+     * optimizing. Instead, these are named after the function, with a '.' which no identifier contains.
+     *
+     * @return label
+     */
+    public Label freshLabel() {
+        return new Label(String.format("%s.%d", entry.name, labelUsed++));
+    }
+
+    /**
+     * Renumber the temps, from 0 and in order of appearance, after an optimization leaves many of them unused. The
+     * temps of the arguments keep their numbers.
+     */
+    public void renumberTemps() {
+        var map = new TreeMap<Temp, Temp>();
+        for (var i = 0; i < numArgs; i++) {
+            map.put(new Temp(i), new Temp(i));
+        }
+        for (var instr : instrSeq) {
+            for (var temp : instr.dsts) {
+                if (temp != null) {
+                    map.computeIfAbsent(temp, t -> new Temp(map.size()));
+                }
+            }
+            for (var temp : instr.srcs) {
+                map.computeIfAbsent(temp, t -> new Temp(map.size()));
+            }
+        }
+
+        instrSeq.replaceAll(instr -> TempSubstitution.apply(instr, map::get));
+        tempUsed = map.size();
+    }
+
     List<TacInstr> instrSeq = new ArrayList<>();
 
     int tempUsed;
 
+    int labelUsed;
+
     void add(TacInstr instr) {
         instrSeq.add(instr);
     }
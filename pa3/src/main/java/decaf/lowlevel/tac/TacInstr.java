@@ -92,6 +92,10 @@ public abstract class TacInstr extends PseudoInstr {
             visitOthers(instr);
         }
 
+        default void visitPhi(Phi instr) {
+            visitOthers(instr);
+        }
+
         default void visitMemo(Memo instr) {
             visitOthers(instr);
         }
@@ -546,6 +550,43 @@ public abstract class TacInstr extends PseudoInstr {
         }
     }
 
+    /**
+     * φ-node, only present while a function is in SSA form (see {@link decaf.backend.dataflow.SSABuilder}): takes the
+     * value of the i-th source if control comes from the block labelled with the i-th label.
+     * <pre>
+     *     dst = phi [label_1: src_1, ..., label_n: src_n]
+     * </pre>
+     */
+    public static class Phi extends TacInstr {
+        public final Temp dst;
+        public final Label[] from;
+
+        public Phi(Temp dst, Temp[] srcs, Label[] from) {
+            super(new Temp[]{dst}, srcs);
+            this.dst = dst;
+            this.from = from;
+        }
+
+        @Override
+        public void accept(Visitor v) {
+            v.visitPhi(this);
+        }
+
+        @Override
+        public String toString() {
+            var sb = new StringBuilder();
+            sb.append(dst).append(" = phi [");
+            for (var i = 0; i < from.length; i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(from[i].prettyString()).append(": ").append(srcs[i]);
+            }
+            sb.append("]");
+            return sb.toString();
+        }
+    }
+
     /**
      * Comment.
      * <pre>
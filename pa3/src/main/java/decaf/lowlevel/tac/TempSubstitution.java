@@ -0,0 +1,132 @@
+package decaf.lowlevel.tac;
+
+import decaf.lowlevel.instr.Temp;
+
+import java.util.function.Function;
+
+/**
+ * Rebuild a TAC instruction with other temps, e.g. for renaming into SSA form, or for copy propagation.
+ * <p>
+ * Instructions are immutable, and their typed fields (such as {@link TacInstr.Binary#lhs}) must agree with the generic
+ * {@code dsts} and {@code srcs}, so a new instruction of the same kind is built.
+ */
+public class TempSubstitution implements TacInstr.Visitor {
+    /**
+     * Replace every temp of an instruction.
+     *
+     * @param instr instruction
+     * @param map   replacement of a temp
+     * @return the new instruction, or the same one if it has no temps
+     */
+    public static TacInstr apply(TacInstr instr, Function<Temp, Temp> map) {
+        var dsts = new Temp[instr.dsts.length];
+        for (var i = 0; i < dsts.length; i++) {
+            dsts[i] = instr.dsts[i] == null ? null : map.apply(instr.dsts[i]);
+        }
+        var srcs = new Temp[instr.srcs.length];
+        for (var i = 0; i < srcs.length; i++) {
+            srcs[i] = map.apply(instr.srcs[i]);
+        }
+        return apply(instr, dsts, srcs);
+    }
+
+    /**
+     * Replace the temps of an instruction, position by position.
+     *
+     * @param instr instruction
+     * @param dsts  new temps written, in the order of {@code instr.dsts}
+     * @param srcs  new temps read, in the order of {@code instr.srcs}
+     * @return the new instruction, or the same one if it has no temps
+     */
+    public static TacInstr apply(TacInstr instr, Temp[] dsts, Temp[] srcs) {
+        if (dsts.length == 0 && srcs.length == 0) {
+            return instr;
+        }
+        var substitution = new TempSubstitution(dsts, srcs);
+        instr.accept(substitution);
+        return substitution.result;
+    }
+
+    private final Temp[] dsts;
+    private final Temp[] srcs;
+    private TacInstr result;
+
+    private TempSubstitution(Temp[] dsts, Temp[] srcs) {
+        this.dsts = dsts;
+        this.srcs = srcs;
+    }
+
+    @Override
+    public void visitAssign(TacInstr.Assign instr) {
+        result = new TacInstr.Assign(dsts[0], srcs[0]);
+    }
+
+    @Override
+    public void visitLoadVTbl(TacInstr.LoadVTbl instr) {
+        result = new TacInstr.LoadVTbl(dsts[0], instr.vtbl);
+    }
+
+    @Override
+    public void visitLoadImm4(TacInstr.LoadImm4 instr) {
+        result = new TacInstr.LoadImm4(dsts[0], instr.value);
+    }
+
+    @Override
+    public void visitLoadStrConst(TacInstr.LoadStrConst instr) {
+        result = new TacInstr.LoadStrConst(dsts[0], instr.value);
+    }
+
+    @Override
+    public void visitUnary(TacInstr.Unary instr) {
+        result = new TacInstr.Unary(instr.op, dsts[0], srcs[0]);
+    }
+
+    @Override
+    public void visitBinary(TacInstr.Binary instr) {
+        result = new TacInstr.Binary(instr.op, dsts[0], srcs[0], srcs[1]);
+    }
+
+    @Override
+    public void visitCondBranch(TacInstr.CondBranch instr) {
+        result = new TacInstr.CondBranch(instr.op, srcs[0], instr.target);
+    }
+
+    @Override
+    public void visitReturn(TacInstr.Return instr) {
+        result = new TacInstr.Return(srcs[0]);
+    }
+
+    @Override
+    public void visitParm(TacInstr.Parm instr) {
+        result = new TacInstr.Parm(srcs[0]);
+    }
+
+    @Override
+    public void visitIndirectCall(TacInstr.IndirectCall instr) {
+        result = instr.dst.isPresent() ? new TacInstr.IndirectCall(dsts[0], srcs[0])
+                : new TacInstr.IndirectCall(srcs[0]);
+    }
+
+    @Override
+    public void visitDirectCall(TacInstr.DirectCall instr) {
+        result = new TacInstr.DirectCall(dsts[0], instr.entry);
+    }
+
+    @Override
+    public void visitMemory(TacInstr.Memory instr) {
+        result = switch (instr.op) {
+            case LOAD -> new TacInstr.Memory(instr.op, dsts[0], srcs[0], instr.offset);
+            case STORE -> new TacInstr.Memory(instr.op, srcs[0], srcs[1], instr.offset);
+        };
+    }
+
+    @Override
+    public void visitPhi(TacInstr.Phi instr) {
+        result = new TacInstr.Phi(dsts[0], srcs, instr.from);
+    }
+
+    @Override
+    public void visitOthers(TacInstr instr) {
+        throw new IllegalArgumentException("unexpected instruction with temps: " + instr);
+    }
+}
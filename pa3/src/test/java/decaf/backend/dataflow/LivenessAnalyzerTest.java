@@ -0,0 +1,80 @@
+package decaf.backend.dataflow;
+
+import decaf.lowlevel.instr.Temp;
+import decaf.lowlevel.label.Label;
+import decaf.lowlevel.tac.Intrinsic;
+import decaf.lowlevel.tac.ProgramWriter;
+import decaf.lowlevel.tac.TacInstr;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LivenessAnalyzerTest {
+    private Temp a;
+    private Temp x;
+    private Label loop;
+
+    /**
+     * {@code a = 9; x = 7; loop: x = a % x; Print(x); if (x != 0) goto loop;}
+     */
+    private CFG<TacInstr> build() {
+        var pw = new ProgramWriter(new ArrayList<>());
+        pw.visitVTables();
+        pw.visitVTablesSucceed();
+        var mv = pw.visitMainMethod();
+        a = mv.visitLoad(9);
+        x = mv.freshTemp();
+        mv.visitRaw(new TacInstr.LoadImm4(x, 7));
+        loop = mv.freshLabel();
+        mv.visitLabel(loop);
+        mv.visitRaw(new TacInstr.Binary(TacInstr.Binary.Op.MOD, x, a, x));
+        mv.visitIntrinsicCall(Intrinsic.PRINT_INT, x);
+        mv.visitBranch(TacInstr.CondBranch.Op.BNEZ, x, loop);
+        mv.visitReturn();
+        mv.visitEnd();
+
+        var func = pw.visitEnd().funcs.get(0);
+        var cfg = new CFGBuilder<TacInstr>().buildFrom(func.getInstrSeq());
+        new LivenessAnalyzer<TacInstr>().accept(cfg);
+        return cfg;
+    }
+
+    private BasicBlock<TacInstr> loopBlock(CFG<TacInstr> cfg) {
+        for (var bb : cfg) {
+            if (bb.label.isPresent() && bb.label.get().name.equals(loop.name)) {
+                return bb;
+            }
+        }
+        throw new AssertionError("no block labelled " + loop);
+    }
+
+    @Test
+    public void readBeforeWriteInOneInstructionIsLiveUse() {
+        var bb = loopBlock(build());
+        assertTrue(bb.liveUse.contains(x));
+        assertTrue(bb.liveUse.contains(a));
+        assertTrue(bb.def.contains(x));
+    }
+
+    @Test
+    public void readBeforeWriteInOneInstructionIsLiveIn() {
+        var cfg = build();
+        var bb = loopBlock(cfg);
+        assertTrue(bb.liveIn.contains(x));
+        assertTrue(bb.liveOut.contains(x));
+        var entry = cfg.getBlock(0);
+        assertFalse(entry.liveIn.contains(x));
+        assertTrue(entry.liveOut.contains(x));
+    }
+
+    @Test
+    public void locationsAgreeWithBlocks() {
+        var bb = loopBlock(build());
+        var first = bb.locs.get(0);
+        assertTrue(first.liveIn.contains(x));
+        assertTrue(first.liveOut.contains(x));
+    }
+}
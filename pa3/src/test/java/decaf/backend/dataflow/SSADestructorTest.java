@@ -0,0 +1,87 @@
+package decaf.backend.dataflow;
+
+import decaf.lowlevel.tac.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SSADestructorTest {
+    /**
+     * {@code x = 0; s = 0; loop: if (x >= 10) goto exit; s = s + x; x = x + 1; goto loop; exit: Print(s);}
+     */
+    private static TacFunc build() {
+        var pw = new ProgramWriter(new ArrayList<>());
+        pw.visitVTables();
+        pw.visitVTablesSucceed();
+        var mv = pw.visitMainMethod();
+        var x = mv.visitLoad(0);
+        var s = mv.visitLoad(0);
+        var loop = mv.freshLabel();
+        var exit = mv.freshLabel();
+        mv.visitLabel(loop);
+        mv.visitBranch(TacInstr.CondBranch.Op.BNEZ, mv.visitBinary(TacInstr.Binary.Op.GEQ, x, mv.visitLoad(10)), exit);
+        mv.visitBinarySelf(TacInstr.Binary.Op.ADD, s, x);
+        mv.visitBinarySelf(TacInstr.Binary.Op.ADD, x, mv.visitLoad(1));
+        mv.visitBranch(loop);
+        mv.visitLabel(exit);
+        mv.visitIntrinsicCall(Intrinsic.PRINT_INT, s);
+        mv.visitReturn();
+        mv.visitEnd();
+        return pw.visitEnd().funcs.get(0);
+    }
+
+    /**
+     * {@code x = 0; loop: x = x + 1; Print(x); if (x < 10) goto loop;}, where the jump back to the loop is a critical
+     * edge.
+     */
+    private static TacFunc buildDoWhile() {
+        var pw = new ProgramWriter(new ArrayList<>());
+        pw.visitVTables();
+        pw.visitVTablesSucceed();
+        var mv = pw.visitMainMethod();
+        var x = mv.visitLoad(0);
+        var loop = mv.freshLabel();
+        mv.visitLabel(loop);
+        mv.visitBinarySelf(TacInstr.Binary.Op.ADD, x, mv.visitLoad(1));
+        mv.visitIntrinsicCall(Intrinsic.PRINT_INT, x);
+        mv.visitBranch(TacInstr.CondBranch.Op.BNEZ, mv.visitBinary(TacInstr.Binary.Op.LES, x, mv.visitLoad(10)), loop);
+        mv.visitReturn();
+        mv.visitEnd();
+        return pw.visitEnd().funcs.get(0);
+    }
+
+    private static List<String> labels(TacFunc func) {
+        return func.getInstrSeq().stream().filter(TacInstr::isLabel).map(TacInstr::toString)
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void dropsLabelsGivenToPredecessors() {
+        var func = build();
+        var before = labels(func);
+
+        new SSABuilder().build(func);
+        // The entry block, a predecessor of the loop, has no label before
+        assertTrue(labels(func).size() > before.size());
+        assertTrue(func.getInstrSeq().stream().anyMatch(instr -> instr instanceof TacInstr.Phi));
+
+        new SSADestructor().destruct(func);
+        assertEquals(before, labels(func));
+    }
+
+    @Test
+    public void dropsEmptyBlocksSplittingCriticalEdges() {
+        var func = buildDoWhile();
+        var before = func.getInstrSeq().stream().map(TacInstr::toString).collect(Collectors.toList());
+
+        new SSABuilder().build(func);
+        new SSADestructor().destruct(func);
+        // The copy on the edge back to the loop is coalesced, so its block is gone
+        assertEquals(before, func.getInstrSeq().stream().map(TacInstr::toString).collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,73 @@
+package decaf.backend.opt;
+
+import decaf.lowlevel.instr.Temp;
+import decaf.lowlevel.tac.*;
+import org.junit.Test;
+
+import java.util.function.Function;
+
+import static decaf.lowlevel.tac.TacInstr.Binary.Op.*;
+import static org.junit.Assert.assertEquals;
+
+public class BoundsCheckEliminationTest {
+    /**
+     * {@code for (i = start; i < a.length(); i = i + 1) Print(a[i]);}, where {@code a} has 10 elements, checking the
+     * index like the TAC emitter does.
+     */
+    static TacProg loopOverArray(Function<FuncVisitor, Temp> start) {
+        return Programs.main(mv -> {
+            var a = StrengthReductionTest.array(mv);
+            var i = mv.freshTemp();
+            mv.visitAssign(i, start.apply(mv));
+            var loop = mv.freshLabel();
+            var exit = mv.freshLabel();
+            mv.visitLabel(loop);
+            var length = mv.visitLoadFrom(a, -4);
+            mv.visitBranch(TacInstr.CondBranch.Op.BEQZ, mv.visitBinary(LES, i, length), exit);
+
+            var error1 = mv.visitBinary(LES, i, mv.visitLoad(0));
+            var error2 = mv.visitBinary(GEQ, i, mv.visitLoadFrom(a, -4));
+            var ok = mv.freshLabel();
+            mv.visitBranch(TacInstr.CondBranch.Op.BEQZ, mv.visitBinary(LOR, error1, error2), ok);
+            mv.visitPrint(RuntimeError.ARRAY_INDEX_OUT_OF_BOUND);
+            mv.visitIntrinsicCall(Intrinsic.HALT);
+            mv.visitLabel(ok);
+            var element = mv.visitBinary(ADD, a, mv.visitBinary(MUL, i, mv.visitLoad(4)));
+            mv.visitIntrinsicCall(Intrinsic.PRINT_INT, mv.visitLoadFrom(element));
+
+            mv.visitBinarySelf(ADD, i, mv.visitLoad(1));
+            mv.visitBranch(loop);
+            mv.visitLabel(exit);
+        });
+    }
+
+    @Test
+    public void removesCheckOfCounterFromZero() {
+        var program = loopOverArray(mv -> mv.visitLoad(0));
+        Programs.optimize(program, new BoundsCheckElimination(), new DeadCodeElimination());
+        // Neither comparison is left, nor the error path
+        assertEquals(0, Programs.count(program, LOR));
+        assertEquals(0, Programs.count(program, GEQ));
+        assertEquals(0, Programs.count(program, TacInstr.LoadStrConst.class));
+        assertEquals("0000000000", Programs.run(program));
+    }
+
+    @Test
+    public void keepsCheckOfNegativeStart() {
+        var program = loopOverArray(mv -> mv.visitLoad(-1));
+        Programs.optimize(program, new BoundsCheckElimination(), new DeadCodeElimination());
+        // Only i < 0 is left to check
+        assertEquals(0, Programs.count(program, GEQ));
+        assertEquals(1, Programs.count(program, TacInstr.LoadStrConst.class));
+        assertEquals(RuntimeError.ARRAY_INDEX_OUT_OF_BOUND, Programs.run(program));
+    }
+
+    @Test
+    public void keepsCheckOfUnprovenStart() {
+        var program = loopOverArray(mv -> mv.visitIntrinsicCall(Intrinsic.READ_INT, true));
+        Programs.optimize(program, new BoundsCheckElimination(), new DeadCodeElimination());
+        assertEquals(1, Programs.count(program, TacInstr.LoadStrConst.class));
+        assertEquals(RuntimeError.ARRAY_INDEX_OUT_OF_BOUND, Programs.run(program, "-1\n"));
+        assertEquals("00", Programs.run(program, "8\n"));
+    }
+}
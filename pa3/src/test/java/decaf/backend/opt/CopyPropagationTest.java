@@ -0,0 +1,84 @@
+package decaf.backend.opt;
+
+import decaf.lowlevel.tac.Intrinsic;
+import decaf.lowlevel.tac.TacInstr;
+import decaf.lowlevel.tac.TacProg;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.stream.Collectors;
+
+import static decaf.lowlevel.tac.TacInstr.Binary.Op.*;
+import static org.junit.Assert.*;
+
+public class CopyPropagationTest {
+    /**
+     * {@code a = 1; b = 2; do { t = a; a = b; b = t; Print(a); i = i + 1; } while (i < 5);}: the copies of the swap
+     * are removed in SSA form, but leaving it needs them again.
+     */
+    static TacProg swapInLoop() {
+        return Programs.main(mv -> {
+            var a = mv.visitLoad(1);
+            var b = mv.visitLoad(2);
+            var i = mv.visitLoad(0);
+            var t = mv.freshTemp();
+            var loop = mv.freshLabel();
+            mv.visitLabel(loop);
+            mv.visitAssign(t, a);
+            mv.visitAssign(a, b);
+            mv.visitAssign(b, t);
+            mv.visitIntrinsicCall(Intrinsic.PRINT_INT, a);
+            mv.visitBinarySelf(ADD, i, mv.visitLoad(1));
+            mv.visitBranch(TacInstr.CondBranch.Op.BNEZ, mv.visitBinary(LES, i, mv.visitLoad(5)), loop);
+        });
+    }
+
+    /**
+     * {@code x = 1; y = x; z = y; Print(z);}
+     */
+    static TacProg chainOfCopies() {
+        return Programs.main(mv -> {
+            var x = mv.visitLoad(1);
+            var y = mv.freshTemp();
+            mv.visitAssign(y, x);
+            var z = mv.freshTemp();
+            mv.visitAssign(z, y);
+            mv.visitIntrinsicCall(Intrinsic.PRINT_INT, z);
+        });
+    }
+
+    private static ArrayList<String> text(TacProg program) {
+        return program.funcs.get(0).getInstrSeq().stream().map(TacInstr::toString)
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    @Test
+    public void removesCopies() {
+        var program = chainOfCopies();
+        assertTrue(Programs.transform(program, new CopyPropagation()));
+        assertEquals(0, Programs.count(program, TacInstr.Assign.class));
+        assertEquals("1", Programs.run(program));
+    }
+
+    @Test
+    public void reachesAFixedPoint() {
+        for (var program : new TacProg[]{swapInLoop(), chainOfCopies()}) {
+            // The swap moves to the edge back to the loop first, and stays there
+            var runs = 1;
+            while (Programs.transform(program, new CopyPropagation())) {
+                runs++;
+                assertTrue(runs < 4);
+            }
+            var settled = text(program);
+            assertFalse(Programs.transform(program, new CopyPropagation()));
+            assertEquals(settled, text(program));
+        }
+    }
+
+    @Test
+    public void keepsSwaps() {
+        var program = swapInLoop();
+        Programs.optimize(program, new CopyPropagation());
+        assertEquals("21212", Programs.run(program));
+    }
+}
@@ -0,0 +1,102 @@
+package decaf.backend.opt;
+
+import decaf.lowlevel.tac.Intrinsic;
+import decaf.lowlevel.tac.TacInstr;
+import decaf.lowlevel.tac.TacProg;
+import org.junit.Test;
+
+import static decaf.lowlevel.tac.TacInstr.Binary.Op.*;
+import static org.junit.Assert.assertEquals;
+
+public class DeadCodeEliminationTest {
+    /**
+     * {@code x = 7; for (i = 0; i < 3; i++) { x = a % x; Print(x); }}: the loop reads {@code x = 7} in the instruction
+     * which first writes {@code x} in its block.
+     */
+    static TacProg readThenWriteInLoop() {
+        return Programs.main(mv -> {
+            var a = mv.visitLoad(9);
+            var x = mv.freshTemp();
+            mv.visitRaw(new TacInstr.LoadImm4(x, 7));
+            var i = mv.freshTemp();
+            mv.visitRaw(new TacInstr.LoadImm4(i, 0));
+            var loop = mv.freshLabel();
+            mv.visitLabel(loop);
+            mv.visitRaw(new TacInstr.Binary(MOD, x, a, x));
+            mv.visitIntrinsicCall(Intrinsic.PRINT_INT, x);
+            mv.visitBinarySelf(ADD, i, mv.visitLoad(1));
+            mv.visitBranch(TacInstr.CondBranch.Op.BNEZ, mv.visitBinary(LES, i, mv.visitLoad(3)), loop);
+        });
+    }
+
+    @Test
+    public void keepsValueReadByItsRedefinition() {
+        var program = readThenWriteInLoop();
+        Programs.optimize(program, new DeadCodeElimination());
+        assertEquals("210", Programs.run(program));
+    }
+
+    @Test
+    public void keepsValueReadByItsRedefinitionAtO1() {
+        var program = readThenWriteInLoop();
+        Optimizer.pipeline(1).run(program);
+        assertEquals("210", Programs.run(program));
+    }
+
+    @Test
+    public void removesUnusedValues() {
+        var program = Programs.main(mv -> {
+            var x = mv.visitLoad(1);
+            var y = mv.visitBinary(ADD, x, mv.visitLoad(2));
+            mv.visitBinary(MUL, y, y);
+            mv.visitIntrinsicCall(Intrinsic.PRINT_INT, x);
+        });
+        Programs.optimize(program, new DeadCodeElimination());
+        assertEquals(0, Programs.count(program, TacInstr.Binary.class));
+        assertEquals("1", Programs.run(program));
+    }
+
+    @Test
+    public void removesValuesOnlyUsedByThemselvesAroundALoop() {
+        var program = Programs.main(mv -> {
+            // s is only read to compute s again
+            var s = mv.freshTemp();
+            mv.visitRaw(new TacInstr.LoadImm4(s, 0));
+            var i = mv.freshTemp();
+            mv.visitRaw(new TacInstr.LoadImm4(i, 0));
+            var loop = mv.freshLabel();
+            mv.visitLabel(loop);
+            mv.visitBinarySelf(ADD, s, i);
+            mv.visitBinarySelf(ADD, i, mv.visitLoad(1));
+            mv.visitBranch(TacInstr.CondBranch.Op.BNEZ, mv.visitBinary(LES, i, mv.visitLoad(10)), loop);
+            mv.visitIntrinsicCall(Intrinsic.PRINT_INT, i);
+        });
+        Programs.optimize(program, new DeadCodeElimination());
+        // i = i + 1 and i < 10 are left
+        assertEquals(2, Programs.count(program, TacInstr.Binary.class));
+        assertEquals("10", Programs.run(program));
+    }
+
+    @Test
+    public void keepsDivisions() {
+        var program = Programs.main(mv -> {
+            mv.visitBinary(DIV, mv.visitLoad(1), mv.visitLoad(0));
+        });
+        Programs.optimize(program, new DeadCodeElimination());
+        assertEquals(1, Programs.count(program, TacInstr.Binary.class));
+    }
+
+    @Test
+    public void removesUnreachableBlocks() {
+        var program = Programs.main(mv -> {
+            var exit = mv.freshLabel();
+            mv.visitBranch(exit);
+            mv.visitIntrinsicCall(Intrinsic.PRINT_INT, mv.visitLoad(1));
+            mv.visitLabel(exit);
+            mv.visitIntrinsicCall(Intrinsic.PRINT_INT, mv.visitLoad(2));
+        });
+        Programs.optimize(program, new DeadCodeElimination());
+        assertEquals(1, Programs.count(program, TacInstr.LoadImm4.class));
+        assertEquals("2", Programs.run(program));
+    }
+}
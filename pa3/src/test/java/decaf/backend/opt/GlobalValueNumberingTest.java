@@ -0,0 +1,96 @@
+package decaf.backend.opt;
+
+import decaf.lowlevel.tac.Intrinsic;
+import decaf.lowlevel.tac.TacInstr;
+import decaf.lowlevel.tac.TacProg;
+import org.junit.Test;
+
+import static decaf.lowlevel.tac.TacInstr.Binary.Op.*;
+import static org.junit.Assert.*;
+
+public class GlobalValueNumberingTest {
+    /**
+     * {@code x = 0; do { x = x + c; Print(x); } while (x < 20);}: a loop-carried value, first written in its block by
+     * an instruction reading it.
+     */
+    static TacProg loopCarried() {
+        return Programs.main(mv -> {
+            var c = mv.visitLoad(5);
+            var x = mv.freshTemp();
+            mv.visitRaw(new TacInstr.LoadImm4(x, 0));
+            var loop = mv.freshLabel();
+            mv.visitLabel(loop);
+            mv.visitBinarySelf(ADD, x, c);
+            mv.visitIntrinsicCall(Intrinsic.PRINT_INT, x);
+            mv.visitBranch(TacInstr.CondBranch.Op.BNEZ, mv.visitBinary(LES, x, mv.visitLoad(20)), loop);
+        });
+    }
+
+    @Test
+    public void keepsLoopCarriedValues() {
+        var program = loopCarried();
+        Programs.optimize(program, new GlobalValueNumbering());
+        assertEquals("5101520", Programs.run(program));
+    }
+
+    @Test
+    public void keepsLoopCarriedValuesAtO2() {
+        var program = loopCarried();
+        Optimizer.pipeline(2).run(program);
+        assertEquals("5101520", Programs.run(program));
+    }
+
+    @Test
+    public void reusesRedundantExpressions() {
+        var program = Programs.main(mv -> {
+            var a = mv.visitIntrinsicCall(Intrinsic.READ_INT, true);
+            var b = mv.visitIntrinsicCall(Intrinsic.READ_INT, true);
+            var x = mv.visitBinary(MUL, a, b);
+            var y = mv.visitBinary(MUL, a, b);
+            mv.visitIntrinsicCall(Intrinsic.PRINT_INT, mv.visitBinary(ADD, x, y));
+        });
+        Programs.optimize(program, new GlobalValueNumbering(), new CopyPropagation(), new DeadCodeElimination());
+        // one multiplication, one addition
+        assertEquals(2, Programs.count(program, TacInstr.Binary.class));
+        assertEquals("24", Programs.run(program, "3\n4\n"));
+    }
+
+    @Test
+    public void keepsExpressionsOfDifferentBranchesApart() {
+        var program = Programs.main(mv -> {
+            var a = mv.visitIntrinsicCall(Intrinsic.READ_INT, true);
+            var other = mv.freshLabel();
+            var exit = mv.freshLabel();
+            var r = mv.freshTemp();
+            mv.visitBranch(TacInstr.CondBranch.Op.BEQZ, a, other);
+            mv.visitAssign(r, mv.visitBinary(ADD, a, mv.visitLoad(1)));
+            mv.visitBranch(exit);
+            mv.visitLabel(other);
+            mv.visitAssign(r, mv.visitBinary(SUB, a, mv.visitLoad(1)));
+            mv.visitLabel(exit);
+            mv.visitIntrinsicCall(Intrinsic.PRINT_INT, mv.visitBinary(ADD, a, mv.visitLoad(1)));
+            mv.visitIntrinsicCall(Intrinsic.PRINT_INT, r);
+        });
+        Programs.optimize(program, new GlobalValueNumbering());
+        assertEquals("33", Programs.run(program, "2\n"));
+        assertEquals("1-1", Programs.run(program, "0\n"));
+    }
+
+    @Test
+    public void keepsConstantLoads() {
+        // b = a is turned into b = 1 by SCCP, which GVN must not turn back into a copy
+        var program = Programs.main(mv -> {
+            var a = mv.visitLoad(1);
+            var b = mv.freshTemp();
+            mv.visitAssign(b, a);
+            mv.visitIntrinsicCall(Intrinsic.PRINT_INT, a);
+            mv.visitIntrinsicCall(Intrinsic.PRINT_INT, b);
+        });
+        assertTrue(Programs.transform(program, new SCCP()));
+        assertEquals(2, Programs.count(program, TacInstr.LoadImm4.class));
+        assertFalse(Programs.transform(program, new GlobalValueNumbering()));
+        assertFalse(Programs.transform(program, new SCCP()));
+        assertEquals(0, Programs.count(program, TacInstr.Assign.class));
+        assertEquals("11", Programs.run(program));
+    }
+}
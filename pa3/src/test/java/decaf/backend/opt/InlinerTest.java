@@ -0,0 +1,134 @@
+package decaf.backend.opt;
+
+import decaf.lowlevel.instr.Temp;
+import decaf.lowlevel.tac.*;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+import static decaf.lowlevel.tac.TacInstr.Binary.Op.*;
+import static org.junit.Assert.*;
+
+public class InlinerTest {
+    /**
+     * Build a program of a static method {@code Main.f(n)} and a main function calling it.
+     *
+     * @param f    writes the body of {@code f}
+     * @param main writes the body of the main function, a return is appended
+     * @return program
+     */
+    static TacProg program(Consumer<FuncVisitor> f, Consumer<FuncVisitor> main) {
+        var clazz = new ClassInfo("Main", Optional.empty(), new TreeSet<>(), new TreeSet<>(),
+                new TreeSet<>(Set.of("main", "f")), true);
+        var pw = new ProgramWriter(new ArrayList<>(List.of(clazz)));
+        pw.visitVTables();
+        pw.visitStaticMethod("Main", "f");
+        pw.visitVTablesSucceed();
+        var fv = pw.visitFunc("Main", "f", 1);
+        f.accept(fv);
+        fv.visitEnd();
+        var mv = pw.visitMainMethod();
+        main.accept(mv);
+        mv.visitReturn();
+        mv.visitEnd();
+        return pw.visitEnd();
+    }
+
+    static Temp callF(FuncVisitor mv, Temp arg) {
+        return mv.visitStaticCall("Main", "f", List.of(arg), true);
+    }
+
+    /**
+     * Count the direct calls to functions of the program, i.e. not to intrinsics.
+     */
+    static long calls(TacProg program) {
+        return program.funcs.stream().flatMap(func -> func.getInstrSeq().stream()).filter(instr ->
+                instr instanceof TacInstr.DirectCall && !((TacInstr.DirectCall) instr).entry.isIntrinsic()).count();
+    }
+
+    /**
+     * {@code for (k = 0; k < 3; k++) Print(f(k == 0));}
+     */
+    static void callInLoop(FuncVisitor mv) {
+        var k = mv.freshTemp();
+        mv.visitRaw(new TacInstr.LoadImm4(k, 0));
+        var loop = mv.freshLabel();
+        mv.visitLabel(loop);
+        mv.visitIntrinsicCall(Intrinsic.PRINT_INT, callF(mv, mv.visitBinary(EQU, k, mv.visitLoad(0))));
+        mv.visitBinarySelf(ADD, k, mv.visitLoad(1));
+        mv.visitBranch(TacInstr.CondBranch.Op.BNEZ, mv.visitBinary(LES, k, mv.visitLoad(3)), loop);
+    }
+
+    @Test
+    public void inlinesSmallFunctions() {
+        // f(n) = n * 2 + 1
+        var program = program(fv -> fv.visitReturn(fv.visitBinary(ADD,
+                fv.visitBinary(MUL, fv.getArgTemp(0), fv.visitLoad(2)), fv.visitLoad(1))),
+                mv -> mv.visitIntrinsicCall(Intrinsic.PRINT_INT, callF(mv, callF(mv, mv.visitLoad(3)))));
+        assertEquals(2, calls(program));
+        var changed = new Inliner().run(program);
+        assertEquals(1, changed.size());
+        assertEquals(0, calls(program));
+        assertEquals("15", Programs.run(program));
+    }
+
+    @Test
+    public void zeroesLocalsOnEveryInlinedCall() {
+        // f(c) { int x; if (c) x = 5; return x; }
+        var program = program(fv -> {
+            var x = fv.freshTemp();
+            var skip = fv.freshLabel();
+            fv.visitBranch(TacInstr.CondBranch.Op.BEQZ, fv.getArgTemp(0), skip);
+            fv.visitRaw(new TacInstr.LoadImm4(x, 5));
+            fv.visitLabel(skip);
+            fv.visitReturn(x);
+        }, InlinerTest::callInLoop);
+        assertEquals("500", Programs.run(program));
+        new Inliner().run(program);
+        assertEquals(0, calls(program));
+        assertEquals("500", Programs.run(program));
+    }
+
+    @Test
+    public void zeroesLocalsAtO2() {
+        var program = program(fv -> {
+            var x = fv.freshTemp();
+            var skip = fv.freshLabel();
+            fv.visitBranch(TacInstr.CondBranch.Op.BEQZ, fv.getArgTemp(0), skip);
+            fv.visitRaw(new TacInstr.LoadImm4(x, 5));
+            fv.visitLabel(skip);
+            fv.visitReturn(x);
+        }, InlinerTest::callInLoop);
+        var pm = Optimizer.pipeline(2);
+        pm.run(program);
+        for (var func : new Inliner().run(program)) {
+            pm.run(func);
+        }
+        assertEquals("500", Programs.run(program));
+    }
+
+    @Test
+    public void keepsRecursiveFunctions() {
+        // f(n) = n <= 0 ? 0 : n + f(n - 1)
+        var program = program(fv -> {
+            var n = fv.getArgTemp(0);
+            var base = fv.freshLabel();
+            fv.visitBranch(TacInstr.CondBranch.Op.BNEZ, fv.visitBinary(LEQ, n, fv.visitLoad(0)), base);
+            fv.visitReturn(fv.visitBinary(ADD, n, callF(fv, fv.visitBinary(SUB, n, fv.visitLoad(1)))));
+            fv.visitLabel(base);
+            fv.visitReturn(fv.visitLoad(0));
+        }, mv -> mv.visitIntrinsicCall(Intrinsic.PRINT_INT, callF(mv, mv.visitLoad(10))));
+        assertTrue(new Inliner().run(program).isEmpty());
+        assertEquals(2, calls(program));
+        assertEquals("55", Programs.run(program));
+    }
+
+    @Test
+    public void inlinesNothingWithoutBudget() {
+        var program = program(fv -> fv.visitReturn(fv.getArgTemp(0)),
+                mv -> mv.visitIntrinsicCall(Intrinsic.PRINT_INT, callF(mv, mv.visitLoad(7))));
+        assertTrue(new Inliner(0).run(program).isEmpty());
+        assertEquals(1, calls(program));
+    }
+}
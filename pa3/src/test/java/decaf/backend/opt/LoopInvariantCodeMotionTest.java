@@ -0,0 +1,79 @@
+package decaf.backend.opt;
+
+import decaf.lowlevel.tac.Intrinsic;
+import decaf.lowlevel.tac.TacInstr;
+import decaf.lowlevel.tac.TacProg;
+import org.junit.Test;
+
+import static decaf.lowlevel.tac.TacInstr.Binary.Op.*;
+import static org.junit.Assert.*;
+
+public class LoopInvariantCodeMotionTest {
+    /**
+     * {@code a = ReadInt(); b = ReadInt(); i = 0; do { Print(a * b); i = i + 1; } while (i < 3);}
+     */
+    static TacProg invariantProduct() {
+        return Programs.main(mv -> {
+            var a = mv.visitIntrinsicCall(Intrinsic.READ_INT, true);
+            var b = mv.visitIntrinsicCall(Intrinsic.READ_INT, true);
+            var i = mv.visitLoad(0);
+            var loop = mv.freshLabel();
+            mv.visitLabel(loop);
+            mv.visitIntrinsicCall(Intrinsic.PRINT_INT, mv.visitBinary(MUL, a, b));
+            mv.visitBinarySelf(ADD, i, mv.visitLoad(1));
+            mv.visitBranch(TacInstr.CondBranch.Op.BNEZ, mv.visitBinary(LES, i, mv.visitLoad(3)), loop);
+        });
+    }
+
+    /**
+     * {@code i = 0; do { j = 0; do { Print(j); j = j + 1; } while (j < 2); i = i + 1; } while (i < 2);}: the inner
+     * counter starts from a constant in the outer loop.
+     */
+    static TacProg nestedCounters() {
+        return Programs.main(mv -> {
+            var i = mv.visitLoad(0);
+            var j = mv.freshTemp();
+            var outer = mv.freshLabel();
+            var inner = mv.freshLabel();
+            mv.visitLabel(outer);
+            mv.visitRaw(new TacInstr.LoadImm4(j, 0));
+            mv.visitLabel(inner);
+            mv.visitIntrinsicCall(Intrinsic.PRINT_INT, j);
+            mv.visitBinarySelf(ADD, j, mv.visitLoad(1));
+            mv.visitBranch(TacInstr.CondBranch.Op.BNEZ, mv.visitBinary(LES, j, mv.visitLoad(2)), inner);
+            mv.visitBinarySelf(ADD, i, mv.visitLoad(1));
+            mv.visitBranch(TacInstr.CondBranch.Op.BNEZ, mv.visitBinary(LES, i, mv.visitLoad(2)), outer);
+        });
+    }
+
+    @Test
+    public void hoistsInvariantExpressions() {
+        var program = invariantProduct();
+        assertTrue(Programs.transform(program, new LoopInvariantCodeMotion()));
+        var seq = program.funcs.get(0).getInstrSeq();
+        var mul = -1;
+        var loop = -1;
+        for (var i = 0; i < seq.size(); i++) {
+            if (seq.get(i) instanceof TacInstr.Binary && ((TacInstr.Binary) seq.get(i)).op == MUL) {
+                mul = i;
+            }
+            if (i > 0 && seq.get(i).isLabel() && loop == -1) {
+                loop = i;
+            }
+        }
+        assertTrue(mul != -1 && mul < loop);
+        assertEquals("121212", Programs.run(program, "3\n4\n"));
+    }
+
+    @Test
+    public void keepsConstantsReadByPhis() {
+        var program = nestedCounters();
+        // SCCP and LICM must agree on where j = 0 goes
+        var runs = 0;
+        while (Programs.transform(program, new SCCP()) | Programs.transform(program, new LoopInvariantCodeMotion())) {
+            runs++;
+            assertTrue(runs < 4);
+        }
+        assertEquals("0101", Programs.run(program));
+    }
+}
@@ -0,0 +1,47 @@
+package decaf.backend.opt;
+
+import decaf.backend.dataflow.CFG;
+import decaf.lowlevel.tac.TacFunc;
+import decaf.lowlevel.tac.TacInstr;
+import decaf.lowlevel.tac.TacProg;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PassManagerTest {
+    /**
+     * A pass which always says it changed the function, but never does.
+     */
+    private static class Liar extends Pass {
+        int runs;
+
+        Liar() {
+            super("liar");
+        }
+
+        @Override
+        public boolean transform(TacFunc func, CFG<TacInstr> cfg) {
+            runs++;
+            return true;
+        }
+    }
+
+    @Test
+    public void stopsWhenNothingChanges() {
+        var liar = new Liar();
+        var program = DeadCodeEliminationTest.readThenWriteInLoop();
+        assertEquals(1, new PassManager().add(liar).run(program.funcs.get(0)));
+        assertEquals(1, liar.runs);
+    }
+
+    @Test
+    public void convergesOnLoops() {
+        for (var program : new TacProg[]{DeadCodeEliminationTest.readThenWriteInLoop(),
+                GlobalValueNumberingTest.loopCarried(), CopyPropagationTest.swapInLoop(),
+                LoopInvariantCodeMotionTest.nestedCounters(), LoopInvariantCodeMotionTest.invariantProduct()}) {
+            var rounds = Optimizer.pipeline(2).run(program.funcs.get(0));
+            assertTrue("rounds: " + rounds, rounds < PassManager.MAX_ITERATIONS);
+        }
+    }
+}
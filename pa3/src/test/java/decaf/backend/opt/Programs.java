@@ -0,0 +1,104 @@
+package decaf.backend.opt;
+
+import decaf.backend.dataflow.CFGBuilder;
+import decaf.lowlevel.tac.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Build, optimize and run small TAC programs in tests.
+ */
+final class Programs {
+    private Programs() {
+    }
+
+    /**
+     * Build a program with only a main function.
+     *
+     * @param body writes the body of the main function, a return is appended
+     * @return program
+     */
+    static TacProg main(Consumer<FuncVisitor> body) {
+        var pw = new ProgramWriter(new ArrayList<>());
+        pw.visitVTables();
+        pw.visitVTablesSucceed();
+        var mv = pw.visitMainMethod();
+        body.accept(mv);
+        mv.visitReturn();
+        mv.visitEnd();
+        return pw.visitEnd();
+    }
+
+    /**
+     * Run some passes over every function of a program, until a fixed point.
+     *
+     * @param program program
+     * @param passes  passes
+     */
+    static void optimize(TacProg program, Pass... passes) {
+        var pm = new PassManager();
+        for (var pass : passes) {
+            pm.add(pass);
+        }
+        pm.run(program);
+    }
+
+    /**
+     * Run a pass once over the first function of a program.
+     *
+     * @param program program
+     * @param pass    pass
+     * @return true if the pass says it changed the function
+     */
+    static boolean transform(TacProg program, Pass pass) {
+        var func = program.funcs.get(0);
+        return pass.transform(func, new CFGBuilder<TacInstr>().buildFrom(func.getInstrSeq()));
+    }
+
+    /**
+     * Run a program on the simulator, with the JIT compiler disabled.
+     *
+     * @param program program
+     * @param input   stdin
+     * @return stdout
+     */
+    static String run(TacProg program, String input) {
+        var out = new ByteArrayOutputStream();
+        var options = SimulatorOptions.builder().maxInstructions(10_000_000).jit(false).build();
+        var simulator = new Simulator(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), out, options);
+        simulator.execute(program);
+        simulator.flush();
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    static String run(TacProg program) {
+        return run(program, "");
+    }
+
+    /**
+     * Count the instructions of a kind in every function of a program.
+     *
+     * @param program program
+     * @param kind    class of the instructions
+     * @return count
+     */
+    static long count(TacProg program, Class<? extends TacInstr> kind) {
+        return program.funcs.stream().flatMap(func -> func.getInstrSeq().stream()).filter(kind::isInstance).count();
+    }
+
+    /**
+     * Count the binary instructions of an operator in every function of a program.
+     *
+     * @param program program
+     * @param op      operator
+     * @return count
+     */
+    static long count(TacProg program, TacInstr.Binary.Op op) {
+        return program.funcs.stream().flatMap(func -> func.getInstrSeq().stream())
+                .filter(instr -> instr instanceof TacInstr.Binary && ((TacInstr.Binary) instr).op == op).count();
+    }
+}
@@ -0,0 +1,30 @@
+package decaf.backend.opt;
+
+import decaf.backend.dataflow.CFGBuilder;
+import decaf.lowlevel.tac.*;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SCCPTest {
+    @Test
+    public void knowsTheKindOfSharedClosures() {
+        // c = Main.f as a value; Print(c.kind); Print(c.entry(7))
+        var program = InlinerTest.program(fv -> fv.visitReturn(fv.getArgTemp(0)), mv -> {
+            var closure = mv.visitStaticClosure("Main", "f");
+            mv.visitIntrinsicCall(Intrinsic.PRINT_INT, mv.visitLoadFrom(closure));
+            var entry = mv.visitLoadFrom(closure, 4);
+            mv.visitIntrinsicCall(Intrinsic.PRINT_INT, mv.visitCall(entry, List.of(mv.visitLoad(7)), true));
+        });
+        var table = program.vtables.stream().filter(vtbl -> vtbl instanceof ClosureTable).findFirst().orElseThrow();
+        assertEquals(1, ((ClosureTable) table).getEntries().size());
+
+        var main = program.funcs.stream().filter(func -> func.entry.method.equals("main")).findFirst().orElseThrow();
+        assertTrue(new SCCP().transform(main, new CFGBuilder<TacInstr>().buildFrom(main.getInstrSeq())));
+        // Only the load of the entry is left
+        assertEquals(1, main.getInstrSeq().stream().filter(instr -> instr instanceof TacInstr.Memory).count());
+        assertEquals("07", Programs.run(program));
+    }
+}
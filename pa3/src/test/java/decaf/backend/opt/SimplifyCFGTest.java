@@ -0,0 +1,76 @@
+package decaf.backend.opt;
+
+import decaf.lowlevel.tac.Intrinsic;
+import decaf.lowlevel.tac.TacInstr;
+import org.junit.Test;
+
+import static decaf.lowlevel.tac.TacInstr.Binary.Op.*;
+import static org.junit.Assert.assertEquals;
+
+public class SimplifyCFGTest {
+    @Test
+    public void removesJumpsOverEmptyBlocks() {
+        var program = Programs.main(mv -> {
+            var a = mv.freshLabel();
+            var b = mv.freshLabel();
+            var c = mv.freshLabel();
+            mv.visitIntrinsicCall(Intrinsic.PRINT_INT, mv.visitLoad(1));
+            mv.visitBranch(c);
+            mv.visitLabel(a);
+            mv.visitLabel(b);
+            mv.visitLabel(c);
+            mv.visitIntrinsicCall(Intrinsic.PRINT_INT, mv.visitLoad(2));
+        });
+        Programs.optimize(program, new SimplifyCFG());
+        assertEquals(0, Programs.count(program, TacInstr.Branch.class));
+        // only the function label is left
+        assertEquals(1, Programs.count(program, TacInstr.Mark.class));
+        assertEquals("12", Programs.run(program));
+    }
+
+    @Test
+    public void threadsJumpsThroughEmptyAndJumpBlocks() {
+        var program = Programs.main(mv -> {
+            var x = mv.visitIntrinsicCall(Intrinsic.READ_INT, true);
+            var empty = mv.freshLabel();
+            var jump = mv.freshLabel();
+            var exit = mv.freshLabel();
+            mv.visitBranch(TacInstr.CondBranch.Op.BEQZ, x, empty);
+            mv.visitIntrinsicCall(Intrinsic.PRINT_INT, mv.visitLoad(1));
+            mv.visitBranch(jump);
+            // empty: falls through to jump
+            mv.visitLabel(empty);
+            mv.visitLabel(jump);
+            mv.visitBranch(exit);
+            mv.visitIntrinsicCall(Intrinsic.PRINT_INT, mv.visitLoad(2));
+            mv.visitLabel(exit);
+            mv.visitIntrinsicCall(Intrinsic.PRINT_INT, mv.visitLoad(3));
+        });
+        Programs.optimize(program, new SimplifyCFG());
+        // if (x == 0) branch exit; Print(1); exit: Print(3)
+        assertEquals(0, Programs.count(program, TacInstr.Branch.class));
+        assertEquals(1, Programs.count(program, TacInstr.CondBranch.class));
+        assertEquals(2, Programs.count(program, TacInstr.Mark.class));
+        assertEquals("3", Programs.run(program, "0\n"));
+        assertEquals("13", Programs.run(program, "1\n"));
+    }
+
+    @Test
+    public void terminatesOnLoopsOfJumps() {
+        var program = Programs.main(mv -> {
+            var x = mv.visitIntrinsicCall(Intrinsic.READ_INT, true);
+            var a = mv.freshLabel();
+            var b = mv.freshLabel();
+            var exit = mv.freshLabel();
+            mv.visitBranch(TacInstr.CondBranch.Op.BEQZ, x, exit);
+            mv.visitLabel(a);
+            mv.visitBranch(b);
+            mv.visitLabel(b);
+            mv.visitBranch(a);
+            mv.visitLabel(exit);
+            mv.visitIntrinsicCall(Intrinsic.PRINT_INT, mv.visitBinary(ADD, x, mv.visitLoad(1)));
+        });
+        Programs.optimize(program, new SimplifyCFG());
+        assertEquals("1", Programs.run(program, "0\n"));
+    }
+}
@@ -0,0 +1,75 @@
+package decaf.backend.opt;
+
+import decaf.lowlevel.instr.Temp;
+import decaf.lowlevel.tac.FuncVisitor;
+import decaf.lowlevel.tac.Intrinsic;
+import decaf.lowlevel.tac.TacInstr;
+import decaf.lowlevel.tac.TacProg;
+import org.junit.Test;
+
+import java.util.function.Function;
+
+import static decaf.lowlevel.tac.TacInstr.Binary.Op.*;
+import static org.junit.Assert.*;
+
+public class StrengthReductionTest {
+    /**
+     * {@code for (i = 0; i < 10; i = i + 1) Print(*(base + i * 4));}, or {@code Print(base + i * 4)}.
+     */
+    static TacProg loop(Function<FuncVisitor, Temp> base, boolean load) {
+        return Programs.main(mv -> {
+            var b = base.apply(mv);
+            var i = mv.freshTemp();
+            mv.visitRaw(new TacInstr.LoadImm4(i, 0));
+            var loop = mv.freshLabel();
+            var exit = mv.freshLabel();
+            mv.visitLabel(loop);
+            mv.visitBranch(TacInstr.CondBranch.Op.BEQZ, mv.visitBinary(LES, i, mv.visitLoad(10)), exit);
+            var p = mv.visitBinary(ADD, b, mv.visitBinary(MUL, i, mv.visitLoad(4)));
+            mv.visitIntrinsicCall(Intrinsic.PRINT_INT, load ? mv.visitLoadFrom(p) : p);
+            mv.visitBinarySelf(ADD, i, mv.visitLoad(1));
+            mv.visitBranch(loop);
+            mv.visitLabel(exit);
+        });
+    }
+
+    static Temp array(FuncVisitor mv) {
+        var a = mv.visitIntrinsicCall(Intrinsic.ALLOCATE, true, mv.visitLoad(44));
+        mv.visitStoreTo(a, mv.visitLoad(10));
+        return mv.visitBinary(ADD, a, mv.visitLoad(4));
+    }
+
+    /**
+     * Is the constant 1, i.e. the step of {@code i}, still loaded?
+     */
+    static boolean stepsByOne(TacProg program) {
+        return program.funcs.stream().flatMap(func -> func.getInstrSeq().stream()).anyMatch(instr ->
+                instr instanceof TacInstr.LoadImm4 && ((TacInstr.LoadImm4) instr).value == 1);
+    }
+
+    @Test
+    public void replacesTestOnArrays() {
+        var program = loop(StrengthReductionTest::array, true);
+        Optimizer.pipeline(2).run(program);
+        // The loop only moves a pointer, and compares it to the end of the array
+        assertFalse(stepsByOne(program));
+        assertEquals(0, Programs.count(program, MUL));
+        assertEquals("0000000000", Programs.run(program));
+    }
+
+    @Test
+    public void keepsTestOnIntegers() {
+        var expected = Programs.run(loop(mv -> mv.visitIntrinsicCall(Intrinsic.READ_INT, true), false), "2147483640");
+        assertTrue(expected.startsWith("21474836402147483644-2147483648"));
+
+        var program = loop(mv -> mv.visitIntrinsicCall(Intrinsic.READ_INT, true), false);
+        Programs.optimize(program, new StrengthReduction());
+        assertEquals(expected, Programs.run(program, "2147483640"));
+
+        program = loop(mv -> mv.visitIntrinsicCall(Intrinsic.READ_INT, true), false);
+        Optimizer.pipeline(2).run(program);
+        assertTrue(stepsByOne(program));
+        assertEquals(0, Programs.count(program, MUL));
+        assertEquals(expected, Programs.run(program, "2147483640"));
+    }
+}
@@ -0,0 +1,92 @@
+package decaf.driver;
+
+import decaf.lowlevel.tac.Simulator;
+import decaf.lowlevel.tac.SimulatorOptions;
+import decaf.lowlevel.tac.TacProg;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Golden output tests: compile every sample program of {@code TestCases/S3} and {@code TestCases/S4} at every
+ * optimization level, run it on the simulator with and without the JIT compiler, and compare its output to the
+ * expected one in {@code result}.
+ */
+@RunWith(Parameterized.class)
+public class SamplesTest {
+    @Parameterized.Parameters(name = "{0}")
+    public static List<Object[]> samples() {
+        var samples = new ArrayList<Object[]>();
+        for (var set : List.of("S3", "S4")) {
+            var files = new File("TestCases", set).listFiles((dir, name) -> name.endsWith(".decaf"));
+            if (files == null) {
+                continue;
+            }
+            for (var file : files) {
+                samples.add(new Object[]{set + "/" + file.getName(), file.toPath()});
+            }
+        }
+        samples.sort((a, b) -> ((String) a[0]).compareTo((String) b[0]));
+        return samples;
+    }
+
+    private final Path source;
+
+    public SamplesTest(String name, Path source) {
+        this.source = source;
+    }
+
+    @Test
+    public void outputsAgreeWithResult() throws IOException {
+        var name = source.getFileName().toString().replaceFirst("\\.decaf$", ".result");
+        var expected = normalize(Files.readString(source.resolveSibling("result").resolve(name)));
+        for (var level = 0; level <= 2; level++) {
+            var program = compile(level);
+            for (var jit : new boolean[]{false, true}) {
+                var actual = normalize(run(program, jit));
+                assertEquals(String.format("-O%d, %s", level, jit ? "JIT" : "interpreter"), expected, actual);
+            }
+        }
+    }
+
+    /**
+     * Compile the sample into TAC.
+     */
+    private TacProg compile(int level) throws IOException {
+        // As the target is PA5, no phase writes or runs anything
+        var config = new OptParser().parse(new String[]{"-t", "PA5", "-O" + level, source.toString()}).orElseThrow();
+        try (var in = config.source) {
+            return new TaskFactory(config).optimize().apply(in).orElseThrow();
+        }
+    }
+
+    private static String run(TacProg program, boolean jit) {
+        var out = new ByteArrayOutputStream();
+        var options = SimulatorOptions.builder().maxInstructions(SimulatorOptions.UNBOUNDED).jit(jit).build();
+        var simulator = new Simulator(new ByteArrayInputStream(new byte[0]), out, options);
+        simulator.execute(program);
+        simulator.flush();
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Ignore blank lines and trailing spaces, like {@code TestCases/testAll.py}.
+     */
+    private static String normalize(String output) {
+        return output.lines().map(String::stripTrailing).filter(line -> !line.isEmpty())
+                .collect(Collectors.joining("\n"));
+    }
+}
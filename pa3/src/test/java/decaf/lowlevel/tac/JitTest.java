@@ -0,0 +1,328 @@
+package decaf.lowlevel.tac;
+
+import decaf.lowlevel.instr.Temp;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.IntBinaryOperator;
+
+import static decaf.lowlevel.tac.TacInstr.Binary.Op.*;
+import static org.junit.Assert.*;
+
+public class JitTest {
+    /**
+     * Entries for compiled code run without a simulator: no budget, a small memory, and no calls.
+     */
+    private static class Stub extends Jit.Runtime {
+        final int[] memory = new int[64];
+        final List<Integer> parms = new ArrayList<>();
+
+        @Override
+        public boolean tick(int size) {
+            return true;
+        }
+
+        @Override
+        public int deopt(int func, int pc, int[] temps) {
+            throw new AssertionError("deopt");
+        }
+
+        @Override
+        public int load(int base, int offset) {
+            return memory[(base + offset) / 4];
+        }
+
+        @Override
+        public void store(int value, int base, int offset) {
+            memory[(base + offset) / 4] = value;
+        }
+
+        @Override
+        public void parm(int value) {
+            parms.add(value);
+        }
+
+        @Override
+        public int call(int func, int pc) {
+            throw new AssertionError("call");
+        }
+
+        @Override
+        public int callIndirect(int addr, int pc) {
+            throw new AssertionError("call");
+        }
+
+        @Override
+        public int intrinsic(int opcode) {
+            throw new AssertionError("intrinsic");
+        }
+    }
+
+    /**
+     * Link a program of a main function only. Its first temps, never written, are its inputs.
+     *
+     * @param inputs number of inputs
+     * @param body   writes the body of the function, given the inputs
+     * @return executable image
+     */
+    private static Executable function(int inputs, BiConsumer<FuncVisitor, Temp[]> body) {
+        var pw = new ProgramWriter(new ArrayList<>());
+        pw.visitVTables();
+        pw.visitVTablesSucceed();
+        var mv = pw.visitMainMethod();
+        var temps = new Temp[inputs];
+        for (var i = 0; i < inputs; i++) {
+            temps[i] = mv.freshTemp();
+        }
+        body.accept(mv, temps);
+        mv.visitEnd();
+        return Simulator.prepare(pw.visitEnd());
+    }
+
+    private static Jit.Code compile(Executable exe) {
+        var code = Jit.compile(exe, 0);
+        assertNotNull(code);
+        return code;
+    }
+
+    private static int invoke(Jit.Code code, Executable exe, Jit.Runtime rt, int... inputs) {
+        var regs = new int[exe.funcTemps[0]];
+        System.arraycopy(inputs, 0, regs, 0, inputs.length);
+        return code.invoke(rt, regs, 0, exe.funcEntry[0]);
+    }
+
+    private static final int[] VALUES = {0, 1, -1, 2, 7, -13, 100, Integer.MAX_VALUE, Integer.MIN_VALUE};
+
+    private static void checkBinary(TacInstr.Binary.Op op, IntBinaryOperator expected) {
+        var exe = function(2, (mv, in) -> mv.visitReturn(mv.visitBinary(op, in[0], in[1])));
+        var code = compile(exe);
+        for (var lhs : VALUES) {
+            for (var rhs : VALUES) {
+                if ((op == DIV || op == MOD) && rhs == 0) {
+                    continue;
+                }
+                assertEquals(op + " " + lhs + " " + rhs, expected.applyAsInt(lhs, rhs),
+                        invoke(code, exe, new Stub(), lhs, rhs));
+            }
+        }
+    }
+
+    private static int bool(boolean value) {
+        return value ? 1 : 0;
+    }
+
+    @Test
+    public void arithmetic() {
+        checkBinary(ADD, (a, b) -> a + b);
+        checkBinary(SUB, (a, b) -> a - b);
+        checkBinary(MUL, (a, b) -> a * b);
+        checkBinary(DIV, (a, b) -> a / b);
+        checkBinary(MOD, (a, b) -> a % b);
+    }
+
+    @Test
+    public void comparisons() {
+        checkBinary(EQU, (a, b) -> bool(a == b));
+        checkBinary(NEQ, (a, b) -> bool(a != b));
+        checkBinary(LES, (a, b) -> bool(a < b));
+        checkBinary(LEQ, (a, b) -> bool(a <= b));
+        checkBinary(GTR, (a, b) -> bool(a > b));
+        checkBinary(GEQ, (a, b) -> bool(a >= b));
+    }
+
+    @Test
+    public void logicalOperators() {
+        checkBinary(LAND, (a, b) -> bool(a != 0 && b != 0));
+        checkBinary(LOR, (a, b) -> bool(a != 0 || b != 0));
+    }
+
+    @Test
+    public void unaryOperators() {
+        var neg = function(1, (mv, in) -> mv.visitReturn(mv.visitUnary(TacInstr.Unary.Op.NEG, in[0])));
+        var not = function(1, (mv, in) -> mv.visitReturn(mv.visitUnary(TacInstr.Unary.Op.LNOT, in[0])));
+        var negCode = compile(neg);
+        var notCode = compile(not);
+        for (var value : VALUES) {
+            assertEquals(-value, invoke(negCode, neg, new Stub(), value));
+            assertEquals(bool(value == 0), invoke(notCode, not, new Stub(), value));
+        }
+    }
+
+    @Test
+    public void constantsOfEverySize() {
+        // iconst, bipush, sipush and ldc
+        for (var value : new int[]{-1, 0, 5, 6, -2, 127, -128, 128, -129, 32767, -32768, 32768, -32769,
+                Integer.MAX_VALUE, Integer.MIN_VALUE}) {
+            var exe = function(0, (mv, in) -> mv.visitReturn(mv.visitLoad(value)));
+            assertEquals(value, invoke(compile(exe), exe, new Stub()));
+        }
+    }
+
+    @Test
+    public void manyTemps() {
+        // Temps beyond 255 need wide loads and stores
+        var exe = function(1, (mv, in) -> {
+            var t = in[0];
+            for (var i = 0; i < 400; i++) {
+                t = mv.visitBinary(ADD, t, in[0]);
+            }
+            mv.visitReturn(t);
+        });
+        assertEquals(401 * 3, invoke(compile(exe), exe, new Stub(), 3));
+    }
+
+    @Test
+    public void loops() {
+        // s = 0; i = 0; while (i < n) { s = s + i * i; i = i + 1; } return s
+        var exe = function(1, (mv, in) -> {
+            var s = mv.visitLoad(0);
+            var i = mv.visitLoad(0);
+            var loop = mv.freshLabel();
+            var exit = mv.freshLabel();
+            mv.visitLabel(loop);
+            mv.visitBranch(TacInstr.CondBranch.Op.BEQZ, mv.visitBinary(LES, i, in[0]), exit);
+            mv.visitAssign(s, mv.visitBinary(ADD, s, mv.visitBinary(MUL, i, i)));
+            mv.visitBinarySelf(ADD, i, mv.visitLoad(1));
+            mv.visitBranch(loop);
+            mv.visitLabel(exit);
+            mv.visitReturn(s);
+        });
+        var code = compile(exe);
+        for (var n : new int[]{0, 1, 10, 1000}) {
+            var expected = 0;
+            for (var i = 0; i < n; i++) {
+                expected += i * i;
+            }
+            assertEquals(expected, invoke(code, exe, new Stub(), n));
+        }
+    }
+
+    @Test
+    public void memoryAndParms() {
+        var exe = function(2, (mv, in) -> {
+            mv.visitStoreTo(in[0], 8, in[1]);
+            var x = mv.visitLoadFrom(in[0], 8);
+            mv.visitParm(x);
+            mv.visitParm(in[1]);
+            mv.visitReturn(mv.visitBinary(ADD, x, mv.visitLoadFrom(in[0], 8)));
+        });
+        var stub = new Stub();
+        assertEquals(84, invoke(compile(exe), exe, stub, 16, 42));
+        assertEquals(42, stub.memory[6]);
+        assertEquals(List.of(42, 42), stub.parms);
+    }
+
+    @Test
+    public void tooLargeFunctionsAreNotCompiled() {
+        // More than 32767 bytes of bytecode
+        var exe = function(1, (mv, in) -> {
+            var t = in[0];
+            for (var i = 0; i < 10000; i++) {
+                t = mv.visitBinary(ADD, t, in[0]);
+            }
+            mv.visitReturn(t);
+        });
+        assertNull(Jit.compile(exe, 0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void illegalEntries() {
+        var exe = function(1, (mv, in) -> {
+            var x = mv.visitBinary(ADD, in[0], in[0]);
+            mv.visitReturn(mv.visitBinary(ADD, x, in[0]));
+        });
+        var code = compile(exe);
+        // The second instruction doesn't start a basic block
+        code.invoke(new Stub(), new int[exe.funcTemps[0]], 0, exe.funcEntry[0] + 1);
+    }
+
+    @Test
+    public void compiledClassesBelongToTheirProgram() {
+        var exe = function(1, (mv, in) -> mv.visitReturn(in[0]));
+        var other = function(1, (mv, in) -> mv.visitReturn(in[0]));
+        var loader = compile(exe).getClass().getClassLoader();
+        assertSame(exe.loader, loader);
+        assertNotSame(Jit.class.getClassLoader(), loader);
+        assertSame(other.loader, compile(other).getClass().getClassLoader());
+    }
+
+    /**
+     * {@code fib(n)} recursively, for {@code n} in {@code 0..count}.
+     */
+    private static TacProg fibonacci(int count) {
+        var clazz = new ClassInfo("Main", Optional.empty(), new TreeSet<>(), new TreeSet<>(),
+                new TreeSet<>(Set.of("main", "fib")), true);
+        var pw = new ProgramWriter(new ArrayList<>(List.of(clazz)));
+        pw.visitVTables();
+        pw.visitStaticMethod("Main", "fib");
+        pw.visitVTablesSucceed();
+
+        var fv = pw.visitFunc("Main", "fib", 1);
+        var n = fv.getArgTemp(0);
+        var base = fv.freshLabel();
+        fv.visitBranch(TacInstr.CondBranch.Op.BNEZ, fv.visitBinary(LES, n, fv.visitLoad(2)), base);
+        var a = fv.visitStaticCall("Main", "fib", List.of(fv.visitBinary(SUB, n, fv.visitLoad(1))), true);
+        var b = fv.visitStaticCall("Main", "fib", List.of(fv.visitBinary(SUB, n, fv.visitLoad(2))), true);
+        fv.visitReturn(fv.visitBinary(ADD, a, b));
+        fv.visitLabel(base);
+        fv.visitReturn(n);
+        fv.visitEnd();
+
+        var mv = pw.visitMainMethod();
+        var i = mv.visitLoad(0);
+        var loop = mv.freshLabel();
+        var exit = mv.freshLabel();
+        mv.visitLabel(loop);
+        mv.visitBranch(TacInstr.CondBranch.Op.BEQZ, mv.visitBinary(LEQ, i, mv.visitLoad(count)), exit);
+        mv.visitIntrinsicCall(Intrinsic.PRINT_INT, mv.visitStaticCall("Main", "fib", List.of(i), true));
+        mv.visitPrint(" ");
+        mv.visitBinarySelf(ADD, i, mv.visitLoad(1));
+        mv.visitBranch(loop);
+        mv.visitLabel(exit);
+        mv.visitReturn();
+        mv.visitEnd();
+        return pw.visitEnd();
+    }
+
+    private static String run(Executable exe, long maxInstructions, boolean jit) {
+        var out = new ByteArrayOutputStream();
+        var options = SimulatorOptions.builder().maxInstructions(maxInstructions).jit(jit).build();
+        var simulator = new Simulator(new ByteArrayInputStream(new byte[0]), out, options);
+        try {
+            simulator.execute(exe);
+        } catch (Simulator.Error e) {
+            simulator.flush();
+            return out.toString(StandardCharsets.UTF_8) + "!" + e.getMessage();
+        }
+        simulator.flush();
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void agreesWithTheInterpreter() {
+        var exe = Simulator.prepare(fibonacci(20));
+        var fib = 0;
+        while (!exe.funcs[fib].entry.name.contains("fib")) {
+            fib++;
+        }
+        var expected = run(exe, SimulatorOptions.UNBOUNDED, false);
+        assertTrue(expected.endsWith(" 4181 6765 "));
+        assertNull(exe.compiled.get(fib));
+        assertEquals(expected, run(exe, SimulatorOptions.UNBOUNDED, true));
+        assertNotNull(exe.compiled.get(fib));
+    }
+
+    @Test
+    public void stopsAtTheSameInstructionAsTheInterpreter() {
+        for (var max : new long[]{100_000, 123_457}) {
+            var exe = Simulator.prepare(fibonacci(25));
+            var expected = run(exe, max, false);
+            assertTrue(expected.contains("!"));
+            assertEquals(expected, run(exe, max, true));
+        }
+    }
+}